@@ -3,8 +3,11 @@
  */
 package ws.finson.audiosp.app.device;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
 
 import nu.xom.Attribute;
 import nu.xom.Element;
@@ -30,11 +33,24 @@ public abstract class AbstractSpectrumAnalyzerDevice extends AbstractHardwareDev
             new DeviceParameter("SAMPLE_RATE_HZ", "Sample rate (Hz)", true, Integer.class,true),
             new DeviceParameter("AUDIO_CHANNEL_COUNT", "Channel Count", true, Integer.class,true) };
 
+    private int frameBufferCapacity = 8;
+    private FrameRingBuffer.OverflowPolicy frameBufferPolicy =
+            FrameRingBuffer.OverflowPolicy.OVERWRITE_OLDEST;
+    protected final FrameRingBuffer<SpectrumFrame> frameBuffer;
+    protected final SpectrumFramePool framePool;
+
     /**
      * Initialize the common fields of a SpectrumAnalyzerDevice using the attributes given in the
      * device configuration element. Attributes and child elements specific to a subclass should be
      * dealt with in the subclass constructor after this constructor has returned.
      * 
+     * The optional buffer attribute is the number of magnitude frames the frame buffer holds
+     * (default 8), and the optional overflow attribute is what happens when it is full: overwrite
+     * drops the oldest frame (the default), block makes the device wait for a consumer that polls
+     * the buffer. Block needs such a consumer to register with FrameRingBuffer.addPoller(); while
+     * none is registered the buffer keeps no frames and never waits, and listeners such as
+     * SpectrumAnalyzerView still see every frame.
+     * 
      * @param ac
      *            the ApplicationComponent for which this object is being constructed
      * @param cE
@@ -57,7 +73,28 @@ public abstract class AbstractSpectrumAnalyzerDevice extends AbstractHardwareDev
         int attributeCount = cE.getAttributeCount();
         for (int i = 0; i < attributeCount; i++) {
             Attribute a = cE.getAttribute(i);
-            if (deviceParameterMap.containsKey(a.getLocalName())) {
+            if ("buffer".equals(a.getLocalName())) {
+                try {
+                    frameBufferCapacity = Integer.parseInt(a.getValue().trim());
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(e);
+                }
+                if (frameBufferCapacity < 1) {
+                    throw new ConfigurationException("The frame buffer must hold at least 1 frame.");
+                }
+            } else if ("overflow".equals(a.getLocalName())) {
+                switch (a.getValue().trim()) {
+                case "overwrite":
+                    frameBufferPolicy = FrameRingBuffer.OverflowPolicy.OVERWRITE_OLDEST;
+                    break;
+                case "block":
+                    frameBufferPolicy = FrameRingBuffer.OverflowPolicy.BLOCK;
+                    break;
+                default:
+                    throw new ConfigurationException("The overflow policy '" + a.getValue()
+                            + "' is not overwrite or block.");
+                }
+            } else if (deviceParameterMap.containsKey(a.getLocalName())) {
                 String s = a.getValue();
                 try {
                     DeviceParameter p = deviceParameterMap.get(a);
@@ -75,6 +112,66 @@ public abstract class AbstractSpectrumAnalyzerDevice extends AbstractHardwareDev
                 }
             }
         }
+        frameBuffer = new FrameRingBuffer<>(frameBufferCapacity, frameBufferPolicy);
+
+        // Enough frames for a full buffer, the frame being read, and a few held by consumers
+
+        framePool = new SpectrumFramePool(frameBufferCapacity + 4);
+    }
+
+    /**
+     * @see ws.finson.audiosp.app.device.SpectrumAnalyzerDevice#getFrameBuffer()
+     */
+    @Override
+    public FrameRingBuffer<SpectrumFrame> getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    /**
+     * Put a frame into the frame buffer. The buffer becomes a holder of the frame, so the caller
+     * keeps its own hold. A frame the buffer drops to make room, or does not keep, is released.
+     * 
+     * @param frame
+     *            the new frame
+     * @throws InterruptedException
+     *             if the buffer blocks when full and the wait is interrupted
+     */
+    protected void publishFrame(SpectrumFrame frame) throws InterruptedException {
+        frame.retain();
+        SpectrumFrame dropped;
+        try {
+            dropped = frameBuffer.publish(frame);
+        } catch (InterruptedException e) {
+            frame.release();
+            throw e;
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+    }
+
+    /**
+     * Copy the magnitudes of one frame into new lists, for callers of the original interface.
+     * 
+     * @see ws.finson.audiosp.app.device.SpectrumAnalyzerDevice#getMagnitudes()
+     */
+    @Override
+    public List<List<Double>> getMagnitudes() throws IOException {
+        SpectrumFrame frame = getFrame();
+        try {
+            List<List<Double>> result = new ArrayList<List<Double>>(frame.getChannelCount());
+            for (int cn = 0; cn < frame.getChannelCount(); cn++) {
+                float[] m = frame.getMagnitudes(cn);
+                List<Double> channel = new ArrayList<Double>(m.length);
+                for (int bin = 0; bin < m.length; bin++) {
+                    channel.add((double) m[bin]);
+                }
+                result.add(channel);
+            }
+            return result;
+        } finally {
+            frame.release();
+        }
     }
 
     /**
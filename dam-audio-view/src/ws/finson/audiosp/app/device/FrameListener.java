@@ -0,0 +1,22 @@
+package ws.finson.audiosp.app.device;
+
+/**
+ * Identify the method a class must implement in order to subscribe to the frames published in a
+ * {@link FrameRingBuffer}.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ * @param <T>
+ *            the type of the frames
+ */
+public interface FrameListener<T> {
+
+    /**
+     * Called on the device reader thread each time a frame is published. It must not block.
+     *
+     * @param frame
+     *            the new frame
+     */
+    void frameArrived(T frame);
+}
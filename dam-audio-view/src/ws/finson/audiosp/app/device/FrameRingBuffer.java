@@ -0,0 +1,258 @@
+package ws.finson.audiosp.app.device;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded first-in first-out buffer of frames, written by the thread that reads a device and
+ * read by any number of consumers. A consumer can poll the buffer, wait on it with take, or
+ * subscribe with a {@link FrameListener} to hear of each frame as it is published.
+ *
+ * When the buffer is full the overflow policy decides what happens to a new frame.
+ * OVERWRITE_OLDEST drops the oldest frame to make room and counts it, so the writer never waits
+ * and the consumers see the newest frames. BLOCK makes the writer wait until a consumer takes a
+ * frame, so no frame is lost but a slow consumer holds up the device.
+ *
+ * Only a consumer that polls or takes frees room, so with BLOCK such a consumer must register
+ * itself with {@link #addPoller()} before it starts and call {@link #removePoller()} when it
+ * stops. The writer waits for room only while a poller is registered, and removing the last one
+ * wakes it. With no poller registered a BLOCK buffer keeps no frames at all: publish tells the
+ * listeners and hands the frame straight back. Listeners hear of every frame either way, so a
+ * buffer whose only consumers are listeners never holds up the writer and never loses a frame
+ * that anyone could have read.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ * @param <T>
+ *            the type of the frames
+ */
+public class FrameRingBuffer<T> {
+
+    /**
+     * What to do with a new frame when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        OVERWRITE_OLDEST,
+        BLOCK
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final Object[] frames;
+    private final OverflowPolicy policy;
+    private int head = 0;
+    private int count = 0;
+    private long publishedCount = 0;
+    private long droppedCount = 0;
+    private int pollerCount = 0;
+
+    private final CopyOnWriteArrayList<FrameListener<T>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity
+     *            the most frames held at once
+     * @param policy
+     *            what to do with a new frame when the buffer is full
+     */
+    public FrameRingBuffer(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "The capacity of a FrameRingBuffer must be at least 1.");
+        }
+        this.frames = new Object[capacity];
+        this.policy = policy;
+    }
+
+    /**
+     * Add a frame to the end of the buffer, then tell the listeners about it.
+     *
+     * @param frame
+     *            the new frame
+     * @return the oldest frame if it was dropped to make room, the new frame itself if the policy
+     *         is BLOCK and no poller is registered to keep it for, otherwise null
+     * @throws InterruptedException
+     *             if the policy is BLOCK and the thread is interrupted while waiting for room
+     */
+    public T publish(T frame) throws InterruptedException {
+        T dropped = null;
+        lock.lockInterruptibly();
+        try {
+            if (policy == OverflowPolicy.BLOCK) {
+                while (count == frames.length && pollerCount > 0) {
+                    notFull.await();
+                }
+            } else if (count == frames.length) {
+                dropped = removeFirst();
+                droppedCount++;
+            }
+            publishedCount++;
+            if (policy == OverflowPolicy.BLOCK && pollerCount == 0) {
+                dropped = frame;
+            } else {
+                frames[(head + count) % frames.length] = frame;
+                count++;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (FrameListener<T> listener : listeners) {
+            listener.frameArrived(frame);
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the oldest frame in the buffer, removing it, or null if the buffer is empty
+     */
+    public T poll() {
+        lock.lock();
+        try {
+            return (count == 0) ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove and return the oldest frame, waiting up to the given time for one to arrive.
+     *
+     * @return the frame, or null if none arrived in time
+     * @throws InterruptedException
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove and return the oldest frame, waiting as long as it takes for one to arrive.
+     *
+     * @throws InterruptedException
+     */
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held and count > 0
+
+    @SuppressWarnings("unchecked")
+    private T removeFirst() {
+        T frame = (T) frames[head];
+        frames[head] = null;
+        head = (head + 1) % frames.length;
+        count--;
+        notFull.signal();
+        return frame;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return frames.length;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of frames published since the buffer was created
+     */
+    public long getPublishedCount() {
+        lock.lock();
+        try {
+            return publishedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of frames dropped unread to make room for newer ones
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Register a consumer that polls or takes frames. With BLOCK, frames are kept and the writer
+     * waits for room only while at least one poller is registered.
+     */
+    public void addPoller() {
+        lock.lock();
+        try {
+            pollerCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unregister a consumer registered with {@link #addPoller()}. When the last one goes, a writer
+     * waiting for room is released.
+     */
+    public void removePoller() {
+        lock.lock();
+        try {
+            if (pollerCount == 0) {
+                throw new IllegalStateException("No poller is registered.");
+            }
+            pollerCount--;
+            if (pollerCount == 0) {
+                notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Subscribe to the frames. The listener is called on the publishing thread after each frame is
+     * added, so it must return quickly. The frame stays in the buffer for the pollers. A listener
+     * is not a poller and never makes a BLOCK buffer wait.
+     */
+    public void addFrameListener(FrameListener<T> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeFrameListener(FrameListener<T> listener) {
+        listeners.remove(listener);
+    }
+}
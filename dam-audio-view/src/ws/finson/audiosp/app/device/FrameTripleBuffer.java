@@ -0,0 +1,112 @@
+package ws.finson.audiosp.app.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free handoff of the newest frame from a device thread to one reader, typically the Swing
+ * Event Dispatch Thread. It is a triple buffer of frame references: the frame the device is
+ * filling (held by the device until published), the newest complete frame (the middle slot), and
+ * the frame the reader is using (the front slot, held here for the reader).
+ *
+ * The writer swaps a finished frame into the middle slot and never waits. A frame it displaces
+ * was never seen by the reader and is released. The reader swaps the middle slot out when there is
+ * something new in it and otherwise keeps its front frame, so it always has the newest complete
+ * frame and never one being written. Neither side ever waits for the other, so a slow repaint
+ * cannot hold up the device and a busy device cannot hold up a repaint.
+ *
+ * A FrameTripleBuffer is a {@link FrameListener}, so it can subscribe to a
+ * {@link FrameRingBuffer} directly.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class FrameTripleBuffer implements FrameListener<SpectrumFrame> {
+    private final AtomicReference<SpectrumFrame> middle = new AtomicReference<>();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong overwrittenCount = new AtomicLong();
+
+    // Touched only by the reader thread
+
+    private SpectrumFrame front = null;
+
+    /**
+     * Offer a complete frame to the reader. Never blocks. The buffer takes its own hold on the
+     * frame, so the caller keeps its hold.
+     *
+     * @param frame
+     *            the newest frame
+     */
+    public void publish(SpectrumFrame frame) {
+        SpectrumFrame displaced = middle.getAndSet(frame.retain());
+        publishedCount.incrementAndGet();
+        if (displaced != null) {
+            overwrittenCount.incrementAndGet();
+            displaced.release();
+        }
+    }
+
+    /**
+     * @see ws.finson.audiosp.app.device.FrameListener#frameArrived(java.lang.Object)
+     */
+    @Override
+    public void frameArrived(SpectrumFrame frame) {
+        publish(frame);
+    }
+
+    /**
+     * @return true if a frame has been published since the reader last took one. Any thread may
+     *         ask.
+     */
+    public boolean hasNewFrame() {
+        return middle.get() != null;
+    }
+
+    /**
+     * Get the newest complete frame. Only the reader thread may call this. The frame stays good
+     * until the next call on the reader thread; the reader does not release it.
+     *
+     * @return the newest frame, the same frame as last time if nothing newer has arrived, or null
+     *         if no frame has arrived yet
+     */
+    public SpectrumFrame getLatest() {
+        SpectrumFrame fresh = middle.getAndSet(null);
+        if (fresh != null) {
+            if (front != null) {
+                front.release();
+            }
+            front = fresh;
+        }
+        return front;
+    }
+
+    /**
+     * Let go of the frames held here. Only the reader thread may call this, once the writer has
+     * stopped publishing.
+     */
+    public void clear() {
+        SpectrumFrame m = middle.getAndSet(null);
+        if (m != null) {
+            m.release();
+        }
+        if (front != null) {
+            front.release();
+            front = null;
+        }
+    }
+
+    /**
+     * @return the number of frames published
+     */
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    /**
+     * @return the number of frames replaced by a newer one before the reader took them
+     */
+    public long getOverwrittenCount() {
+        return overwrittenCount.get();
+    }
+}
@@ -0,0 +1,245 @@
+package ws.finson.audiosp.app.device;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read binary magnitude frames from a device input stream. A frame carries the magnitudes of all
+ * the channels of one FFT pass, packed as 16-bit integers or 32-bit floats, so it is several times
+ * shorter on the serial link than the same values sent as lines of text, and decoding it needs no
+ * parsing.
+ *
+ * All the multi-byte fields are little-endian, as they are in the memory of the device.
+ *
+ * <pre>
+ * offset  size  field
+ *   0      2    sync, the characters 'M' 'F'
+ *   2      1    format, 1 = int16, 2 = float32
+ *   3      1    channel count
+ *   4      2    bin count, unsigned
+ *   6      4    sequence number, unsigned, one more than the previous frame
+ *  10      4    scale, float32. Each int16 magnitude is multiplied by it. Ignored for float32.
+ *  14      n    magnitudes, channel count x bin count values, all of channel 0 first
+ *  14+n    4    CRC-32 (as java.util.zip.CRC32) of bytes 2 through 13+n
+ * </pre>
+ *
+ * The device sends exactly one frame for each request, so there is no next frame to skip ahead
+ * to. A frame that fails its CRC, or whose header does not match the shape the caller expects, is
+ * counted and a {@link BadFrameException} is thrown; the caller must then resynchronize with the
+ * device before reading anything else. The header is checked before the payload is read, so a
+ * corrupt bin count never makes the reader allocate or wait for a frame of the wrong size. The
+ * byte buffer is reused from frame to frame and the magnitudes are decoded from it straight into
+ * a {@link SpectrumFrame} from a pool, so reading frames makes no garbage.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class MagnitudeFrameReader {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    public static final int FORMAT_INT16 = 1;
+    public static final int FORMAT_FLOAT32 = 2;
+
+    private static final int SYNC_0 = 'M';
+    private static final int SYNC_1 = 'F';
+    private static final int HEADER_SIZE = 14;
+    private static final int CRC_SIZE = 4;
+
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer frameBuffer = ByteBuffer.allocate(HEADER_SIZE + CRC_SIZE).order(
+            ByteOrder.LITTLE_ENDIAN);
+
+    private int format;
+    private int channelCount;
+    private int binCount;
+    private long sequence;
+
+    private long framesRead = 0;
+    private long badFrames = 0;
+    private long missedFrames = 0;
+
+    /**
+     * Read the frame the device sent in answer to one request, waiting for it as long as the
+     * stream does. Bytes before the sync are skipped, up to the size of a whole frame.
+     *
+     * @param in
+     *            the device input stream
+     * @param pool
+     *            where to get the SpectrumFrame to decode into
+     * @param expectedChannels
+     *            the channel count the frame must have
+     * @param expectedBins
+     *            the bin count the frame must have
+     * @return the frame, held by the caller, with its sequence number and timestamp set
+     * @throws BadFrameException
+     *             if the frame has the wrong shape or a bad CRC, or no sync was found
+     * @throws IOException
+     *             if the stream fails or ends
+     */
+    public SpectrumFrame readFrame(InputStream in, SpectrumFramePool pool, int expectedChannels,
+            int expectedBins) throws IOException {
+        long lastSequence = sequence;
+        int largest = HEADER_SIZE + expectedChannels * expectedBins * 4 + CRC_SIZE;
+        findSync(in, largest);
+
+        // Read and check the header
+
+        frameBuffer.clear();
+        readFully(in, frameBuffer.array(), 2, HEADER_SIZE - 2);
+        int f = frameBuffer.get(2) & 0xFF;
+        int cc = frameBuffer.get(3) & 0xFF;
+        int bc = frameBuffer.getShort(4) & 0xFFFF;
+        if ((f != FORMAT_INT16 && f != FORMAT_FLOAT32) || cc != expectedChannels
+                || bc != expectedBins) {
+            badFrames++;
+            throw new BadFrameException("Bad frame header: format " + f + ", " + cc
+                    + " channels, " + bc + " bins; expected " + expectedChannels + " channels, "
+                    + expectedBins + " bins.");
+        }
+
+        // Read the magnitudes and the CRC behind the header
+
+        int payloadSize = cc * bc * ((f == FORMAT_INT16) ? 2 : 4);
+        int frameSize = HEADER_SIZE + payloadSize + CRC_SIZE;
+        if (frameBuffer.capacity() < frameSize) {
+            ByteBuffer larger = ByteBuffer.allocate(frameSize).order(ByteOrder.LITTLE_ENDIAN);
+            larger.put(frameBuffer.array(), 0, HEADER_SIZE);
+            frameBuffer = larger;
+        }
+        byte[] b = frameBuffer.array();
+        readFully(in, b, HEADER_SIZE, payloadSize + CRC_SIZE);
+        crc.reset();
+        crc.update(b, 2, HEADER_SIZE - 2 + payloadSize);
+        long expected = frameBuffer.getInt(HEADER_SIZE + payloadSize) & 0xFFFFFFFFL;
+        if (crc.getValue() != expected) {
+            badFrames++;
+            throw new BadFrameException("Bad frame CRC.");
+        }
+
+        SpectrumFrame frame = decode(f, cc, bc, pool);
+        if (framesRead > 0 && sequence != ((lastSequence + 1) & 0xFFFFFFFFL)) {
+            missedFrames += (sequence - lastSequence - 1) & 0xFFFFFFFFL;
+        }
+        framesRead++;
+        return frame;
+    }
+
+    private SpectrumFrame decode(int f, int cc, int bc, SpectrumFramePool pool) {
+        format = f;
+        channelCount = cc;
+        binCount = bc;
+        sequence = frameBuffer.getInt(6) & 0xFFFFFFFFL;
+        float scale = frameBuffer.getFloat(10);
+        SpectrumFrame frame = pool.acquire(cc, bc);
+        frame.setSequence(sequence);
+        frame.setTimestamp(System.nanoTime());
+        frameBuffer.position(HEADER_SIZE);
+        for (int cn = 0; cn < cc; cn++) {
+            float[] m = frame.getMagnitudes(cn);
+            if (f == FORMAT_INT16) {
+                for (int bin = 0; bin < bc; bin++) {
+                    m[bin] = frameBuffer.getShort() * scale;
+                }
+            } else {
+                for (int bin = 0; bin < bc; bin++) {
+                    m[bin] = frameBuffer.getFloat();
+                }
+            }
+        }
+        return frame;
+    }
+
+    private void findSync(InputStream in, int limit) throws IOException {
+        byte[] b = frameBuffer.array();
+        int previous = -1;
+        int skipped = 0;
+        while (true) {
+            if (skipped > limit) {
+                badFrames++;
+                throw new BadFrameException("No frame sync in " + skipped + " bytes.");
+            }
+            int c = in.read();
+            if (c < 0) {
+                throw new EOFException("Unexpected EOF while looking for the start of a frame.");
+            }
+            if (previous == SYNC_0 && c == SYNC_1) {
+                b[0] = (byte) SYNC_0;
+                b[1] = (byte) SYNC_1;
+                if (skipped > 1) {
+                    logger.debug("Skipped {} bytes looking for the start of a frame.", skipped - 1);
+                }
+                return;
+            }
+            previous = c;
+            skipped++;
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new EOFException("Unexpected EOF in the middle of a frame.");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Thrown when the bytes read are not the frame that was expected. The stream is no longer
+     * known to be at the start of a response.
+     */
+    @SuppressWarnings("serial")
+    public static class BadFrameException extends IOException {
+        public BadFrameException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return the format of the last frame, FORMAT_INT16 or FORMAT_FLOAT32
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getBinCount() {
+        return binCount;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    /**
+     * @return the number of frames rejected because of a bad header or CRC, or a missing sync
+     */
+    public long getBadFrames() {
+        return badFrames;
+    }
+
+    /**
+     * @return the number of frames the device sent that never arrived, from the gaps in the
+     *         sequence numbers
+     */
+    public long getMissedFrames() {
+        return missedFrames;
+    }
+}
@@ -9,30 +9,58 @@ import gnu.io.PortInUseException;
 import gnu.io.SerialPort;
 import gnu.io.UnsupportedCommOperationException;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import nu.xom.Attribute;
 import nu.xom.Element;
 
+import org.apache.log4j.Level;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ws.tuxi.lib.cfg.ApplicationComponent;
 import ws.tuxi.lib.cfg.ConfigurationException;
+import ws.tuxi.lib.cfg.Throwables;
 
 /**
  * Provide a specific implementation of the SpectrumAnalyzerDevice interface to match a serial
  * device.
  * 
+ * The magnitudes can come from the device either as one line of text per bin, or as binary frames
+ * read by a {@link MagnitudeFrameReader}. The optional frames attribute of the device element asks
+ * for int16 or float32 frames. The format is negotiated with the device before the first
+ * magnitudes are read: "SET FRAME_FORMAT int16;" is sent and the device must answer with a line
+ * holding the same format name within FRAME_FORMAT_TIMEOUT milliseconds. A device that does not
+ * answer, or answers otherwise, is read as text.
+ * 
+ * The device sends one frame for each request, so a frame that cannot be read whole (a bad header
+ * or CRC, a shape other than the negotiated one, or a stall of more than FRAME_FORMAT_TIMEOUT
+ * milliseconds partway through) leaves the stream at an unknown place. The same is true when the
+ * negotiation times out, because the answer may still come. In both cases the reader
+ * resynchronizes before reading anything else: it fails every response still owed, sends
+ * "SET FRAME_FORMAT x;" for the format it will read next as a sentinel, and discards what arrives
+ * until the device echoes x or goes quiet for FRAME_FORMAT_TIMEOUT milliseconds. A frame request
+ * that was failed this way is sent again, up to MAX_FRAME_ATTEMPTS times.
+ * 
+ * Everything the device sends is read by a reader thread of its own, which blocks on the serial
+ * port until bytes arrive and so uses no processor time while the device is quiet. Each request
+ * written to the device queues a note of the response it expects. The reader takes the notes in
+ * order, reads each response whole, hands it to the thread that made the request, and publishes
+ * every magnitude frame into the frame buffer. With the optional acquire attribute set to true,
+ * the device thread asks for magnitudes continuously once the parameters are read, so consumers of
+ * the frame buffer see every frame the link can carry.
+ * 
  * @author Doug Johnson
  * @since Aug 16, 2014
  * 
@@ -43,9 +71,26 @@ public class SerialSpectrumAnalyzerDevice extends AbstractSpectrumAnalyzerDevice
     private String portName;
     private CommPortIdentifier portID;
     private SerialPort thePort;
-    private BufferedReader deviceReader;
+    private InputStream deviceInput;
     private BufferedWriter deviceWriter;
 
+    private static final int FRAME_FORMAT_TIMEOUT = 2000;
+    private static final int MAX_FRAME_ATTEMPTS = 3;
+    private static final int MAX_RESYNC_TIME = 10 * FRAME_FORMAT_TIMEOUT;
+
+    private String requestedFrameFormat = "ascii";
+    private volatile boolean frameFormatNegotiated = false;
+    private volatile MagnitudeFrameReader frameReader = null;
+    private boolean acquire = false;
+
+    private final Object requestLock = new Object();
+    private final BlockingQueue<Response> pendingResponses = new LinkedBlockingQueue<>();
+    private final StringBuilder lineBuffer = new StringBuilder();
+    private volatile IOException readerFailure = null;
+    private long textFrameCount = 0;
+    private int channelCount;
+    private int binCount;
+
     /**
      * Initialize the fields specific to a SerialSpectrumAnalyzerDevice using the attributes given
      * in the device configuration element.
@@ -76,6 +121,12 @@ public class SerialSpectrumAnalyzerDevice extends AbstractSpectrumAnalyzerDevice
                 portName = a.getValue();
                 logger.trace("portName: {}", portName);
                 break;
+            case "frames":
+                requestedFrameFormat = a.getValue().trim().toLowerCase();
+                break;
+            case "acquire":
+                acquire = Boolean.parseBoolean(a.getValue().trim());
+                break;
             default:
                 break;
             }
@@ -84,6 +135,15 @@ public class SerialSpectrumAnalyzerDevice extends AbstractSpectrumAnalyzerDevice
             throw new ConfigurationException(
                     "The name of the serial port must be specified and must not be empty.");
         }
+        switch (requestedFrameFormat) {
+        case "ascii":
+        case "int16":
+        case "float32":
+            break;
+        default:
+            throw new ConfigurationException("The frame format '" + requestedFrameFormat
+                    + "' is not ascii, int16 or float32.");
+        }
 
         Enumeration<CommPortIdentifier> ports = CommPortIdentifier.getPortIdentifiers();
         if (!ports.hasMoreElements()) {
@@ -109,11 +169,45 @@ public class SerialSpectrumAnalyzerDevice extends AbstractSpectrumAnalyzerDevice
         try {
             thePort = (SerialPort) portID.open(this.getClass().getName(), 1000);
             thePort.setSerialPortParams(38400, 8, 1, SerialPort.PARITY_NONE);
-            deviceReader = new BufferedReader(new InputStreamReader(thePort.getInputStream()));
+
+            // A read waits for at least one byte instead of returning at once with none
+
+            thePort.disableReceiveTimeout();
+            thePort.enableReceiveThreshold(1);
+            deviceInput = new BufferedInputStream(thePort.getInputStream());
             deviceWriter = new BufferedWriter(new OutputStreamWriter(thePort.getOutputStream()));
         } catch (PortInUseException | UnsupportedCommOperationException | IOException e) {
             throw new ConfigurationException(e);
         }
+
+        Thread reader = new Thread(new ResponseReader());
+        reader.setName("HardwareDevice-reader-" + thePort.getName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Read the parameters, then if acquire is set ask for magnitudes until interrupted.
+     * 
+     * @see ws.finson.audiosp.app.device.AbstractHardwareDevice#run()
+     */
+    @Override
+    public void run() {
+        super.run();
+        if (!acquire) {
+            return;
+        }
+        logger.info("Acquiring magnitudes from device '{}' on {}.", getDeviceName(),
+                thePort.getName());
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                getFrame().release();
+            }
+        } catch (InterruptedIOException e) {
+            logger.debug("Acquisition from device '{}' interrupted.", getDeviceName());
+        } catch (IOException e) {
+            Throwables.printThrowableChain(e, logger, Level.WARN);
+        }
     }
 
     /**
@@ -123,17 +217,7 @@ public class SerialSpectrumAnalyzerDevice extends AbstractSpectrumAnalyzerDevice
     @Override
     protected Object readDeviceParameterValue(String pname) throws IOException {
         if (deviceParameterMap.containsKey(pname)) {
-            deviceWriter.write("GET " + pname + ";");
-            deviceWriter.flush();
-            while (!deviceReader.ready()) {
-            }
-
-            String response = deviceReader.readLine();
-            if (response == null) {
-                throw new EOFException(
-                        "Unexpected null response (EOF) while reading pname from the device on "
-                                + thePort.getName() + ".");
-            }
+            String response = request("GET " + pname + ";", new Response(0)).line;
             try {
                 DeviceParameter p = deviceParameterMap.get(pname);
                 deviceParameterValues.put(pname, p.getType().getConstructor(String.class)
@@ -156,46 +240,350 @@ public class SerialSpectrumAnalyzerDevice extends AbstractSpectrumAnalyzerDevice
     }
 
     /**
+     * Write a command to the device and wait for the reader thread to read its response.
+     * 
+     * @param command
+     *            the command text
+     * @param r
+     *            the response expected
+     * @return the response, read
      * @throws IOException
-     * @see ws.finson.audiosp.app.device.SpectrumAnalyzerDevice#getMagnitudes()
+     *             if the reader failed or the wait was interrupted
+     */
+    private Response request(String command, Response r) throws IOException {
+        synchronized (requestLock) {
+            if (readerFailure != null) {
+                throw new IOException("The reader for " + thePort.getName() + " has stopped.",
+                        readerFailure);
+            }
+            pendingResponses.add(r);
+            deviceWriter.write(command);
+            deviceWriter.flush();
+        }
+        try {
+            r.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the response to '" + command
+                    + "' from the device on " + thePort.getName() + ".");
+        }
+        if (r.failure != null) {
+            throw new IOException(r.failure);
+        }
+        return r;
+    }
+
+    /**
+     * Ask the device for one set of magnitudes and wait for them, asking again if the response is
+     * lost while the reader resynchronizes.
+     */
+    private Response requestMagnitudes() throws IOException {
+        for (int attempt = 1;; attempt++) {
+            Response r = new Response(0);
+            r.magnitudes = true;
+            r.channelCount = channelCount;
+            r.binCount = binCount;
+            try {
+                return request("GET MAGNITUDES;", r);
+            } catch (IOException e) {
+                if (!r.lost || attempt == MAX_FRAME_ATTEMPTS) {
+                    throw e;
+                }
+                logger.debug("Magnitudes from device '{}' lost, asking again.", getDeviceName());
+            }
+        }
+    }
+
+    /**
+     * Ask the device for binary frames in the configured format and use them if it agrees.
+     * 
+     * @throws IOException
+     */
+    private synchronized void negotiateFrameFormat() throws IOException {
+        if (frameFormatNegotiated) {
+            return;
+        }
+
+        // The shape of the text frames, read once so the device thread does not take the
+        // parameter lock for every frame
+
+        channelCount = (Integer) getParameterValue("AUDIO_CHANNEL_COUNT");
+        binCount = (Integer) getParameterValue("FFT_SIZE");
+        if ("ascii".equals(requestedFrameFormat)) {
+            frameFormatNegotiated = true;
+            return;
+        }
+        String response = request("SET FRAME_FORMAT " + requestedFrameFormat + ";", new Response(
+                FRAME_FORMAT_TIMEOUT)).line;
+        if (response != null && requestedFrameFormat.equalsIgnoreCase(response.trim())) {
+            frameReader = new MagnitudeFrameReader();
+            logger.info("Device '{}' on {} is sending {} magnitude frames.", getDeviceName(),
+                    thePort.getName(), requestedFrameFormat);
+        } else {
+            logger.warn("Device '{}' on {} did not accept frame format {}.  "
+                    + "Reading magnitudes as text.", getDeviceName(), thePort.getName(),
+                    requestedFrameFormat);
+        }
+        frameFormatNegotiated = true;
+    }
+
+    /**
+     * Ask the device for one set of magnitudes and wait for them. The reader thread also
+     * publishes them into the frame buffer.
+     * 
+     * @see ws.finson.audiosp.app.device.SpectrumAnalyzerDevice#getFrame()
      */
     @Override
-    public List<List<Double>> getMagnitudes() throws IOException {
-        String response;
-        int channelCount = (Integer) getParameterValue("AUDIO_CHANNEL_COUNT");
-        int FFTSize = (Integer) getParameterValue("FFT_SIZE");
+    public SpectrumFrame getFrame() throws IOException {
+        if (!frameFormatNegotiated) {
+            negotiateFrameFormat();
+        }
+        return requestMagnitudes().frame;
+    }
 
-        List<List<Double>> result = new ArrayList<List<Double>>(channelCount);
+    /**
+     * @return the number of binary frames rejected because of a bad header or CRC
+     */
+    public long getBadFrameCount() {
+        MagnitudeFrameReader fr = frameReader;
+        return (fr == null) ? 0 : fr.getBadFrames();
+    }
+
+    /**
+     * @return the number of binary frames the device sent that never arrived
+     */
+    public long getMissedFrameCount() {
+        MagnitudeFrameReader fr = frameReader;
+        return (fr == null) ? 0 : fr.getMissedFrames();
+    }
+
+    /**
+     * A response the device owes. Made by the thread that writes the request, filled in by the
+     * reader thread.
+     */
+    private static class Response {
+        final int timeout;
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean magnitudes = false;
+        int channelCount = 0;
+        int binCount = 0;
+        String line;
+        SpectrumFrame frame;
+        IOException failure;
+        boolean lost = false;
+
+        /**
+         * @param timeout
+         *            milliseconds to wait for a line before taking it as null, or 0 to wait as
+         *            long as it takes
+         */
+        Response(int timeout) {
+            this.timeout = timeout;
+        }
+
+        boolean isMagnitudes() {
+            return magnitudes;
+        }
+    }
+
+    /**
+     * The body of the reader thread.
+     */
+    private class ResponseReader implements Runnable {
+
+        @Override
+        public void run() {
+            Response r = null;
+            try {
+                while (true) {
+                    r = pendingResponses.take();
+                    if (r.isMagnitudes()) {
+                        readMagnitudes(r);
+                    } else {
+                        readLineResponse(r);
+                    }
+                    r.done.countDown();
+                    r = null;
+                }
+            } catch (InterruptedException e) {
+                readerFailure = new InterruptedIOException("The reader was interrupted.");
+            } catch (IOException | RuntimeException e) {
+                readerFailure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+                logger.warn("The reader for device '{}' on {} failed.", getDeviceName(),
+                        thePort.getName());
+                Throwables.printThrowableChain(e, logger, Level.WARN);
+            }
+
+            // Nothing more will be read, so fail whatever is still owed
+
+            synchronized (requestLock) {
+                if (r != null) {
+                    r.failure = readerFailure;
+                    r.done.countDown();
+                }
+                while ((r = pendingResponses.poll()) != null) {
+                    r.failure = readerFailure;
+                    r.done.countDown();
+                }
+            }
+        }
+
+        private void readLineResponse(Response r) throws IOException {
+            if (r.timeout > 0) {
+                enableReceiveTimeout(r.timeout);
+            }
+            try {
+                r.line = readLine();
+            } finally {
+                if (r.timeout > 0) {
+                    thePort.disableReceiveTimeout();
+                }
+            }
+            if (r.line == null && r.timeout == 0) {
+                throw new EOFException(
+                        "Unexpected null response (EOF) while reading from the device on "
+                                + thePort.getName() + ".");
+            }
+
+            // Only the frame format negotiation has a timeout. Its answer may still be on the way,
+            // and the device is read as text from now on.
 
-        deviceWriter.write("GET MAGNITUDES;");
-        deviceWriter.flush();
+            if (r.line == null) {
+                resynchronize("ascii");
+            }
+        }
 
-        for (int cn = 0; cn < channelCount; cn++) {
-            result.add(new ArrayList<Double>(FFTSize));
-            for (int bin = 0; bin < FFTSize; bin++) {
-                // long startTime = System.currentTimeMillis();
-                while (!deviceReader.ready()) {
+        private void readMagnitudes(Response r) throws IOException, InterruptedException {
+            MagnitudeFrameReader fr = frameReader;
+            SpectrumFrame frame;
+            if (fr != null) {
 
+                // A frame that stalls partway is as bad as one that fails its CRC
+
+                enableReceiveTimeout(FRAME_FORMAT_TIMEOUT);
+                try {
+                    frame = fr.readFrame(deviceInput, framePool, r.channelCount, r.binCount);
+                } catch (EOFException | MagnitudeFrameReader.BadFrameException e) {
+                    logger.warn("Bad frame from device '{}' on {}.  {}", getDeviceName(),
+                            thePort.getName(), e.getMessage());
+                    r.failure = e;
+                    r.lost = true;
+                    resynchronize(requestedFrameFormat);
+                    return;
+                } finally {
+                    thePort.disableReceiveTimeout();
                 }
-                // long deltaT = System.currentTimeMillis() - startTime;
-                // if (deltaT > 0) {
-                // System.out.println("Not ready delta ms: "+Long.toString(deltaT));
-                // }
-
-                response = deviceReader.readLine();
-                if (response == null) {
-                    throw new EOFException(
-                            "Unexpected null response (EOF) while reading MAGNITUDES from the device on "
-                                    + thePort.getName() + ".");
+            } else {
+                frame = framePool.acquire(r.channelCount, r.binCount);
+                frame.setSequence(textFrameCount++);
+                for (int cn = 0; cn < r.channelCount; cn++) {
+                    float[] m = frame.getMagnitudes(cn);
+                    for (int bin = 0; bin < r.binCount; bin++) {
+                        String response = readLine();
+                        if (response == null) {
+                            frame.release();
+                            throw new EOFException(
+                                    "Unexpected null response (EOF) while reading MAGNITUDES from the device on "
+                                            + thePort.getName() + ".");
+                        }
+                        try {
+                            m[bin] = Float.parseFloat(response);
+                        } catch (NumberFormatException e) {
+                            frame.release();
+                            throw new IOException(e);
+                        }
+                    }
+                }
+                frame.setTimestamp(System.nanoTime());
+            }
+
+            // The buffer takes its own hold, and the reader's hold passes to the requester
+
+            try {
+                publishFrame(frame);
+            } catch (InterruptedException e) {
+                frame.release();
+                throw e;
+            }
+            r.frame = frame;
+        }
+
+        /**
+         * Bring the stream back to the start of a response after it was left at an unknown place.
+         * The requests already written are failed, since their responses cannot be told apart
+         * from what is discarded, and no new ones are written until the sentinel is answered.
+         * 
+         * @param format
+         *            the frame format to send as the sentinel, the one that will be read next
+         * @throws IOException
+         *             if the device neither answers nor goes quiet in MAX_RESYNC_TIME
+         */
+        private void resynchronize(String format) throws IOException {
+            synchronized (requestLock) {
+                Response owed;
+                while ((owed = pendingResponses.poll()) != null) {
+                    owed.failure = new IOException("The response from the device on "
+                            + thePort.getName() + " was lost while resynchronizing.");
+                    owed.lost = true;
+                    owed.done.countDown();
                 }
+                deviceWriter.write("SET FRAME_FORMAT " + format + ";");
+                deviceWriter.flush();
+                enableReceiveTimeout(FRAME_FORMAT_TIMEOUT);
                 try {
-                    result.get(cn).add(Double.parseDouble(response));
-                } catch (NumberFormatException e) {
-                    throw new IOException(e);
+                    long deadline = System.nanoTime() + MAX_RESYNC_TIME * 1000000L;
+                    int discarded = 0;
+                    String line;
+                    while ((line = readLine()) != null) {
+                        if (format.equalsIgnoreCase(line.trim())) {
+                            break;
+                        }
+                        discarded += line.length() + 1;
+                        if (System.nanoTime() - deadline > 0) {
+                            throw new IOException("Cannot resynchronize with the device on "
+                                    + thePort.getName() + ".  It did not answer '" + format
+                                    + "' or go quiet.");
+                        }
+                    }
+                    logger.debug("Resynchronized with device '{}' on {}, {} bytes discarded.",
+                            getDeviceName(), thePort.getName(), discarded);
+                } finally {
+                    thePort.disableReceiveTimeout();
                 }
             }
         }
-        return result;
+
+        private void enableReceiveTimeout(int timeout) throws IOException {
+            try {
+                thePort.enableReceiveTimeout(timeout);
+            } catch (UnsupportedCommOperationException e) {
+                throw new IOException(e);
+            }
+        }
     }
 
+    /**
+     * Read one line of text from the device. The text and binary responses share one stream, so
+     * lines are read here a byte at a time instead of through a Reader that would buffer ahead.
+     * Only the reader thread calls this.
+     * 
+     * @return the line without its terminator, or null at EOF
+     * @throws IOException
+     */
+    private String readLine() throws IOException {
+        lineBuffer.setLength(0);
+        int c;
+        while ((c = deviceInput.read()) >= 0) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                lineBuffer.append((char) c);
+            }
+        }
+        if (c < 0 && lineBuffer.length() == 0) {
+            return null;
+        }
+        return lineBuffer.toString();
+    }
 }
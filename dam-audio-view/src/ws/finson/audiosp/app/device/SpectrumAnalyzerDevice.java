@@ -51,9 +51,25 @@ public interface SpectrumAnalyzerDevice extends HardwareDevice {
 	/**
 	 * Return a list of magnitudes from an FFT run on the device. The size of
 	 * the returned magnitude list should be the same as the device's FFT
-	 * size.
+	 * size. Every bin is boxed and new lists are made on each call, so a
+	 * caller that reads frames continuously should use getFrame() instead.
 	 * @throws IOException 
 	 */
 	List<List<Double>> getMagnitudes() throws IOException;
 
+	/**
+	 * Return the magnitudes from the next FFT run on the device, in a frame
+	 * from the device's frame pool. The caller holds the frame and must
+	 * release it when done with it.
+	 * @throws IOException 
+	 */
+	SpectrumFrame getFrame() throws IOException;
+
+	/**
+	 * Return the buffer the device publishes its frames into as they arrive.
+	 * Consumers may poll it, wait on it, or subscribe to it. A frame taken
+	 * from the buffer is held by the taker, who must release it.
+	 */
+	FrameRingBuffer<SpectrumFrame> getFrameBuffer();
+
 }
@@ -0,0 +1,105 @@
+package ws.finson.audiosp.app.device;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The magnitudes of one FFT pass of a spectrum analyzer device: one float array per channel, the
+ * time the frame was read, and its sequence number.
+ *
+ * Frames come from a {@link SpectrumFramePool} and are used again once every holder has let go of
+ * them, so a running device makes no garbage. A frame counts its holders. Whoever gets a frame
+ * from the pool, from {@link SpectrumAnalyzerDevice#getFrame()} or from a {@link FrameRingBuffer}
+ * holds it and must call {@link #release()} when done with it. A {@link FrameListener} is lent the
+ * frame for the length of the call and must call {@link #retain()} to keep it longer. The arrays
+ * of a released frame must not be touched again.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class SpectrumFrame {
+    private final SpectrumFramePool pool;
+    private final float[][] magnitudes;
+    private final AtomicInteger holders = new AtomicInteger();
+    private long sequence;
+    private long timestamp;
+
+    SpectrumFrame(SpectrumFramePool pool, int channelCount, int binCount) {
+        this.pool = pool;
+        this.magnitudes = new float[channelCount][binCount];
+    }
+
+    public int getChannelCount() {
+        return magnitudes.length;
+    }
+
+    public int getBinCount() {
+        return magnitudes[0].length;
+    }
+
+    /**
+     * @param channel
+     *            the channel number, from 0
+     * @return the magnitudes of the channel, one per bin. The array belongs to the frame.
+     */
+    public float[] getMagnitudes(int channel) {
+        return magnitudes[channel];
+    }
+
+    /**
+     * @return the sequence number of the frame. Frames from one device are numbered in order.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return the System.nanoTime() at which the frame was read
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Add a holder of this frame.
+     *
+     * @return this frame
+     */
+    public SpectrumFrame retain() {
+        if (holders.getAndIncrement() <= 0) {
+            holders.getAndDecrement();
+            throw new IllegalStateException("A released SpectrumFrame cannot be retained.");
+        }
+        return this;
+    }
+
+    /**
+     * Let go of this frame. When the last holder lets go it goes back to its pool.
+     */
+    public void release() {
+        int left = holders.decrementAndGet();
+        if (left < 0) {
+            holders.incrementAndGet();
+            throw new IllegalStateException("SpectrumFrame released more times than it was held.");
+        }
+        if (left == 0 && pool != null) {
+            pool.recycle(this);
+        }
+    }
+
+    // Called by the pool as the frame is handed out
+
+    void reset() {
+        holders.set(1);
+        sequence = 0;
+        timestamp = 0;
+    }
+}
@@ -0,0 +1,69 @@
+package ws.finson.audiosp.app.device;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of {@link SpectrumFrame} objects, so that frames are allocated while a device is starting
+ * and then used over and over. Frames of a different shape than the one asked for are dropped
+ * from the pool and left to the garbage collector, so a change of FFT size or channel count costs
+ * one round of allocation.
+ *
+ * The pool keeps at most its capacity of free frames. A frame released when the pool is full is
+ * dropped.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class SpectrumFramePool {
+    private final ArrayBlockingQueue<SpectrumFrame> free;
+    private final AtomicLong allocatedCount = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            the most free frames kept
+     */
+    public SpectrumFramePool(int capacity) {
+        free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Get a frame of the given shape, with the caller as its only holder. The magnitudes of a
+     * reused frame still hold old values, which the caller is expected to overwrite.
+     *
+     * @param channelCount
+     *            the number of channels
+     * @param binCount
+     *            the number of bins in each channel
+     * @return the frame
+     */
+    public SpectrumFrame acquire(int channelCount, int binCount) {
+        SpectrumFrame frame;
+        while ((frame = free.poll()) != null) {
+            if (frame.getChannelCount() == channelCount && frame.getBinCount() == binCount) {
+                break;
+            }
+        }
+        if (frame == null) {
+            frame = new SpectrumFrame(this, channelCount, binCount);
+            allocatedCount.incrementAndGet();
+        }
+        frame.reset();
+        return frame;
+    }
+
+    // Called by a frame when its last holder lets go
+
+    void recycle(SpectrumFrame frame) {
+        free.offer(frame);
+    }
+
+    /**
+     * @return the number of frames this pool has allocated. It stops growing once a running
+     *         device has enough frames in circulation.
+     */
+    public long getAllocatedCount() {
+        return allocatedCount.get();
+    }
+}
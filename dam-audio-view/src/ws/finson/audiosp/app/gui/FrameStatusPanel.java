@@ -0,0 +1,93 @@
+package ws.finson.audiosp.app.gui;
+
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+import ws.finson.audiosp.app.device.FrameTripleBuffer;
+import ws.finson.audiosp.app.device.SpectrumFrame;
+
+/**
+ * This FrameStatusPanel displays the sequence number and rate of the magnitude frames arriving
+ * from a SpectrumAnalyzerDevice. It reads the newest frame from a {@link FrameTripleBuffer} on a
+ * Swing Timer, so it never waits on the device thread and the device never waits on it.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ */
+@SuppressWarnings("serial")
+public class FrameStatusPanel extends JPanel implements ActionListener {
+
+    private static final int UPDATE_INTERVAL_MS = 250;
+
+    private final FrameTripleBuffer frames;
+    private final Timer timer;
+    private JLabel sequenceValue;
+    private JLabel rateValue;
+    private JLabel skippedValue;
+
+    private long lastSequence = -1;
+    private long lastPublished = 0;
+    private long lastTime = System.nanoTime();
+
+    /**
+     * Initialize a new FrameStatusPanel.
+     *
+     * @param frames
+     *            the triple buffer that the device frames arrive in
+     */
+    public FrameStatusPanel(FrameTripleBuffer frames) {
+        this.frames = frames;
+
+        // data table
+
+        JPanel valueTable = new JPanel();
+        valueTable.setLayout(new GridLayout(0, 2));
+        valueTable.setOpaque(false);
+        ((GridLayout) (valueTable.getLayout())).setHgap(5);
+
+        valueTable.add(new JLabel("Frame"));
+        sequenceValue = new JLabel("----");
+        valueTable.add(sequenceValue);
+
+        valueTable.add(new JLabel("Frames/s"));
+        rateValue = new JLabel("----");
+        valueTable.add(rateValue);
+
+        valueTable.add(new JLabel("Frames Not Shown"));
+        skippedValue = new JLabel("----");
+        valueTable.add(skippedValue);
+
+        this.add(valueTable);
+
+        timer = new Timer(UPDATE_INTERVAL_MS, this);
+        timer.start();
+    }
+
+    /**
+     * Runs on the Swing Event Dispatch Thread at each tick of the timer.
+     *
+     * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        SpectrumFrame frame = frames.getLatest();
+        if (frame == null || frame.getSequence() == lastSequence) {
+            return;
+        }
+        lastSequence = frame.getSequence();
+        long now = System.nanoTime();
+        long published = frames.getPublishedCount();
+        double rate = (published - lastPublished) / ((now - lastTime) / 1e9);
+        lastPublished = published;
+        lastTime = now;
+
+        sequenceValue.setText(Long.toString(lastSequence));
+        rateValue.setText(String.format("%.1f", rate));
+        skippedValue.setText(Long.toString(frames.getOverwrittenCount()));
+    }
+}
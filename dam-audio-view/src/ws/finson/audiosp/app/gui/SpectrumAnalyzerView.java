@@ -17,6 +17,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ws.finson.audiosp.app.AudioAnalyzer;
+import ws.finson.audiosp.app.device.FrameTripleBuffer;
 import ws.finson.audiosp.app.device.HardwareDevice;
 import ws.finson.audiosp.app.device.SpectrumAnalyzerDevice;
 import ws.tuxi.lib.cfg.ApplicationComponent;
@@ -28,6 +29,13 @@ import ws.tuxi.lib.cfg.ConfigurationException;
  * Dispatch Thread. The constructor and setViewSource also assume that any threads that might be
  * changing shared data structures are blocked while these methods execute.
  * 
+ * Magnitude frames reach the view through a {@link FrameTripleBuffer} subscribed to the frame
+ * buffer of the device. The device thread never waits for the view, and the view always reads the
+ * newest complete frame.
+ * 
+ * A {@link WaterfallPanel} beside the status panels shows the recent frames of one channel. The
+ * optional attributes channel, history (rows), floor and ceiling (dB) set it up.
+ * 
  * @author Doug Johnson
  * @since August 2014
  */
@@ -38,6 +46,11 @@ public class SpectrumAnalyzerView extends JFrame implements DeviceView {
     private final ApplicationComponent parent;
     private String sourceName = null;
     private SpectrumAnalyzerDevice device;
+    private final FrameTripleBuffer frames = new FrameTripleBuffer();
+    private int waterfallChannel = 0;
+    private int waterfallRows = 512;
+    private float waterfallFloor = -60;
+    private float waterfallCeiling = 60;
 
     // private final Map<JButton, FixtureTask> taskMap;
 
@@ -73,6 +86,22 @@ public class SpectrumAnalyzerView extends JFrame implements DeviceView {
                 sourceName = a.getValue();
                 logger.trace("sourceName: {}", sourceName);
                 break;
+            case "channel": // channel shown in the waterfall
+                waterfallChannel = parseAttribute(a, 0, 255);
+                logger.trace("channel: {}", waterfallChannel);
+                break;
+            case "history": // number of frames shown in the waterfall
+                waterfallRows = parseAttribute(a, 16, 4096);
+                logger.trace("history: {}", waterfallRows);
+                break;
+            case "floor": // dB shown as the quietest color in the waterfall
+                waterfallFloor = parseLevel(a);
+                logger.trace("floor: {}", waterfallFloor);
+                break;
+            case "ceiling": // dB shown as the loudest color in the waterfall
+                waterfallCeiling = parseLevel(a);
+                logger.trace("ceiling: {}", waterfallCeiling);
+                break;
             default:
                 logger.warn("Skipping <{}> attribute. Attribute not recognized.", a.getLocalName());
                 break;
@@ -83,6 +112,10 @@ public class SpectrumAnalyzerView extends JFrame implements DeviceView {
             throw new ConfigurationException(
                     "A sourceName must be specified and it must not be zero-length.");
         }
+        if (waterfallCeiling <= waterfallFloor) {
+            throw new ConfigurationException("The waterfall ceiling (" + waterfallCeiling
+                    + " dB) must be above the floor (" + waterfallFloor + " dB).");
+        }
 
         // Initialize the top level visual elements of the GUI.
 
@@ -152,6 +185,27 @@ public class SpectrumAnalyzerView extends JFrame implements DeviceView {
          rules.gridy = 1;
          getContentPane().add(new SpectrumAnalyzerDevicePanel(device), rules);
 
+        // Create the frame status panel and connect it to the device frames
+
+         rules.gridx = 0;
+         rules.gridy = 2;
+         getContentPane().add(new FrameStatusPanel(frames), rules);
+         device.getFrameBuffer().addFrameListener(frames);
+
+        // Create the waterfall to the right of the panels. It reads the same triple buffer as the
+        // frame status panel, which is safe because both read on this thread.
+
+         rules.gridx = 1;
+         rules.gridy = 0;
+         rules.gridheight = 3;
+         rules.fill = GridBagConstraints.BOTH;
+         rules.ipadx = 0;
+         rules.weightx = 1;
+         rules.weighty = 1;
+         getContentPane().add(
+                 new WaterfallPanel(frames, waterfallChannel, waterfallRows, waterfallFloor,
+                         waterfallCeiling), rules);
+
         // rules.gridx = 0;
         // rules.gridy = 1;
         //
@@ -172,6 +226,29 @@ public class SpectrumAnalyzerView extends JFrame implements DeviceView {
          setVisible(true);
     }
 
+    private static int parseAttribute(Attribute a, int min, int max) throws ConfigurationException {
+        try {
+            int value = Integer.parseInt(a.getValue().trim());
+            if (value >= min && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the exception below
+        }
+        throw new ConfigurationException("The " + a.getLocalName()
+                + " attribute must be an integer from " + min + " to " + max + ", not '"
+                + a.getValue() + "'.");
+    }
+
+    private static float parseLevel(Attribute a) throws ConfigurationException {
+        try {
+            return Float.parseFloat(a.getValue().trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("The " + a.getLocalName()
+                    + " attribute must be a level in dB, not '" + a.getValue() + "'.");
+        }
+    }
+
     /**
      * @throws ConfigurationException
      * @see ws.finson.audiosp.app.gui.DeviceView#setDataSource()
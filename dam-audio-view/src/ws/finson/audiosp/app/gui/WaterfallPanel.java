@@ -0,0 +1,214 @@
+package ws.finson.audiosp.app.gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.finson.audiosp.app.device.FrameTripleBuffer;
+import ws.finson.audiosp.app.device.SpectrumFrame;
+
+/**
+ * This WaterfallPanel displays a scrolling spectrogram of one channel of a SpectrumAnalyzerDevice.
+ * Each new frame becomes one row of pixels at the top of the display, frequency from left to right
+ * and the magnitude of each bin, in decibels, as a color. Older rows move down and off the bottom.
+ *
+ * The panel is built to keep up with the display at high frame rates:
+ * <ul>
+ * <li>A Swing Timer ticks at the refresh rate of the screen. On each tick the newest frame is
+ * taken from a {@link FrameTripleBuffer}, and if there is one the panel asks for one repaint, so
+ * repaints never outrun the screen however fast frames arrive.</li>
+ * <li>The history is a BufferedImage used as a ring of rows. A new frame is written as one row of
+ * ints straight into the raster of the image, through a color lookup table computed once. The rows
+ * already there are never touched again.</li>
+ * <li>Painting blits the ring to the screen in two pieces, the newest rows first, so the history
+ * scrolls without being redrawn.</li>
+ * <li>Nothing is allocated per frame. The image is made again only when the number of bins
+ * changes.</li>
+ * </ul>
+ *
+ * Frames that arrive between two ticks are not shown; the FrameStatusPanel counts them.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ */
+@SuppressWarnings("serial")
+public class WaterfallPanel extends JPanel implements ActionListener {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    // Key colors of the colormap, from quiet to loud: black, blue, magenta, orange, yellow, white
+
+    private static final int[] COLORMAP_KEYS = { 0x000000, 0x1a0a6b, 0xb0237a, 0xf2711c,
+            0xfbe94d, 0xffffff };
+
+    private final FrameTripleBuffer frames;
+    private final int channel;
+    private final int historyRows;
+    private final float floorDb;
+    private final float ceilingDb;
+    private final int[] colormap = new int[256];
+    private final float lutScale;
+    private final Timer timer;
+
+    private BufferedImage history = null;
+    private int[] pixels = null;
+    private int binCount = 0;
+    private int newestRow = 0;
+    private int filledRows = 0;
+    private long lastSequence = -1;
+
+    /**
+     * Initialize a new WaterfallPanel.
+     *
+     * @param frames
+     *            the triple buffer that the device frames arrive in
+     * @param channel
+     *            the channel to display
+     * @param historyRows
+     *            the number of frames shown at once
+     * @param floorDb
+     *            the magnitude in dB shown as the first color of the colormap
+     * @param ceilingDb
+     *            the magnitude in dB shown as the last color of the colormap
+     */
+    public WaterfallPanel(FrameTripleBuffer frames, int channel, int historyRows, float floorDb,
+            float ceilingDb) {
+        this.frames = frames;
+        this.channel = channel;
+        this.historyRows = historyRows;
+        this.floorDb = floorDb;
+        this.ceilingDb = ceilingDb;
+        this.lutScale = (colormap.length - 1) / (ceilingDb - floorDb);
+
+        // Build the lookup table by interpolating between the key colors
+
+        int segments = COLORMAP_KEYS.length - 1;
+        for (int idx = 0; idx < colormap.length; idx++) {
+            float position = idx * segments / (float) (colormap.length - 1);
+            int k = Math.min((int) position, segments - 1);
+            float t = position - k;
+            int from = COLORMAP_KEYS[k];
+            int to = COLORMAP_KEYS[k + 1];
+            int r = Math.round(((from >> 16) & 0xFF) * (1 - t) + ((to >> 16) & 0xFF) * t);
+            int g = Math.round(((from >> 8) & 0xFF) * (1 - t) + ((to >> 8) & 0xFF) * t);
+            int b = Math.round((from & 0xFF) * (1 - t) + (to & 0xFF) * t);
+            colormap[idx] = (r << 16) | (g << 8) | b;
+        }
+
+        setOpaque(true);
+        setBackground(Color.BLACK);
+        setPreferredSize(new Dimension(640, Math.min(historyRows, 480)));
+
+        int refreshRate = refreshRate();
+        logger.debug("Waterfall repaints at up to {} Hz.", refreshRate);
+        timer = new Timer(1000 / refreshRate, this);
+        timer.setCoalesce(true);
+        timer.start();
+    }
+
+    private static int refreshRate() {
+        try {
+            int rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDisplayMode().getRefreshRate();
+            if (rate != DisplayMode.REFRESH_RATE_UNKNOWN && rate > 0) {
+                return rate;
+            }
+        } catch (HeadlessException e) {
+            // use the default
+        }
+        return DEFAULT_REFRESH_RATE;
+    }
+
+    /**
+     * Runs on the Swing Event Dispatch Thread at each tick of the timer. Adds the newest frame to
+     * the history, if there is a new one, and asks for a repaint.
+     *
+     * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        SpectrumFrame frame = frames.getLatest();
+        if (frame == null || frame.getSequence() == lastSequence
+                || channel >= frame.getChannelCount()) {
+            return;
+        }
+        lastSequence = frame.getSequence();
+        if (frame.getBinCount() != binCount) {
+            binCount = frame.getBinCount();
+            history = new BufferedImage(binCount, historyRows, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) history.getRaster().getDataBuffer()).getData();
+            newestRow = 0;
+            filledRows = 0;
+        }
+
+        // Write the frame as one row, the row before the previous newest
+
+        newestRow = (newestRow == 0) ? historyRows - 1 : newestRow - 1;
+        filledRows = Math.min(filledRows + 1, historyRows);
+        float[] m = frame.getMagnitudes(channel);
+        int offset = newestRow * binCount;
+        for (int bin = 0; bin < binCount; bin++) {
+            int idx = 0;
+            if (m[bin] > 0) {
+                float level = (float) (20 * Math.log10(m[bin]));
+                idx = (int) ((level - floorDb) * lutScale);
+                if (idx < 0) {
+                    idx = 0;
+                } else if (idx >= colormap.length) {
+                    idx = colormap.length - 1;
+                }
+            }
+            pixels[offset + bin] = colormap[idx];
+        }
+        repaint();
+    }
+
+    /**
+     * Blit the ring of rows to the panel, newest at the top, scaled to fill it.
+     *
+     * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (history == null) {
+            return;
+        }
+        int w = getWidth();
+        int h = getHeight();
+
+        // Rows newestRow to the end of the image, then rows 0 to newestRow - 1
+
+        int firstPart = Math.min(historyRows - newestRow, filledRows);
+        int firstHeight = (int) ((long) h * firstPart / historyRows);
+        g.drawImage(history, 0, 0, w, firstHeight, 0, newestRow, binCount, newestRow + firstPart,
+                null);
+        int secondPart = filledRows - firstPart;
+        if (secondPart > 0) {
+            int secondHeight = (int) ((long) h * (firstPart + secondPart) / historyRows);
+            g.drawImage(history, 0, firstHeight, w, secondHeight, 0, 0, binCount, secondPart,
+                    null);
+        }
+    }
+
+    /**
+     * Stop the timer, for when the panel is taken out of use.
+     */
+    public void stop() {
+        timer.stop();
+    }
+}
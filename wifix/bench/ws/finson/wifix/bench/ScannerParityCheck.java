@@ -0,0 +1,261 @@
+package ws.finson.wifix.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.finson.wifix.app.CaptureLineScanner;
+import ws.tuxi.lib.cfg.AbstractComponent;
+import ws.tuxi.lib.cfg.Application;
+import ws.tuxi.lib.cfg.ConfigurationException;
+
+/**
+ * This ScannerParityCheck class checks that {@link CaptureLineScanner} splits capture lines into
+ * exactly the same fields as the regular expressions that WiFiRecord and AbstractRecord used
+ * before it. The old patterns are kept here, unchanged, as the reference.
+ *
+ * Every line of the capture files named in the config is run through both, and so are randomly
+ * mutated copies of those lines, which reach the corners of the patterns that real captures do
+ * not. Each difference is logged as a warning with the line that caused it, and the run ends with
+ * an error if there were any. See wifix-scanner-parity.xml.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class ScannerParityCheck extends AbstractComponent {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final int MAX_REPORTED = 20;
+
+    // The patterns of AbstractRecord and WiFiRecord before CaptureLineScanner replaced them
+
+    private static final Pattern startRecordPattern = Pattern
+            .compile("^\\+\\+\\+\\s+(\\w+)(?:\\s+(\\w+))*\\s*$");
+    private static final Pattern endPattern = Pattern.compile("^\\-\\-\\-.*$");
+    private static final Pattern firstLinePattern = Pattern
+            .compile("^\\s*(\\w+)\\s+(\\w+)\\s+(\\w+)\\s+(\\w+)\\s+(\\w+)\\s+(\\w+)\\s+(\\w+).*$");
+    private static final Pattern valueLinePattern = Pattern
+            .compile("^(.*?)([a-fA-F\\d]{2}(?::[a-fA-F\\d]{2}){5})\\s+(\\S+)\\s+([^\\s,]+)(?:,\\S+)?\\s+(\\S+)\\s+(\\S+)\\s+(\\S+).*$");
+    private static final Pattern blankLinePattern = Pattern.compile("^\\s*$");
+    private static final Pattern ibssLinePattern = Pattern.compile("^.*?IBSS networks? found.*$");
+
+    // Characters the mutations insert, chosen to make and break the tokens the patterns look for
+
+    private static final String MUTATION_CHARS = " \t\u000B\f:,+-_aAfFgG09IBSnetworks found---+++";
+
+    private final List<Path> sources = new ArrayList<>();
+    private int mutations = 300000;
+    private long seed = 1;
+
+    private long linesChecked = 0;
+    private long mismatches = 0;
+
+    /**
+     * @param app
+     *            the Application for which this is an ApplicationComponent
+     * @param cE
+     *            the XML configuration element that is provided for this instance
+     * @ws.tuxi.element source - a capture file, or a directory whose *.txt files are all checked.
+     *                  At least one is required.
+     * @ws.tuxi.element mutations - the number of mutated lines to check. Default 300000.
+     * @ws.tuxi.element seed - the seed of the mutations. Default 1.
+     * @throws ConfigurationException
+     */
+    public ScannerParityCheck(Application app, Element cE) throws ConfigurationException {
+        super(app, cE);
+
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            logger.debug("Begin section element <{}>", sectionElement.getLocalName());
+            switch (sectionElement.getLocalName()) {
+            case "source":
+                sources.add(Paths.get(sectionElement.getValue().trim()));
+                break;
+            case "mutations":
+                mutations = (int) parseNumber(sectionElement);
+                break;
+            case "seed":
+                seed = parseNumber(sectionElement);
+                break;
+            default:
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+                break;
+            }
+        }
+        if (sources.isEmpty()) {
+            throw new ConfigurationException("At least one source element must be specified.");
+        }
+    }
+
+    private static long parseNumber(Element sectionElement) throws ConfigurationException {
+        try {
+            long value = Long.parseLong(sectionElement.getValue().trim());
+            if (value >= 0 && value <= Integer.MAX_VALUE) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ConfigurationException("<" + sectionElement.getLocalName()
+                + "> must be a non-negative integer, not '" + sectionElement.getValue() + "'.");
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        List<String> lines = new ArrayList<>();
+        try {
+            for (Path source : sources) {
+                if (Files.isDirectory(source)) {
+                    try (DirectoryStream<Path> ds = Files.newDirectoryStream(source, "*.txt")) {
+                        for (Path p : ds) {
+                            readLines(p, lines);
+                        }
+                    }
+                } else {
+                    readLines(source, lines);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Cannot read the capture files.  {}", e.toString());
+            return;
+        }
+        if (lines.isEmpty()) {
+            logger.error("No capture lines found in {}.", sources);
+            return;
+        }
+
+        for (String line : lines) {
+            check(line);
+        }
+        logger.info("{} capture lines checked, {} mismatches.", linesChecked, mismatches);
+
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int idx = 0; idx < mutations; idx++) {
+            sb.setLength(0);
+            sb.append(lines.get(random.nextInt(lines.size())));
+            int edits = 1 + random.nextInt(3);
+            for (int e = 0; e < edits; e++) {
+                mutate(sb, random);
+            }
+            check(sb.toString());
+        }
+
+        if (mismatches == 0) {
+            logger.info("{} lines checked in all, CaptureLineScanner matches the patterns.",
+                    linesChecked);
+        } else {
+            logger.error("{} lines checked in all, {} did not match the patterns.", linesChecked,
+                    mismatches);
+        }
+    }
+
+    private static void readLines(Path p, List<String> lines) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+    }
+
+    private static void mutate(StringBuilder sb, Random random) {
+        int len = sb.length();
+        int pos = (len == 0) ? 0 : random.nextInt(len + 1);
+        char c = MUTATION_CHARS.charAt(random.nextInt(MUTATION_CHARS.length()));
+        switch (random.nextInt(5)) {
+        case 0: // insert
+            sb.insert(pos, c);
+            break;
+        case 1: // replace
+            if (pos < len) {
+                sb.setCharAt(pos, c);
+            }
+            break;
+        case 2: // delete
+            if (pos < len) {
+                sb.deleteCharAt(pos);
+            }
+            break;
+        case 3: // delete a run
+            if (pos < len) {
+                sb.delete(pos, Math.min(len, pos + 1 + random.nextInt(8)));
+            }
+            break;
+        default: // cut at
+            sb.setLength(pos);
+            break;
+        }
+    }
+
+    private void check(String line) {
+        linesChecked++;
+        Matcher m = startRecordPattern.matcher(line);
+        compare("header", line, m.matches() ? new String[] { m.group(1), m.group(2) } : null,
+                CaptureLineScanner.parseHeader(line));
+        compare("end", line, endPattern.matcher(line).matches(),
+                CaptureLineScanner.isEndMarker(line));
+        compare("blank", line, blankLinePattern.matcher(line).matches(),
+                CaptureLineScanner.isBlank(line));
+        compare("ibss", line, ibssLinePattern.matcher(line).matches(),
+                CaptureLineScanner.isIbssLine(line));
+        compare("labels", line, groups(firstLinePattern.matcher(line)),
+                CaptureLineScanner.splitLabels(line));
+        compare("values", line, groups(valueLinePattern.matcher(line)),
+                CaptureLineScanner.splitValues(line));
+    }
+
+    // The first six groups, trimmed, as the record classes took them
+
+    private static String[] groups(Matcher m) {
+        if (!m.matches()) {
+            return null;
+        }
+        String[] row = new String[6];
+        for (int idx = 0; idx < row.length; idx++) {
+            row[idx] = m.group(idx + 1).trim();
+        }
+        return row;
+    }
+
+    private void compare(String what, String line, boolean expected, boolean actual) {
+        if (expected != actual) {
+            mismatch(what, line, Boolean.toString(expected), Boolean.toString(actual));
+        }
+    }
+
+    private void compare(String what, String line, String[] expected, String[] actual) {
+        if (!Arrays.equals(expected, actual)) {
+            mismatch(what, line, Arrays.toString(expected), Arrays.toString(actual));
+        }
+    }
+
+    private void mismatch(String what, String line, String expected, String actual) {
+        if (++mismatches <= MAX_REPORTED) {
+            logger.warn("{} differs for line '{}': patterns {}, scanner {}", what, line,
+                    expected, actual);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package ws.finson.wifix.bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.finson.wifix.app.SyntheticCapture;
+import ws.finson.wifix.app.SyntheticTable;
+import ws.tuxi.lib.cfg.AbstractComponent;
+import ws.tuxi.lib.cfg.Application;
+import ws.tuxi.lib.cfg.ConfigurationException;
+import ws.tuxi.lib.pipeline.PipelineOperation;
+
+/**
+ * This StepBenchmark class measures the throughput and allocation rate of wifix pipeline steps,
+ * alone or in chains, over generated inputs of several sizes. It is an ApplicationComponent, so a
+ * benchmark run is described by a config file (see wifix-benchmark.xml) and started like any other
+ * wifix application.
+ *
+ * <pre>
+ * &lt;benchmark name="BuildParameters" input="capture" sizes="10 1000 10000"&gt;
+ *   &lt;setup&gt;
+ *     &lt;step type="ImportCaptureScans"&gt;&lt;file suffix="-raw" extension="txt" /&gt;&lt;/step&gt;
+ *     &lt;step type="BuildSensorBranch"&gt;...&lt;/step&gt;
+ *   &lt;/setup&gt;
+ *   &lt;step type="BuildParameters"&gt;...&lt;/step&gt;
+ * &lt;/benchmark&gt;
+ * </pre>
+ *
+ * For each size the input file is generated in the work directory: a capture file of that many
+ * scans (capture-N-raw.txt) written by {@link SyntheticCapture}, or a CSV file of that many rows
+ * (table-N.csv) written by {@link SyntheticTable}, both with their default settings and the size
+ * as the seed. The context of the
+ * starting Document names the file as base, and the work directory as both src-dir and dst-dir.
+ * The setup steps are run once to bring the Document to the state the measured steps expect. Each
+ * operation then runs the measured steps on a fresh copy of that Document; making the copy is not
+ * measured.
+ *
+ * An iteration repeats the operation until min-time milliseconds have been measured. Warmup
+ * iterations are run and discarded first. Allocation is the bytes allocated by all threads during
+ * the operations, so work done on worker threads is counted, except by threads that end during
+ * the operation.
+ *
+ * Each result is appended as one line to a CSV file, which gets a header line when it is created.
+ * The label column comes from the label element or the bench.label system property, for example
+ * the commit being measured, so results from several commits can be kept in one file and compared.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class StepBenchmark extends AbstractComponent {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final String RESULT_HEADER = "label,benchmark,size,unit,iterations,ops,"
+            + "ms_per_op,ms_per_op_stddev,units_per_s,bytes_per_op,alloc_mb_per_s";
+
+    private int warmup = 2;
+    private int iterations = 5;
+    private long minNanos = 500L * 1000000;
+    private Path workDir = Paths.get("bench");
+    private Path resultPath = Paths.get("bench", "benchmark-results.csv");
+    private String label = System.getProperty("bench.label", "");
+    private final List<Case> cases = new ArrayList<>();
+
+    /**
+     * @param app
+     *            the Application for which this is an ApplicationComponent
+     * @param cE
+     *            the XML configuration element that is provided for this instance
+     * @ws.tuxi.element benchmark - one benchmark. Attribute name names it, input is capture or csv
+     *                  and sizes lists the input sizes. Contains an optional setup element and the
+     *                  steps to measure, both in the usual step form.
+     * @ws.tuxi.element warmup - iterations to run before measuring. Default 2.
+     * @ws.tuxi.element iterations - iterations to measure. Default 5.
+     * @ws.tuxi.element min-time - milliseconds measured in each iteration. Default 500.
+     * @ws.tuxi.element work-dir - where the inputs are generated and outputs written. Default
+     *                  "bench".
+     * @ws.tuxi.element results - the CSV file the results are appended to. Default
+     *                  "bench/benchmark-results.csv".
+     * @ws.tuxi.element label - the value of the label column. Default the bench.label property.
+     * @throws ConfigurationException
+     */
+    public StepBenchmark(Application app, Element cE) throws ConfigurationException {
+        super(app, cE);
+
+        // Process each of the configuration sections
+
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            logger.debug("Begin section element <{}>", sectionElement.getLocalName());
+            switch (sectionElement.getLocalName()) {
+            case "benchmark":
+                cases.add(new Case(app, sectionElement));
+                break;
+            case "warmup":
+                warmup = parseCount(sectionElement, 0);
+                break;
+            case "iterations":
+                iterations = parseCount(sectionElement, 1);
+                break;
+            case "min-time":
+                minNanos = parseCount(sectionElement, 0) * 1000000L;
+                break;
+            case "work-dir":
+                workDir = Paths.get(sectionElement.getValue().trim());
+                break;
+            case "results":
+                resultPath = Paths.get(sectionElement.getValue().trim());
+                break;
+            case "label":
+                label = sectionElement.getValue().trim();
+                break;
+            default:
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+                break;
+            }
+        }
+        if (cases.isEmpty()) {
+            throw new ConfigurationException("At least one benchmark element must be specified.");
+        }
+    }
+
+    private static int parseCount(Element sectionElement, int min) throws ConfigurationException {
+        try {
+            int value = Integer.parseInt(sectionElement.getValue().trim());
+            if (value >= min) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ConfigurationException("<" + sectionElement.getLocalName()
+                + "> must be a number, at least " + min + ".");
+    }
+
+    /**
+     * @see ws.tuxi.lib.cfg.ApplicationComponent#preRun()
+     */
+    @Override
+    public void preRun() throws ConfigurationException {
+        try {
+            Files.createDirectories(workDir);
+            if (resultPath.getParent() != null) {
+                Files.createDirectories(resultPath.getParent());
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        List<String> lines = new ArrayList<>();
+        for (Case c : cases) {
+            for (int size : c.sizes) {
+                try {
+                    String line = measure(c, size);
+                    lines.add(line);
+                    appendResult(line);
+                } catch (Exception e) {
+                    logger.error("Benchmark {} size {} failed.  {}", c.name, size, e.toString());
+                    logger.debug("Failure detail", e);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder(RESULT_HEADER);
+        for (String line : lines) {
+            sb.append('\n').append(line);
+        }
+        logger.info("Benchmark results:\n{}", sb);
+    }
+
+    private String measure(Case c, int size) throws Exception {
+        String base = c.input.prepare(workDir, size);
+        Element context = new Element("context");
+        addValue(context, "src-dir", workDir.toString());
+        addValue(context, "dst-dir", workDir.toString());
+        addValue(context, "base", base);
+        Element session = new Element("session");
+        session.appendChild(context);
+        Document prepared = new Document(session);
+        for (PipelineOperation<Document, Document> step : c.setup) {
+            prepared = step.doStep(prepared);
+        }
+
+        Probe probe = new Probe();
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        double[] msPerOp = new double[iterations];
+        for (int iteration = -warmup; iteration < iterations; iteration++) {
+            System.gc();
+            long iterationOps = 0;
+            long iterationNanos = 0;
+            long iterationBytes = 0;
+            while (iterationOps == 0 || iterationNanos < minNanos) {
+                Document in = new Document(prepared);
+                long allocatedBefore = probe.allocated();
+                long start = System.nanoTime();
+                for (PipelineOperation<Document, Document> step : c.steps) {
+                    in = step.doStep(in);
+                }
+                iterationNanos += System.nanoTime() - start;
+                iterationBytes += probe.allocated() - allocatedBefore;
+                iterationOps++;
+            }
+            if (iteration >= 0) {
+                ops += iterationOps;
+                nanos += iterationNanos;
+                bytes += iterationBytes;
+                msPerOp[iteration] = iterationNanos / 1e6 / iterationOps;
+            }
+            logger.debug("{} size {} iteration {}: {} ops, {} ms/op", c.name, size, iteration,
+                    iterationOps, iterationNanos / 1e6 / iterationOps);
+        }
+
+        double mean = nanos / 1e6 / ops;
+        double variance = 0;
+        for (double ms : msPerOp) {
+            variance += (ms - mean) * (ms - mean);
+        }
+        double stddev = (iterations > 1) ? Math.sqrt(variance / (iterations - 1)) : 0;
+        double seconds = nanos / 1e9;
+        String line = String.format(Locale.ROOT, "%s,%s,%d,%s,%d,%d,%.4f,%.4f,%.1f,%d,%.1f",
+                label, c.name, size, c.input.unit, iterations, ops, mean, stddev, size * ops
+                        / seconds, (probe.available ? bytes / ops : -1),
+                (probe.available ? bytes / (1024.0 * 1024.0) / seconds : -1.0));
+        logger.info("{} size {}: {} ms/op, {} {}/s", c.name, size,
+                String.format(Locale.ROOT, "%.3f", mean),
+                String.format(Locale.ROOT, "%.0f", size * ops / seconds), c.input.unit);
+        return line;
+    }
+
+    private void appendResult(String line) throws IOException {
+        boolean isNew = !Files.exists(resultPath);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(resultPath,
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (isNew) {
+                out.println(RESULT_HEADER);
+            }
+            out.println(line);
+        }
+    }
+
+    private static void addValue(Element parent, String name, String value) {
+        Element e = new Element(name);
+        e.appendChild(value);
+        parent.appendChild(e);
+    }
+
+    /**
+     * One benchmark element: the kind of input, its sizes, and the setup and measured steps.
+     */
+    private class Case {
+        final String name;
+        final Input input;
+        final int[] sizes;
+        final List<PipelineOperation<Document, Document>> setup = new ArrayList<>();
+        final List<PipelineOperation<Document, Document>> steps = new ArrayList<>();
+
+        Case(Application app, Element cE) throws ConfigurationException {
+            name = cE.getAttributeValue("name");
+            if (name == null) {
+                throw new ConfigurationException("Every benchmark must have a name.");
+            }
+            input = Input.forName(cE.getAttributeValue("input"));
+            String[] sizeNames = (cE.getAttributeValue("sizes") == null) ? new String[0] : cE
+                    .getAttributeValue("sizes").trim().split("[\\s,]+");
+            sizes = new int[sizeNames.length];
+            try {
+                for (int idx = 0; idx < sizeNames.length; idx++) {
+                    sizes[idx] = Integer.parseInt(sizeNames[idx]);
+                }
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Benchmark " + name
+                        + " sizes must be a list of numbers.");
+            }
+            if (sizes.length == 0) {
+                throw new ConfigurationException("Benchmark " + name + " must have sizes.");
+            }
+            Elements sectionElements = cE.getChildElements();
+            for (int idx = 0; idx < sectionElements.size(); idx++) {
+                Element sectionElement = sectionElements.get(idx);
+                if ("setup".equals(sectionElement.getLocalName())) {
+                    Elements setupElements = sectionElement.getChildElements("step");
+                    for (int s = 0; s < setupElements.size(); s++) {
+                        setup.add(newStep(app, setupElements.get(s)));
+                    }
+                } else if ("step".equals(sectionElement.getLocalName())) {
+                    steps.add(newStep(app, sectionElement));
+                }
+            }
+            if (steps.isEmpty()) {
+                throw new ConfigurationException("Benchmark " + name
+                        + " must have at least one step.");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private PipelineOperation<Document, Document> newStep(Application app, Element stepElement)
+                throws ConfigurationException {
+            return app.getConfig().getInstanceUsingFactory(PipelineOperation.class, stepElement,
+                    new Object[] { StepBenchmark.this, stepElement });
+        }
+    }
+
+    /**
+     * The kinds of generated input. Each file is written once per work directory and size.
+     */
+    private enum Input {
+        CAPTURE("scans") {
+            @Override
+            String prepare(Path dir, int size) throws IOException {
+                String base = "capture-" + size;
+                Path p = dir.resolve(base + "-raw.txt");
+                if (!Files.exists(p)) {
+                    new SyntheticCapture().write(p, size, size);
+                }
+                return base;
+            }
+        },
+        CSV("rows") {
+            @Override
+            String prepare(Path dir, int size) throws IOException {
+                String base = "table-" + size;
+                Path p = dir.resolve(base + ".csv");
+                if (!Files.exists(p)) {
+                    new SyntheticTable().write(p, size, size);
+                }
+                return base;
+            }
+        };
+
+        final String unit;
+
+        Input(String unit) {
+            this.unit = unit;
+        }
+
+        abstract String prepare(Path dir, int size) throws IOException;
+
+        static Input forName(String name) throws ConfigurationException {
+            if ("capture".equals(name)) {
+                return CAPTURE;
+            } else if ("csv".equals(name)) {
+                return CSV;
+            }
+            throw new ConfigurationException("Benchmark input must be capture or csv.");
+        }
+    }
+
+    /**
+     * Bytes allocated by all live threads, where the JVM can count them.
+     */
+    private static class Probe {
+        final com.sun.management.ThreadMXBean threads;
+        final boolean available;
+
+        Probe() {
+            ThreadMXBean t = ManagementFactory.getThreadMXBean();
+            if (t instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) t).isThreadAllocatedMemorySupported()) {
+                threads = (com.sun.management.ThreadMXBean) t;
+                threads.setThreadAllocatedMemoryEnabled(true);
+                available = true;
+            } else {
+                threads = null;
+                available = false;
+            }
+        }
+
+        long allocated() {
+            if (!available) {
+                return 0;
+            }
+            long total = 0;
+            for (long b : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                if (b > 0) {
+                    total += b;
+                }
+            }
+            return total;
+        }
+    }
+}
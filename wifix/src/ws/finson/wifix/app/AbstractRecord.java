@@ -4,8 +4,6 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,12 +19,22 @@ import ws.tuxi.lib.pipeline.PipelineSourceException;
  */
 public abstract class AbstractRecord implements DAP_Record {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
-    private final Pattern startRecordPattern = Pattern
-            .compile("^\\+\\+\\+\\s+(\\w+)(?:\\s+(\\w+))*\\s*$");
-    private final Pattern endPattern = Pattern.compile("^\\-\\-\\-.*$");
 
     protected final List<String[]> recordValues = new ArrayList<>();
 
+    // If there is a handler, rows are passed on to it as they are read instead of being kept
+
+    private final CaptureScanHandler handler;
+    private int rowCount = 0;
+
+    protected AbstractRecord() {
+        this(null);
+    }
+
+    protected AbstractRecord(CaptureScanHandler handler) {
+        this.handler = handler;
+    }
+
     /**
      * @see ws.finson.wifix.app.DAP_Record#getFieldNames()
      */
@@ -72,16 +80,37 @@ public abstract class AbstractRecord implements DAP_Record {
     }
 
 
+    /**
+     * Add one row to this record. The first row is the field names, the rest are values.
+     */
+    protected void addRow(String[] row) {
+        if (handler == null) {
+            recordValues.add(row);
+        } else if (rowCount == 0) {
+            handler.fieldNames(row);
+        } else {
+            handler.fieldRow(row);
+        }
+        rowCount++;
+    }
+
+    /**
+     * @return the number of rows added so far, including the field names row
+     */
+    protected int getRowCount() {
+        return rowCount;
+    }
+
     protected void skipRemainderOfCurrentRecord(BufferedReader src) throws PipelineSourceException {
         String line = null;
         int depth = 1;
         try {
             while ((line = src.readLine()) != null) {
-                Matcher m = startRecordPattern.matcher(line);
-                if (m.matches()) {
+                String[] header = CaptureLineScanner.parseHeader(line);
+                if (header != null) {
                     depth++;
-                    logger.debug("Skipping enclosed record {}", m.group(1));
-                } else if (endPattern.matcher(line).matches()) {
+                    logger.debug("Skipping enclosed record {}", header[0]);
+                } else if (CaptureLineScanner.isEndMarker(line)) {
                     if (--depth == 0) {
                         return;
                     }
@@ -109,7 +138,7 @@ public abstract class AbstractRecord implements DAP_Record {
     }
 
     protected boolean isEndOfRecordIndicator(String line) {
-        return endPattern.matcher(line).matches();
+        return CaptureLineScanner.isEndMarker(line);
     }
 
     // Do we have the field the caller is looking for? If so, what is the
@@ -0,0 +1,58 @@
+package ws.finson.wifix.app;
+
+/**
+ * This AggregateFunction enum lists the functions that can be used in a parameter expression, as
+ * in "max(RSSI)". Each function reduces the values of one field in one group of one scan to a
+ * single value.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public enum AggregateFunction {
+    /** number of values */
+    COUNT(false),
+    /** sum of the values */
+    SUM(true),
+    /** smallest value */
+    MIN(true),
+    /** largest value */
+    MAX(true),
+    /** arithmetic mean */
+    AVG(true),
+    /** middle value, or the mean of the two middle values */
+    MEDIAN(true),
+    /** population standard deviation */
+    STDDEV(true),
+    /** first value, as written */
+    FIRST(false),
+    /** last value, as written */
+    LAST(false);
+
+    private final boolean numeric;
+
+    private AggregateFunction(boolean numeric) {
+        this.numeric = numeric;
+    }
+
+    /**
+     * @return true if the function needs the values as numbers, false if it can work on any text
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * @param name
+     *            a function name from a parameter expression, in any case
+     * @return the function with that name, or null if there is none
+     */
+    public static AggregateFunction forName(String name) {
+        for (AggregateFunction f : values()) {
+            if (f.name().equalsIgnoreCase(name)) {
+                return f;
+            }
+        }
+        return null;
+    }
+}
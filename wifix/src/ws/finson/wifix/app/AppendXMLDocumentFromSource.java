@@ -1,14 +1,16 @@
 package ws.finson.wifix.app;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-import nu.xom.Builder;
 import nu.xom.Document;
 import nu.xom.Element;
 import nu.xom.Elements;
@@ -24,7 +26,12 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
 
 /**
  * This AppendXMLDocumentFromSource class reads one or more XML Documents from
- * the specified file(s) and appends them to the pipeline Document.
+ * the specified file(s) and appends them to the pipeline Document. Files with the extension .xbin
+ * or .xbin.gz are read in the {@link CompactDocumentFormat}.
+ * 
+ * All the files are parsed at the same time, each with its own Builder, on a pool with one thread
+ * per processor. The parsed branches are appended in the order the files are configured, so the
+ * result is the same as parsing them one after another.
  * 
  * @author Doug Johnson, Dec 2014
  * 
@@ -32,8 +39,17 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
 public class AppendXMLDocumentFromSource implements PipelineOperation<Document, Document> {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private static final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime()
+            .availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "xml-source-parser");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     private List<ConfiguredPathname> sourcePathNames = new ArrayList<>();;
-    private BufferedReader sourceReader = null;
 
     /**
      * @param ac
@@ -67,24 +83,46 @@ public class AppendXMLDocumentFromSource implements PipelineOperation<Document,
      */
     @Override
     public Document doStep(Document tree) throws PipelineOperationException {
+
+        // Resolve all the paths first. Appending the branches doesn't change the context.
+
+        Element globalContextElement = new Element(tree.getRootElement().getFirstChildElement(
+                "context"));
+        List<Future<Document>> parsed = new ArrayList<>(sourcePathNames.size());
         for (ConfiguredPathname cpn : sourcePathNames) {
-            Document registerTree;
-            try {
-                Element globalContextElement = new Element(tree.getRootElement()
-                        .getFirstChildElement("context"));
-                Path srcPath = cpn.getSourcePath(globalContextElement);
-                logger.info("Opening file '{}' for XML parsing.", srcPath.toString());
-                sourceReader = Files.newBufferedReader(srcPath, Charset.defaultCharset());
-                Builder parser = new Builder();
-                registerTree = parser.build(sourceReader);
-            } catch (ParsingException | IOException e) {
-                throw new PipelineOperationException(e);
+            final Path srcPath = cpn.getSourcePath(globalContextElement);
+            logger.info("Opening file '{}' for XML parsing.", srcPath.toString());
+            parsed.add(pool.submit(new Callable<Document>() {
+                @Override
+                public Document call() throws IOException, ParsingException {
+                    return LoadXMLDocumentFromSource.read(srcPath);
+                }
+            }));
+        }
+
+        // Attach the branches in configuration order as each one becomes available
+
+        try {
+            for (Future<Document> f : parsed) {
+                Document registerTree;
+                try {
+                    registerTree = f.get();
+                } catch (ExecutionException e) {
+                    throw new PipelineOperationException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PipelineOperationException(e);
+                }
+                Element branch = registerTree.getRootElement();
+                Element stub = new Element("stub");
+                registerTree.setRootElement(stub);
+                branch.detach();
+                tree.getRootElement().appendChild(branch);
+            }
+        } finally {
+            for (Future<Document> f : parsed) {
+                f.cancel(false);
             }
-            Element branch = registerTree.getRootElement();
-            Element stub = new Element("stub");
-            registerTree.setRootElement(stub);
-            branch.detach();
-            tree.getRootElement().appendChild(branch);
         }
         return tree;
     }
@@ -0,0 +1,69 @@
+package ws.finson.wifix.app;
+
+import java.io.IOException;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.cfg.ApplicationComponent;
+import ws.tuxi.lib.cfg.ConfigurationException;
+import ws.tuxi.lib.pipeline.PipelineOperation;
+import ws.tuxi.lib.pipeline.PipelineOperationException;
+
+/**
+ * This AwaitSnapshotWrites class waits for all the snapshots queued by the async
+ * SaveXMLDocumentToSink steps of its own pipeline run to be written. It is normally the last step
+ * of a pipeline. If any of those snapshots could not be written, the step fails with the I/O
+ * error. Snapshots of other runs, such as the other runs of a BatchSteps step, are not waited for.
+ * The tree is passed through unchanged.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class AwaitSnapshotWrites implements PipelineOperation<Document, Document> {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * @param ac
+     *            the containing ApplicationComponent
+     * @param cE
+     *            the Element from the config file that defines this object. It has no content.
+     * @throws IOException
+     * @throws ConfigurationException
+     */
+    public AwaitSnapshotWrites(ApplicationComponent ac, Element cE) throws IOException,
+            ConfigurationException {
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            logger.warn("Skipping <{}> element. Element not recognized.", sectionElements.get(idx)
+                    .getLocalName());
+        }
+    }
+
+    /**
+     * @see ws.tuxi.lib.pipeline.PipelineOperation#doStep(java.lang.Object)
+     */
+    @Override
+    public Document doStep(Document in) throws PipelineOperationException {
+        long start = System.nanoTime();
+        SnapshotWriter writer = SnapshotWriter.getCurrent();
+        if (writer == null) {
+            return in;
+        }
+        try {
+            writer.await();
+        } catch (IOException e) {
+            throw new PipelineOperationException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PipelineOperationException(e);
+        }
+        logger.debug("Waited {} ms for snapshots.", (System.nanoTime() - start) / 1000000);
+        return in;
+    }
+}
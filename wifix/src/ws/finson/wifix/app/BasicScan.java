@@ -2,13 +2,10 @@ package ws.finson.wifix.app;
 
 import java.io.IOException;
 import java.io.LineNumberReader;
-import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,9 +22,7 @@ import ws.tuxi.lib.pipeline.PipelineSourceException;
 public class BasicScan implements DAP_Scan {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final Pattern startRecordPattern = Pattern
-            .compile("^\\+\\+\\+\\s+(\\w+)(?:\\s+(\\w+))*\\s*$");
-    private final Pattern endScanPattern = Pattern.compile("^\\-\\-\\-.*$");
+    private final RecordTypeRegistry recordTypes = RecordTypeRegistry.getDefault();
 
     private final List<DAP_Record> records = new ArrayList<>();
 
@@ -40,26 +35,21 @@ public class BasicScan implements DAP_Scan {
         // Read and interpret records from the raw file until we find the end-of-scan marker
 
         String line = null;
-        String suffix = null;
 
         try {
             while ((line = src.readLine()) != null) {
                 logger.trace(line);
-                Matcher m = startRecordPattern.matcher(line);
-                if (m.matches()) {
-                    suffix = (m.group(2) == null) ? "" : "_" + m.group(2);
-                    String className = "ws.finson.wifix.app." + m.group(1) + "Record" + suffix;
-                    logger.trace("Record start: {}", className);
-                    Class<DAP_Record> c = (Class<DAP_Record>) Class.forName(className);
-                    Constructor<DAP_Record> maker = c.getConstructor(LineNumberReader.class);
-                    records.add(maker.newInstance(src));
-                } else if (endScanPattern.matcher(line).matches()) {
+                String[] header = CaptureLineScanner.parseHeader(line);
+                if (header != null) {
+                    logger.trace("Record start: {}", header[0]);
+                    records.add(recordTypes.getFactory(header).newRecord(src, null));
+                } else if (CaptureLineScanner.isEndMarker(line)) {
                     break;
                 } else {
                     throw new PipelineSourceException("Unexpected line format: " + line);
                 }
             }
-        } catch (IOException | ReflectiveOperationException | SecurityException e) {
+        } catch (IOException e) {
             throw new PipelineSourceException(e);
         }
         logger.trace("Record count: {}", records.size());
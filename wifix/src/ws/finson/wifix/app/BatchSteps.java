@@ -0,0 +1,331 @@
+package ws.finson.wifix.app;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.cfg.ApplicationComponent;
+import ws.tuxi.lib.cfg.ConfigurationException;
+import ws.tuxi.lib.pipeline.PipelineOperation;
+import ws.tuxi.lib.pipeline.PipelineOperationException;
+
+/**
+ * This BatchSteps class runs a sequence of nested pipeline steps once for each source file that
+ * matches a glob, so one pipeline config can process a whole directory of captures.
+ *
+ * <pre>
+ * &lt;step type="BatchSteps"&gt;
+ *   &lt;files src-dir="raw" glob="*-raw.txt" suffix="-raw" /&gt;
+ *   &lt;threads&gt;8&lt;/threads&gt;
+ *   &lt;memory&gt;256&lt;/memory&gt;
+ *   &lt;step type="ImportCaptureScans"&gt;&lt;file suffix="-raw" extension="txt" /&gt;&lt;/step&gt;
+ *   &lt;step type="SaveXMLDocumentToSink"&gt;&lt;file suffix="-capture" /&gt;&lt;/step&gt;
+ * &lt;/step&gt;
+ * </pre>
+ *
+ * Each run starts with its own copy of the pipeline Document. The context branch of the copy is
+ * given the directory of the file as src-dir and the name of the file as base, without its
+ * extension and without the suffix given in the files element. The nested steps then find the
+ * file and name their outputs through {@link ConfiguredPathname} in the usual way. In the example
+ * above, raw/RJP-1-1417040781-raw.txt is read and post/RJP-1-1417040781-capture.xml is written.
+ *
+ * The runs are done on a pool of worker threads. The size of the pool is the number of threads
+ * asked for, but no more than the number of runs of the given memory size that fit in the maximum
+ * heap. The nested steps are created again for every run, so no step object is ever used by two
+ * runs at once. Each run also gets its own {@link SnapshotWriter}, so the async
+ * SaveXMLDocumentToSink steps of different runs write their snapshots in parallel, the
+ * AwaitSnapshotWrites step of a run waits only for that run's snapshots, and a snapshot that
+ * cannot be written fails the run that saved it. Snapshots still being written when the nested
+ * steps end are waited for before the run is counted as done.
+ *
+ * A failed run does not stop the others. When all the runs are finished, the throughput and the
+ * failures are logged, and if any run failed an exception is thrown. The Document returned is the
+ * Document passed in, unchanged.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class BatchSteps implements PipelineOperation<Document, Document> {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ApplicationComponent ac;
+    private final List<Element> stepElements = new ArrayList<>();
+    private String srcDir = null;
+    private String glob = null;
+    private String nameSuffix = "";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long runBytes = 256L * 1024 * 1024;
+
+    /**
+     * @param ac
+     *            the containing ApplicationComponent
+     * @param cE
+     *            the Element from the config file that defines this object
+     * @ws.tuxi.element files - the source files. Attribute glob is the file name pattern, src-dir
+     *                  the directory to search (default the src-dir of the context) and suffix the
+     *                  end of the name to drop when making the base name.
+     * @ws.tuxi.element step - a pipeline step to run for each file, in the usual form
+     * @ws.tuxi.element threads - the most runs to do at once. Default the number of processors.
+     * @ws.tuxi.element memory - the heap each run is expected to need, in megabytes. Default 256.
+     * @throws IOException
+     * @throws ConfigurationException
+     */
+    public BatchSteps(ApplicationComponent ac, Element cE) throws IOException,
+            ConfigurationException {
+        this.ac = ac;
+
+        // Process each of the configuration sections
+
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            logger.debug("Begin section element <{}>", sectionElement.getLocalName());
+            if ("step".equals(sectionElement.getLocalName())) {
+                if (sectionElement.getAttributeValue("type") == null) {
+                    throw new ConfigurationException("Nested <step> elements must have a type.");
+                }
+                stepElements.add(sectionElement);
+            } else if ("files".equals(sectionElement.getLocalName())) {
+                glob = sectionElement.getAttributeValue("glob");
+                srcDir = sectionElement.getAttributeValue("src-dir");
+                if (sectionElement.getAttributeValue("suffix") != null) {
+                    nameSuffix = sectionElement.getAttributeValue("suffix");
+                }
+            } else if ("threads".equals(sectionElement.getLocalName())) {
+                threads = parsePositive(sectionElement, "Batch threads must be a positive number.");
+            } else if ("memory".equals(sectionElement.getLocalName())) {
+                runBytes = parsePositive(sectionElement,
+                        "Batch memory must be a positive number of megabytes.") * 1024L * 1024;
+            } else {
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+            }
+        }
+        if (glob == null) {
+            throw new ConfigurationException("A files element with a glob must be specified.");
+        }
+        if (stepElements.isEmpty()) {
+            throw new ConfigurationException("At least one step element must be specified.");
+        }
+
+        // Create the steps once now, so configuration errors are found before any run starts
+
+        newSteps();
+    }
+
+    private static int parsePositive(Element sectionElement, String message)
+            throws ConfigurationException {
+        try {
+            int value = Integer.parseInt(sectionElement.getValue().trim());
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ConfigurationException(message);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<PipelineOperation<Document, Document>> newSteps() throws ConfigurationException {
+        List<PipelineOperation<Document, Document>> steps = new ArrayList<>(stepElements.size());
+        synchronized (ac) {
+            for (Element stepElement : stepElements) {
+                steps.add(ac
+                        .getApplication()
+                        .getConfig()
+                        .getInstanceUsingFactory(PipelineOperation.class, stepElement,
+                                new Object[] { ac, stepElement }));
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * @see ws.tuxi.lib.pipeline.PipelineOperation#doStep(java.lang.Object)
+     */
+    @Override
+    public Document doStep(Document tree) throws PipelineOperationException {
+        Element twig = tree.getRootElement().getFirstChildElement("context");
+        Path dir = Paths.get(".");
+        if (srcDir != null) {
+            dir = Paths.get(srcDir);
+        } else if (twig != null && twig.getFirstChildElement("src-dir") != null) {
+            dir = Paths.get(twig.getFirstChildElement("src-dir").getValue());
+        }
+
+        List<Path> sources = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, glob)) {
+            for (Path p : ds) {
+                if (Files.isRegularFile(p)) {
+                    sources.add(p);
+                }
+            }
+        } catch (IOException e) {
+            throw new PipelineOperationException(e);
+        }
+        Collections.sort(sources);
+        if (sources.isEmpty()) {
+            logger.warn("No files match '{}' in '{}'.", glob, dir);
+            return tree;
+        }
+
+        // No more runs at once than fit in the heap
+
+        long fit = Math.max(1, Runtime.getRuntime().maxMemory() / runBytes);
+        int poolSize = (int) Math.min(Math.min(threads, fit), sources.size());
+        logger.info("Running {} files, {} at a time.", sources.size(), poolSize);
+
+        final AtomicInteger workerCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "batch-worker-" + workerCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        long start = System.nanoTime();
+        List<Future<Long>> futures = new ArrayList<>(sources.size());
+        try {
+            for (Path source : sources) {
+                futures.add(pool.submit(new Run(tree, source)));
+            }
+
+            // Wait for every run, collecting the failures
+
+            long bytes = 0;
+            List<String> failures = new ArrayList<>();
+            for (int idx = 0; idx < sources.size(); idx++) {
+                try {
+                    bytes += futures.get(idx).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    failures.add(sources.get(idx) + ": " + cause);
+                    logger.error("Run for '{}' failed.  {}", sources.get(idx), cause.toString());
+                    logger.debug("Failure detail", cause);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            logger.info("Batch finished: {} of {} files in {} s, {} files/s, {} MB/s read.",
+                    sources.size() - failures.size(), sources.size(),
+                    String.format("%.1f", seconds),
+                    String.format("%.2f", sources.size() / seconds),
+                    String.format("%.2f", bytes / (1024.0 * 1024.0) / seconds));
+            if (!failures.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (String failure : failures) {
+                    sb.append("\n  ").append(failure);
+                }
+                logger.error("{} files failed:{}", failures.size(), sb);
+                throw new PipelineOperationException(failures.size() + " of " + sources.size()
+                        + " batch runs failed.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PipelineOperationException(e);
+        } finally {
+            for (Future<Long> f : futures) {
+                f.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+        return tree;
+    }
+
+    /**
+     * One run of the nested steps for one source file. The result is the size of the file.
+     */
+    private class Run implements Callable<Long> {
+        private final Document tree;
+        private final Path source;
+
+        Run(Document tree, Path source) {
+            this.tree = tree;
+            this.source = source;
+        }
+
+        @Override
+        public Long call() throws IOException, ConfigurationException, PipelineOperationException,
+                InterruptedException {
+            Document in;
+            synchronized (tree) {
+                in = new Document(tree);
+            }
+            Element context = in.getRootElement().getFirstChildElement("context");
+            if (context == null) {
+                context = new Element("context");
+                in.getRootElement().insertChild(context, 0);
+            }
+            String base = FilenameUtils.getBaseName(source.getFileName().toString());
+            if (!nameSuffix.isEmpty() && base.endsWith(nameSuffix)) {
+                base = base.substring(0, base.length() - nameSuffix.length());
+            }
+            setContextValue(context, "src-dir", (source.getParent() == null) ? "." : source
+                    .getParent().toString());
+            setContextValue(context, "base", base);
+
+            logger.info("Starting run for '{}'.", source);
+            SnapshotWriter writer = new SnapshotWriter("snapshot-writer-" + base);
+            SnapshotWriter outer = SnapshotWriter.setCurrent(writer);
+            boolean closed = false;
+            try {
+                for (PipelineOperation<Document, Document> step : newSteps()) {
+                    in = step.doStep(in);
+                }
+                closed = true;
+                writer.close();
+            } finally {
+                SnapshotWriter.setCurrent(outer);
+                if (!closed) {
+                    closeQuietly(writer);
+                }
+            }
+            return Files.size(source);
+        }
+
+        // The run has already failed, so a snapshot failure is only logged
+
+        private void closeQuietly(SnapshotWriter writer) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.error("Snapshot not written: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void setContextValue(Element context, String name, String value) {
+            Elements old = context.getChildElements(name);
+            for (int idx = 0; idx < old.size(); idx++) {
+                context.removeChild(old.get(idx));
+            }
+            Element e = new Element(name);
+            e.appendChild(value);
+            context.appendChild(e);
+        }
+    }
+}
@@ -13,7 +13,6 @@ import nu.xom.Attribute;
 import nu.xom.Document;
 import nu.xom.Element;
 import nu.xom.Elements;
-import nu.xom.Nodes;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +31,11 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
  * sensor sequences are captured at run-time, and parameter sequences are generated during post
  * processing.
  * 
+ * All the parameters are evaluated together in one pass over the scans. The values of each field
+ * are parsed once per scan, keys are interned to group ids, and each parameter keeps primitive
+ * accumulators per group. The functions are those of {@link AggregateFunction}: COUNT, SUM, MIN,
+ * MAX, AVG, MEDIAN, STDDEV, FIRST and LAST. A group with no values in a scan gets the value 0.
+ * 
  * @author Doug Johnson, Nov 18, 2014
  * 
  */
@@ -85,165 +89,445 @@ public class BuildParameters implements PipelineOperation<Document, Document> {
 
         // How many scans?
 
-        Nodes scanNodes = scanSequenceElement.query("scan");
-        logger.debug("scan count: {}", scanNodes.size());
+        Elements scanElements = scanSequenceElement.getChildElements("scan");
+        int scanCount = scanElements.size();
+        logger.debug("scan count: {}", scanCount);
 
-        // Repeat the following steps in order for each requested parameter
+        // 1. Set up the fields, the key groups and one aggregation for each requested parameter.
+        // Parameters that use the same field or the same key share them.
 
+        Map<String, FieldValues> fields = new HashMap<>();
+        Map<String, GroupIndex> groupIndexes = new HashMap<>();
+        List<Aggregation> aggregations = new ArrayList<>(parameterDefinitions.size());
         for (ParameterFunction param : parameterDefinitions) {
+            FieldValues values = getFieldValues(fields, param.getXArgument());
+            GroupIndex groups = null;
+            if (param.getKeyFieldName() != null) {
+                groups = groupIndexes.get(param.getKeyFieldName());
+                if (groups == null) {
+                    groups = new GroupIndex(getFieldValues(fields, param.getKeyFieldName()));
+                    groupIndexes.put(param.getKeyFieldName(), groups);
+                }
+            }
+            Aggregation agg = new Aggregation(param, values, groups, scanCount);
+            if (agg.function == null) {
+                logger.warn("Parameter '{}': unknown function '{}'.", param.getName(),
+                        param.getXFunction());
+            } else if (agg.function.isNumeric()) {
+                values.numeric = true;
+            }
+            aggregations.add(agg);
+        }
 
-            // Prepare for single vs multi-value parameter
-
-            Set<String> groupKeys;
-            if (param.getKeyFieldName() == null) {
-                groupKeys = new HashSet<>(1);
-                groupKeys.add("");
-            } else {
+        // 2. Visit each scan once. Collect the values of the fields we need, assign each value
+        // to its key group, then let every parameter accumulate its groups.
 
-                // collect all the primary key value nodes in the scan data
+        for (int scanIndex = 0; scanIndex < scanCount; scanIndex++) {
+            Element scanElement = scanElements.get(scanIndex);
+            for (FieldValues fv : fields.values()) {
+                fv.clear();
+            }
+            Elements fieldElements = scanElement.getChildElements("scan-values");
+            for (int fieldIndex = 0; fieldIndex < fieldElements.size(); fieldIndex++) {
+                Element fieldElement = fieldElements.get(fieldIndex);
+                FieldValues fv = fields.get(fieldElement.getAttributeValue("field"));
+                if (fv != null) {
+                    Elements valueElements = fieldElement.getChildElements("value");
+                    for (int valueIndex = 0; valueIndex < valueElements.size(); valueIndex++) {
+                        fv.add(valueElements.get(valueIndex).getValue());
+                    }
+                }
+            }
+            String ordinal = scanElement.getAttributeValue("ordinal");
+            if (ordinal == null) {
+                ordinal = "??";
+            }
+            for (FieldValues fv : fields.values()) {
+                fv.parse(ordinal);
+            }
+            for (GroupIndex gi : groupIndexes.values()) {
+                gi.assign();
+            }
+            for (Aggregation agg : aggregations) {
+                agg.accumulate(scanIndex, ordinal);
+            }
+        }
 
-                Nodes result = scanSequenceElement.query("scan/scan-values[@field='"
-                        + param.getKeyFieldName() + "']/value");
-                logger.debug("Total primary key ({}) occurences: {}", param.getKeyFieldName(),
-                        result.size());
+        // 3. Create and attach a twig for each parameter
 
-                // and eliminate the duplicates
+        for (Aggregation agg : aggregations) {
+            ParameterFunction param = agg.param;
+            Element parameterElement = new Element("parameter");
+            parameterElement.addAttribute(new Attribute("name", param.getName()));
+            if (param.getKeyFieldName() != null) {
+                parameterElement.addAttribute(new Attribute("by", param.getKeyFieldName()));
+                logger.debug("Unique primary key values: {}", agg.groups.keys.size());
+            }
 
-                groupKeys = new HashSet<>();
-                for (int idx = 0; idx < result.size(); idx++) {
-                    String id = result.get(idx).getValue();
-                    groupKeys.add(id);
+            for (String key : agg.getKeyOrder()) {
+                Element valueContainer = new Element("sensor-values");
+                if (!key.isEmpty()) {
+                    valueContainer.addAttribute(new Attribute("key", key));
+                }
+                String[] sensorValues = agg.getResults(key);
+                for (int scanIndex = 0; scanIndex < sensorValues.length; scanIndex++) {
+                    Element ve = new Element("value");
+                    ve.appendChild(sensorValues[scanIndex]);
+                    valueContainer.appendChild(ve);
                 }
+                parameterElement.appendChild(valueContainer);
             }
-            logger.debug("Unique primary key values: {}", groupKeys.size());
 
-            // Prepare the (key_count) x (scan_count) Map matrix
+            // attach the new sensor twig to the sensor-sequence branch
 
-            Map<String, String[]> matrix = new HashMap<>(groupKeys.size());
+            sensorSequenceElement.appendChild(parameterElement);
+        }
+        return in;
+    }
 
-            // For each key value, put a "0"-filled value array in the matrix
+    private FieldValues getFieldValues(Map<String, FieldValues> fields, String name) {
+        FieldValues fv = fields.get(name);
+        if (fv == null) {
+            fv = new FieldValues(name);
+            fields.put(name, fv);
+        }
+        return fv;
+    }
 
-            for (String aKey : groupKeys) {
-                String[] vals = new String[scanNodes.size()];
-                Arrays.fill(vals, "0");
-                matrix.put(aKey, vals);
-            }
+    /**
+     * The values of one field in the current scan, as text and, if any parameter needs them, as
+     * numbers. The arrays are reused from scan to scan.
+     */
+    private static class FieldValues {
+        final String name;
+        boolean numeric = false;
 
-            // 3. Re-organize the values from each scan into groups, compute, then store a single
-            // value per
-            // group into the matrix
+        int size = 0;
+        String[] text = new String[16];
+        double[] numbers = new double[16];
+        boolean[] integral = new boolean[16];
 
-            for (int scanIndex = 0; scanIndex < scanNodes.size(); scanIndex++) {
+        FieldValues(String name) {
+            this.name = name;
+        }
 
-                // Get the data values from the scan
+        void clear() {
+            Arrays.fill(text, 0, size, null);
+            size = 0;
+        }
 
-                Nodes sensorValueNodes = scanNodes.get(scanIndex).query(
-                        "scan-values[@field='" + param.getXArgument() + "']/value");
-                logger.trace("sensor '{}' value count: {}", param.getName(),
-                        sensorValueNodes.size());
+        void add(String value) {
+            if (size == text.length) {
+                text = Arrays.copyOf(text, size * 2);
+                numbers = Arrays.copyOf(numbers, size * 2);
+                integral = Arrays.copyOf(integral, size * 2);
+            }
+            text[size++] = value;
+        }
 
-                // and group them as requested
+        // Integers are converted directly, anything else goes through Double.parseDouble
 
-                Map<String, List<String>> grouper = new HashMap<>(groupKeys.size());
-                if (param.getKeyFieldName() == null) { // put all values in the scan in one group
-                    List<String> valueList = new ArrayList<>(sensorValueNodes.size());
-                    for (int idx = 0; idx < sensorValueNodes.size(); idx++) {
-                        valueList.add(sensorValueNodes.get(idx).getValue());
+        void parse(String ordinal) throws PipelineOperationException {
+            if (!numeric) {
+                return;
+            }
+            for (int idx = 0; idx < size; idx++) {
+                String s = text[idx];
+                int len = s.length();
+                int pos = (len > 1 && (s.charAt(0) == '-' || s.charAt(0) == '+')) ? 1 : 0;
+                boolean isInteger = len > pos && len - pos <= 18;
+                long v = 0;
+                for (int p = pos; isInteger && p < len; p++) {
+                    char c = s.charAt(p);
+                    if (c < '0' || c > '9') {
+                        isInteger = false;
+                    } else {
+                        v = v * 10 + (c - '0');
                     }
-                    grouper.put("", valueList);
-                } else { // put values into several groups by their associated key value
-                    Nodes keyValueNodes = scanNodes.get(scanIndex).query(
-                            "scan-values[@field='" + param.getKeyFieldName() + "']/value");
-                    logger.trace("primary key count: {}", keyValueNodes.size());
-
-                    assert (keyValueNodes.size() == sensorValueNodes.size()) : "Each data value element must have an associated key value element.";
-
-                    for (int idx = 0; idx < sensorValueNodes.size(); idx++) {
-                        logger.trace("{} {} {}", idx, keyValueNodes.get(idx).getValue(),
-                                sensorValueNodes.get(idx).getValue());
-                        List<String> valueList = grouper.get(keyValueNodes.get(idx).getValue());
-                        if (valueList == null) {
-                            valueList = new ArrayList<>();
-                            grouper.put(keyValueNodes.get(idx).getValue(), valueList);
-                        }
-                        valueList.add(sensorValueNodes.get(idx).getValue());
+                }
+                if (isInteger) {
+                    numbers[idx] = (s.charAt(0) == '-') ? -v : v;
+                    integral[idx] = true;
+                } else {
+                    try {
+                        numbers[idx] = Double.parseDouble(s);
+                    } catch (NumberFormatException e) {
+                        throw new PipelineOperationException("Scan " + ordinal + ".  Value '" + s
+                                + "' of field '" + name + "' is not a number.");
                     }
-
+                    integral[idx] = false;
                 }
+            }
+        }
+    }
 
-                // Calculate the single value that represents each group then
-                // store it in the matrix that holds the function result for each group for
-                // each scan for this parameter
-
-                for (String grp : grouper.keySet()) {
-                    List<String> groupValueList = grouper.get(grp);
-
-                    // ------------
-                    // apply the requested function to generate a single value for this group for
-                    // this scan
-                    
-                    String theResultValue;                     
-                    String f =  param.getXFunction().toUpperCase();
-                   if (f.equals("COUNT")) {
-                       theResultValue = Integer.toString(groupValueList.size()); 
-                   } else if (f.equals("MAX")) {
-                       int mark = Integer.MIN_VALUE;
-                       for (String v : groupValueList) {
-                           int current = Integer.parseInt(v);
-                           mark = Math.max(mark,current);
-                       }
-                       theResultValue = Integer.toString(mark);
-                   } else if (f.equals("MIN")) {
-                       int mark = Integer.MAX_VALUE;
-                       for (String v : groupValueList) {
-                           int current = Integer.parseInt(v);
-                           mark = Math.min(mark,current);
-                       }
-                       theResultValue = Integer.toString(mark);
-                   } else if (f.equals("SUM")) {
-                       int total = 0;
-                       for (String v : groupValueList) {
-                           total += Integer.parseInt(v);
-                       }
-                       theResultValue = Integer.toString(total);
-                   } else {
-                       theResultValue = param.getXFunction() + "??";
-                   }
-                   // ------------
-
-                    String[] valueArray = matrix.get(grp);
-                    valueArray[scanIndex] = theResultValue;
+    /**
+     * Interned group ids for the values of one key field. Ids are assigned in the order the keys
+     * are first seen, and the id of each key value in the current scan is kept in scanIds.
+     */
+    private static class GroupIndex {
+        final FieldValues keyValues;
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> keys = new ArrayList<>();
+        int[] scanIds = new int[16];
+
+        GroupIndex(FieldValues keyValues) {
+            this.keyValues = keyValues;
+        }
+
+        void assign() {
+            if (scanIds.length < keyValues.size) {
+                scanIds = new int[keyValues.text.length];
+            }
+            for (int idx = 0; idx < keyValues.size; idx++) {
+                String key = keyValues.text[idx];
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = keys.size();
+                    ids.put(key, id);
+                    keys.add(key);
                 }
+                scanIds[idx] = id;
             }
+        }
+    }
 
-            // create and attach a twig for this parameter
+    /**
+     * One parameter: its function, its per-group accumulators for the current scan, and the
+     * result of each group for every scan. The accumulator arrays are indexed by group id and only
+     * the groups touched in a scan are reset, so nothing is allocated per value.
+     */
+    private static class Aggregation {
+        final ParameterFunction param;
+        final AggregateFunction function;
+        final FieldValues values;
+        final GroupIndex groups;
+        final int scanCount;
+
+        // result[group][scan], "0" if the group had no values in the scan
+
+        final List<String[]> results = new ArrayList<>();
+
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        int[] count = new int[16];
+        double[] min = new double[16];
+        double[] max = new double[16];
+        double[] mean = new double[16];
+        double[] m2 = new double[16];
+        long[] longSum = new long[16];
+        double[] sum = new double[16];
+        boolean[] allIntegral = new boolean[16];
+        int[] first = new int[16];
+        int[] last = new int[16];
+
+        // Scratch space for MEDIAN: the values sorted into groups
+
+        int[] offset = new int[16];
+        double[] sorted = new double[16];
+
+        Aggregation(ParameterFunction param, FieldValues values, GroupIndex groups, int scanCount) {
+            this.param = param;
+            this.function = AggregateFunction.forName(param.getXFunction());
+            this.values = values;
+            this.groups = groups;
+            this.scanCount = scanCount;
+        }
 
-            Element parameterElement = new Element("parameter");
-            parameterElement.addAttribute(new Attribute("name", param.getName()));
-            if (param.getKeyFieldName() != null) {
-                parameterElement.addAttribute(new Attribute("by", param.getKeyFieldName()));
+        void accumulate(int scanIndex, String ordinal) throws PipelineOperationException {
+            int groupCount = (groups == null) ? 1 : groups.keys.size();
+            while (results.size() < groupCount) {
+                String[] vals = new String[scanCount];
+                Arrays.fill(vals, "0");
+                results.add(vals);
             }
+            ensureCapacity(groupCount);
 
-            for (String key : matrix.keySet()) {
-                Element valueContainer = new Element("sensor-values");
-                if (!key.isEmpty()) {
-                    valueContainer.addAttribute(new Attribute("key", key));
+            int n = values.size;
+            if (groups != null && n > groups.keyValues.size) {
+                throw new PipelineOperationException("Unexpected XML structure in scan " + ordinal
+                        + ".  More '" + values.name + "' values than '" + groups.keyValues.name
+                        + "' values.");
+            }
+
+            // A parameter without a key has one group, which is present even if it is empty
+
+            touchedCount = 0;
+            if (groups == null) {
+                touch(0);
+            }
+            for (int idx = 0; idx < n; idx++) {
+                int g = (groups == null) ? 0 : groups.scanIds[idx];
+                if (count[g] == 0 && groups != null) {
+                    touch(g);
                 }
-                String[] sensorValues = matrix.get(key);
-                for (int scanIndex = 0; scanIndex < sensorValues.length; scanIndex++) {
-                    Element ve = new Element("value");
-                    ve.appendChild(sensorValues[scanIndex]);
-                    valueContainer.appendChild(ve);
+                add(g, idx);
+            }
+            if (function == AggregateFunction.MEDIAN) {
+                sortIntoGroups(n);
+            }
+            for (int t = 0; t < touchedCount; t++) {
+                int g = touched[t];
+                results.get(g)[scanIndex] = result(g);
+                count[g] = 0;
+            }
+        }
+
+        private void touch(int g) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            }
+            touched[touchedCount++] = g;
+            count[g] = 0;
+            min[g] = Double.POSITIVE_INFINITY;
+            max[g] = Double.NEGATIVE_INFINITY;
+            mean[g] = 0;
+            m2[g] = 0;
+            longSum[g] = 0;
+            sum[g] = 0;
+            allIntegral[g] = true;
+        }
+
+        private void add(int g, int idx) {
+            int c = ++count[g];
+            if (c == 1) {
+                first[g] = idx;
+            }
+            last[g] = idx;
+            if (function == null || !function.isNumeric()) {
+                return;
+            }
+            double v = values.numbers[idx];
+            allIntegral[g] &= values.integral[idx];
+            switch (function) {
+            case MIN:
+                min[g] = Math.min(min[g], v);
+                break;
+            case MAX:
+                max[g] = Math.max(max[g], v);
+                break;
+            case SUM:
+                sum[g] += v;
+                longSum[g] += (long) v;
+                break;
+            case AVG:
+            case STDDEV:
+                double delta = v - mean[g];
+                mean[g] += delta / c;
+                m2[g] += delta * (v - mean[g]);
+                break;
+            default:
+                break;
+            }
+        }
+
+        // Counting sort of this scan's values by group, then sort each group's slice
+
+        private void sortIntoGroups(int n) {
+            if (sorted.length < n) {
+                sorted = new double[values.numbers.length];
+            }
+            int next = 0;
+            for (int t = 0; t < touchedCount; t++) {
+                int g = touched[t];
+                offset[g] = next;
+                next += count[g];
+            }
+            for (int idx = 0; idx < n; idx++) {
+                int g = (groups == null) ? 0 : groups.scanIds[idx];
+                sorted[offset[g]++] = values.numbers[idx];
+            }
+            for (int t = 0; t < touchedCount; t++) {
+                int g = touched[t];
+                offset[g] -= count[g];
+                Arrays.sort(sorted, offset[g], offset[g] + count[g]);
+            }
+        }
+
+        private String result(int g) {
+            if (function == null) {
+                return param.getXFunction() + "??";
+            }
+            int c = count[g];
+            if (c == 0 && function != AggregateFunction.COUNT) {
+                return "0";
+            }
+            switch (function) {
+            case COUNT:
+                return Integer.toString(c);
+            case SUM:
+                return allIntegral[g] ? Long.toString(longSum[g]) : Double.toString(sum[g]);
+            case MIN:
+                return format(min[g], allIntegral[g]);
+            case MAX:
+                return format(max[g], allIntegral[g]);
+            case AVG:
+                return Double.toString(mean[g]);
+            case STDDEV:
+                return Double.toString(Math.sqrt(m2[g] / c));
+            case MEDIAN:
+                int mid = offset[g] + c / 2;
+                if ((c & 1) == 1) {
+                    return format(sorted[mid], allIntegral[g]);
                 }
-                parameterElement.appendChild(valueContainer);
+                double median = (sorted[mid - 1] + sorted[mid]) / 2;
+                return format(median, allIntegral[g] && median == Math.rint(median));
+            case FIRST:
+                return values.text[first[g]];
+            case LAST:
+                return values.text[last[g]];
+            default:
+                return param.getXFunction() + "??";
             }
+        }
 
-            // attach the new sensor twig to the sensor-sequence branch
+        private static String format(double v, boolean integral) {
+            return integral ? Long.toString((long) v) : Double.toString(v);
+        }
 
-            sensorSequenceElement.appendChild(parameterElement);
+        private void ensureCapacity(int groupCount) {
+            if (count.length >= groupCount) {
+                return;
+            }
+            int capacity = Math.max(groupCount, count.length * 2);
+            count = Arrays.copyOf(count, capacity);
+            min = Arrays.copyOf(min, capacity);
+            max = Arrays.copyOf(max, capacity);
+            mean = Arrays.copyOf(mean, capacity);
+            m2 = Arrays.copyOf(m2, capacity);
+            longSum = Arrays.copyOf(longSum, capacity);
+            sum = Arrays.copyOf(sum, capacity);
+            allIntegral = Arrays.copyOf(allIntegral, capacity);
+            first = Arrays.copyOf(first, capacity);
+            last = Arrays.copyOf(last, capacity);
+            offset = Arrays.copyOf(offset, capacity);
+        }
+
+        // The groups are written in the iteration order of a HashMap filled from a HashSet of the
+        // keys, which is the order this branch has always been written in.
 
+        List<String> getKeyOrder() {
+            if (groups == null) {
+                return Arrays.asList("");
+            }
+            Set<String> keySet = new HashSet<>();
+            keySet.addAll(groups.keys);
+            Map<String, Boolean> keyMap = new HashMap<>(keySet.size());
+            for (String key : keySet) {
+                keyMap.put(key, Boolean.TRUE);
+            }
+            return new ArrayList<>(keyMap.keySet());
+        }
+
+        String[] getResults(String key) {
+            int g = (groups == null) ? 0 : groups.ids.get(key);
+            while (results.size() <= g) {
+                String[] vals = new String[scanCount];
+                Arrays.fill(vals, "0");
+                results.add(vals);
+            }
+            return results.get(g);
         }
-        return in;
     }
 }
 
@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -14,7 +13,6 @@ import nu.xom.Attribute;
 import nu.xom.Document;
 import nu.xom.Element;
 import nu.xom.Elements;
-import nu.xom.Nodes;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +27,10 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
  * sequence branch. Capture scan data is structured scan by scan, whereas sensor data is structured
  * sensor by sensor.
  * 
+ * The scan sequence is collated in a single pass. Each scan is visited once, its scan-values are
+ * indexed by field name, and the key, timetag and every requested sensor are filled in from that
+ * one visit.
+ * 
  * @author Doug Johnson, Nov 14, 2014
  * 
  */
@@ -88,42 +90,110 @@ public class BuildSensorBranch implements PipelineOperation<Document, Document>
 
         // How many scans?
 
-        Nodes scanNodes = scanSequenceElement.query("scan");
-        logger.debug("scan count: {}", scanNodes.size());
-
-        // How many distinct key values for use with 'by' sorting?
-        // Collect all the primary key value nodes in the scan data
+        Elements scanElements = scanSequenceElement.getChildElements("scan");
+        int scanCount = scanElements.size();
+        logger.debug("scan count: {}", scanCount);
+
+        // 1. Index the fields we need. Each one fills one or more slots: the primary key, the
+        // timetag, and one slot per sensor.
+
+        int sensorCount = sensorNames.size();
+        List<String> slotFields = new ArrayList<>(sensorCount + 2);
+        slotFields.add(primaryKeyName);
+        slotFields.add("timetag");
+        slotFields.addAll(sensorNames);
+        Map<String, List<Integer>> slotsByField = new HashMap<>();
+        List<List<String>> slotValues = new ArrayList<>(slotFields.size());
+        for (int slot = 0; slot < slotFields.size(); slot++) {
+            List<Integer> slots = slotsByField.get(slotFields.get(slot));
+            if (slots == null) {
+                slots = new ArrayList<>(1);
+                slotsByField.put(slotFields.get(slot), slots);
+            }
+            slots.add(slot);
+            slotValues.add(new ArrayList<String>());
+        }
 
-        Set<String> keySet;
-        Nodes result = scanSequenceElement.query("scan/scan-values[@field='" + primaryKeyName
-                + "']/value");
-        logger.debug("Total primary key ({}) occurences: {}", primaryKeyName, result.size());
+        // 2. Visit each scan once, collect the values of the indexed fields and store them in the
+        // (key_count) x (sensor_count) x (scan_count) matrix. A key gets "0"-filled sensor value
+        // arrays the first time it is seen.
 
-        // and eliminate the duplicates
+        String[] timeValues = new String[scanCount];
+        Map<String, String[][]> matrix = new HashMap<>();
+        List<String> keysInOrder = new ArrayList<>();
+        int keyOccurrences = 0;
 
-        keySet = new HashSet<>(result.size());
-        for (int idx = 0; idx < result.size(); idx++) {
-            String id = result.get(idx).getValue();
-            keySet.add(id);
-        }
-        logger.debug("Unique primary key values: {}", keySet.size());
+        for (int scanIndex = 0; scanIndex < scanCount; scanIndex++) {
+            Element scanElement = scanElements.get(scanIndex);
+            for (List<String> values : slotValues) {
+                values.clear();
+            }
+            Elements fieldElements = scanElement.getChildElements("scan-values");
+            for (int fieldIndex = 0; fieldIndex < fieldElements.size(); fieldIndex++) {
+                Element fieldElement = fieldElements.get(fieldIndex);
+                List<Integer> slots = slotsByField.get(fieldElement.getAttributeValue("field"));
+                if (slots == null) {
+                    continue;
+                }
+                Elements valueElements = fieldElement.getChildElements("value");
+                for (int valueIndex = 0; valueIndex < valueElements.size(); valueIndex++) {
+                    String value = valueElements.get(valueIndex).getValue();
+                    for (int slot : slots) {
+                        slotValues.get(slot).add(value);
+                    }
+                }
+            }
 
-        // For the timetag data, create a String value array and fill it in
+            // the timetag
 
-        String[] timeValues = new String[scanNodes.size()];
-        for (int idx = 0; idx < scanNodes.size(); idx++) {
-            Nodes timeValueNodes = scanNodes.get(idx).query("scan-values[@field='timetag']/value");
-            if ((timeValueNodes.size() != 1)) {
-                String ordinal = ((Element) (scanNodes.get(idx))).getAttributeValue("ordinal");
+            List<String> timeValueList = slotValues.get(1);
+            if (timeValueList.size() != 1) {
+                String ordinal = scanElement.getAttributeValue("ordinal");
                 if (ordinal == null) {
                     ordinal = "??";
                 }
                 throw new PipelineOperationException("Unexpected XML structure in scan " + ordinal
                         + ".  One and only one timetag value element allowed.");
-            } else {
-                timeValues[idx] = timeValueNodes.get(0).getValue();
+            }
+            timeValues[scanIndex] = timeValueList.get(0);
+
+            // the primary key values
+
+            List<String> keyValues = slotValues.get(0);
+            logger.trace("primary key count: {}", keyValues.size());
+            keyOccurrences += keyValues.size();
+            for (String key : keyValues) {
+                if (!matrix.containsKey(key)) {
+                    String[][] sensorArrays = new String[sensorCount][scanCount];
+                    for (String[] vals : sensorArrays) {
+                        Arrays.fill(vals, "0");
+                    }
+                    matrix.put(key, sensorArrays);
+                    keysInOrder.add(key);
+                }
+            }
+
+            // and the sensor values, organized by key
+
+            for (int sensorIndex = 0; sensorIndex < sensorCount; sensorIndex++) {
+                List<String> sensorValues = slotValues.get(sensorIndex + 2);
+                logger.trace("sensor '{}' value count: {}", sensorNames.get(sensorIndex),
+                        sensorValues.size());
+                if (sensorValues.size() > keyValues.size()) {
+                    String ordinal = scanElement.getAttributeValue("ordinal");
+                    throw new PipelineOperationException("Unexpected XML structure in scan "
+                            + ((ordinal == null) ? "??" : ordinal) + ".  More '"
+                            + sensorNames.get(sensorIndex) + "' values than '" + primaryKeyName
+                            + "' values.");
+                }
+                for (int valueIndex = 0; valueIndex < sensorValues.size(); valueIndex++) {
+                    matrix.get(keyValues.get(valueIndex))[sensorIndex][scanIndex] = sensorValues
+                            .get(valueIndex);
+                }
             }
         }
+        logger.debug("Total primary key ({}) occurences: {}", primaryKeyName, keyOccurrences);
+        logger.debug("Unique primary key values: {}", matrix.size());
 
         // create and attach the sensor twig for timetag
 
@@ -139,65 +209,18 @@ public class BuildSensorBranch implements PipelineOperation<Document, Document>
         sensorElement.appendChild(valueContainer);
         sensorSequenceElement.appendChild(sensorElement);
 
-        // Repeat the following steps for each requested sensor
-
-        // 2. Prepare the empty data structures to receive the collated data
-
-        for (String sensorName : sensorNames) {
-
-            // Prepare the (scan_count) x (key_count) Map matrix
-
-            Map<String, String[]> matrix = new HashMap<>(keySet.size());
-
-            // For each primary key value, put a "0"-filled sensor value array in the matrix
-
-            Iterator<String> iter = keySet.iterator();
-            while (iter.hasNext()) {
-                String[] vals = new String[scanNodes.size()];
-                Arrays.fill(vals, "0");
-                matrix.put(iter.next(), vals);
-            }
-
-            // 3. Re-organize the values from the scan element groups into the sensor arrays in the
-            // map
-
-            for (int scanIndex = 0; scanIndex < scanNodes.size(); scanIndex++) {
-
-                // Store data values from the scan into the arrays in the matrix ...
-
-                Nodes sensorValueNodes = scanNodes.get(scanIndex).query(
-                        "scan-values[@field='" + sensorName + "']/value");
-                logger.trace("sensor '{}' value count: {}", sensorName, sensorValueNodes.size());
-                
-                // ... organized by key
-
-                Nodes keyValueNodes = scanNodes.get(scanIndex).query(
-                        "scan-values[@field='" + primaryKeyName + "']/value");
-                logger.trace("primary key count: {}", keyValueNodes.size());
-
-                assert (keyValueNodes.size() == sensorValueNodes.size()) : "key count and value count must be equal.";
-
-                for (int sensorIndex = 0; sensorIndex < sensorValueNodes.size(); sensorIndex++) {
-                    logger.trace("{} {} {}", sensorIndex,
-                            keyValueNodes.get(sensorIndex).getValue(),
-                            sensorValueNodes.get(sensorIndex).getValue());
-                    String[] valueArray = matrix.get(keyValueNodes.get(sensorIndex).getValue());
-                    valueArray[scanIndex] = sensorValueNodes.get(sensorIndex).getValue();
-                }
-            }
-
-            // 4. Model the new data structures in an XML tree branch.
-
-            // create and attach a twig for this sensor
+        // 3. Model the new data structures in an XML tree branch, one twig per sensor.
 
+        List<String> keyOrder = getKeyOrder(keysInOrder, keyOccurrences);
+        for (int sensorIndex = 0; sensorIndex < sensorCount; sensorIndex++) {
             sensorElement = new Element("sensor");
-            sensorElement.addAttribute(new Attribute("name", sensorName));
+            sensorElement.addAttribute(new Attribute("name", sensorNames.get(sensorIndex)));
             sensorElement.addAttribute(new Attribute("by", primaryKeyName));
 
-            for (String key : matrix.keySet()) {
+            for (String key : keyOrder) {
                 valueContainer = new Element("sensor-values");
                 valueContainer.addAttribute(new Attribute("key", key.replace(':', '-')));
-                String[] sensorValues = matrix.get(key);
+                String[] sensorValues = matrix.get(key)[sensorIndex];
                 for (int scanIndex = 0; scanIndex < sensorValues.length; scanIndex++) {
                     Element ve = new Element("value");
                     ve.appendChild(sensorValues[scanIndex]);
@@ -211,10 +234,23 @@ public class BuildSensorBranch implements PipelineOperation<Document, Document>
             sensorSequenceElement.appendChild(sensorElement);
         }
 
-        // 5. Add the new sensor-sequence branch to the existing XML tree
+        // 4. Add the new sensor-sequence branch to the existing XML tree
 
         in.getRootElement().appendChild(sensorSequenceElement);
         return in;
     }
 
+    // The sensor-values of each sensor are written in the iteration order of a HashMap filled from
+    // a HashSet of all the key occurrences. That is the order this branch has always been written
+    // in, and keeping it means the files saved downstream don't change.
+
+    private List<String> getKeyOrder(List<String> keysInOrder, int keyOccurrences) {
+        Set<String> keySet = new HashSet<>(keyOccurrences);
+        keySet.addAll(keysInOrder);
+        Map<String, Boolean> keyMap = new HashMap<>(keySet.size());
+        for (String key : keySet) {
+            keyMap.put(key, Boolean.TRUE);
+        }
+        return new ArrayList<>(keyMap.keySet());
+    }
 }
@@ -0,0 +1,420 @@
+package ws.finson.wifix.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import nu.xom.Builder;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.Nodes;
+import nu.xom.ParsingException;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.cfg.ApplicationComponent;
+import ws.tuxi.lib.cfg.ConfigurationException;
+import ws.tuxi.lib.pipeline.PipelineOperation;
+import ws.tuxi.lib.pipeline.PipelineOperationException;
+
+/**
+ * This CachedSteps class runs a sequence of nested pipeline steps and keeps the Document produced
+ * by each one in an on-disk cache, so that when the pipeline is run again the steps whose input
+ * and configuration have not changed load their old output instead of doing the work again.
+ *
+ * <pre>
+ * &lt;step type="CachedSteps"&gt;
+ *   &lt;dir&gt;cache&lt;/dir&gt;
+ *   &lt;max-size&gt;512&lt;/max-size&gt;
+ *   &lt;step type="ImportCaptureScans"&gt;...&lt;/step&gt;
+ *   &lt;step type="BuildSensorBranch"&gt;...&lt;/step&gt;
+ *   &lt;step type="SaveXMLDocumentToSink" cache="false"&gt;...&lt;/step&gt;
+ * &lt;/step&gt;
+ * </pre>
+ *
+ * The key of a step's output is a SHA-256 hash of the key of its input, the step's configuration
+ * Element, and the size and modification time of every file named by a file element anywhere in
+ * that configuration, including the file elements of steps nested in it. The key of the first
+ * input is a hash of the Document itself. Because keys are
+ * chained, a change to one step's configuration or files also changes the keys of all the steps
+ * after it. Each key is also salted with the version of the cache format and a hash of the class
+ * file of the step, so a rebuilt or upgraded step does not reuse the entries of the old one.
+ *
+ * A cached output is only read when it is needed: when the next step has to run, or when it is the
+ * output of the last step. A fully cached prefix of N steps costs one load, not N. The context
+ * branch of each entry is kept beside it in a small XML file, so the keys of the following steps
+ * can be found without loading the entry.
+ *
+ * Steps marked cache="false" are always run. Steps that write files (SaveXMLDocumentToSink,
+ * ExportTableToCSV, etc) should be marked this way, because a step that is loaded from the cache
+ * has no side effects. So should steps whose output depends on something the key cannot see. The
+ * output of a step that is always run is hashed like the first input, and the keys of the steps
+ * after it are chained from that hash, so a change in what it returns is never hidden by the
+ * entries of later steps.
+ *
+ * Entries are stored in the {@link CompactDocumentFormat}. After each new entry is stored, the
+ * least recently used entries are deleted until the cache is no bigger than max-size megabytes.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class CachedSteps implements PipelineOperation<Document, Document> {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final String ENTRY_EXTENSION = CompactDocumentFormat.EXTENSION;
+    private static final String CONTEXT_EXTENSION = ".ctx";
+
+    // Change this when the way keys are made or entries are stored changes
+
+    private static final int KEY_VERSION = 3;
+
+    private final List<Element> stepElements = new ArrayList<>();
+    private final List<PipelineOperation<Document, Document>> steps = new ArrayList<>();
+    private final List<Boolean> cacheable = new ArrayList<>();
+    private final List<byte[]> stepSalts = new ArrayList<>();
+    private boolean enabled = true;
+    private Path cacheDir = Paths.get("cache");
+    private long maxBytes = 512L * 1024 * 1024;
+
+    /**
+     * @param ac
+     *            the containing ApplicationComponent
+     * @param cE
+     *            the Element from the config file that defines this object
+     * @ws.tuxi.element step - a pipeline step, in the usual form. Add the attribute cache="false"
+     *                  to always run it.
+     * @ws.tuxi.element dir - the cache directory. Default "cache".
+     * @ws.tuxi.element max-size - the most the cache may hold, in megabytes. Default 512.
+     * @ws.tuxi.element enabled - "false" to run the steps without using the cache. Default true.
+     * @throws IOException
+     * @throws ConfigurationException
+     */
+    @SuppressWarnings("unchecked")
+    public CachedSteps(ApplicationComponent ac, Element cE) throws IOException,
+            ConfigurationException {
+
+        // Process each of the configuration sections
+
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            logger.debug("Begin section element <{}>", sectionElement.getLocalName());
+            if ("step".equals(sectionElement.getLocalName())) {
+                if (sectionElement.getAttributeValue("type") == null) {
+                    throw new ConfigurationException("Nested <step> elements must have a type.");
+                }
+                stepElements.add(sectionElement);
+                cacheable.add(!"false".equals(sectionElement.getAttributeValue("cache")));
+                steps.add(ac
+                        .getApplication()
+                        .getConfig()
+                        .getInstanceUsingFactory(PipelineOperation.class, sectionElement,
+                                new Object[] { ac, sectionElement }));
+                stepSalts.add(saltOf(steps.get(steps.size() - 1).getClass()));
+            } else if ("dir".equals(sectionElement.getLocalName())) {
+                cacheDir = Paths.get(sectionElement.getValue().trim());
+            } else if ("max-size".equals(sectionElement.getLocalName())) {
+                try {
+                    maxBytes = Long.parseLong(sectionElement.getValue().trim()) * 1024 * 1024;
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException("Cache max-size must be a number of megabytes.");
+                }
+            } else if ("enabled".equals(sectionElement.getLocalName())) {
+                enabled = Boolean.parseBoolean(sectionElement.getValue().trim());
+            } else {
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+            }
+        }
+        if (steps.isEmpty()) {
+            throw new ConfigurationException("At least one step element must be specified.");
+        }
+    }
+
+    /**
+     * @see ws.tuxi.lib.pipeline.PipelineOperation#doStep(java.lang.Object)
+     */
+    @Override
+    public Document doStep(Document in) throws PipelineOperationException {
+        if (!enabled) {
+            for (PipelineOperation<Document, Document> step : steps) {
+                in = step.doStep(in);
+            }
+            return in;
+        }
+
+        // doc is the input of step docIndex. A run of cache hits after it is only noted in
+        // pending, and the last of them is loaded when a step has to run or at the end.
+
+        Document doc = in;
+        int docIndex = 0;
+        Path pending = null;
+        int pendingIndex = -1;
+        byte[][] keys = new byte[steps.size()][];
+        try {
+            Files.createDirectories(cacheDir);
+            byte[] key = hashDocument(in);
+            Element context = copyContext(in);
+            for (int idx = 0; idx < steps.size(); idx++) {
+                Element stepElement = stepElements.get(idx);
+                key = hashStep(key, idx, context);
+                keys[idx] = key;
+                String stepName = stepElement.getAttributeValue("type");
+                Path entry = cacheable.get(idx) ? cacheDir.resolve(toHex(key) + ENTRY_EXTENSION)
+                        : null;
+                if (entry != null) {
+                    Element cachedContext = loadContext(entry);
+                    if (cachedContext != null) {
+                        logger.info("{} output found in cache.", stepName);
+                        pending = entry;
+                        pendingIndex = idx;
+                        context = cachedContext.getFirstChildElement("context");
+                        continue;
+                    }
+                }
+                if (pending != null) {
+                    doc = loadPending(pending, doc, docIndex, pendingIndex, keys);
+                    pending = null;
+                }
+                doc = steps.get(idx).doStep(doc);
+                docIndex = idx + 1;
+                if (entry != null) {
+                    store(entry, doc);
+                } else if (idx + 1 < steps.size()) {
+                    key = hashDocument(doc);
+                }
+                context = copyContext(doc);
+            }
+            if (pending != null) {
+                doc = loadPending(pending, doc, docIndex, pendingIndex, keys);
+            }
+        } catch (IOException e) {
+            throw new PipelineOperationException(e);
+        }
+        return doc;
+    }
+
+    // Load the output of step pendingIndex from its cache entry. If the entry can no longer be
+    // read, run the steps from docIndex to pendingIndex again instead. They were all cache hits,
+    // so each of them is cacheable and its output is stored again.
+
+    private Document loadPending(Path pending, Document doc, int docIndex, int pendingIndex,
+            byte[][] keys) throws IOException, PipelineOperationException {
+        Document cached = load(pending);
+        if (cached != null) {
+            return cached;
+        }
+        for (int idx = docIndex; idx <= pendingIndex; idx++) {
+            doc = steps.get(idx).doStep(doc);
+            store(cacheDir.resolve(toHex(keys[idx]) + ENTRY_EXTENSION), doc);
+        }
+        return doc;
+    }
+
+    private Document load(Path entry) {
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try {
+            Document cached = CompactDocumentFormat.read(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return cached;
+        } catch (IOException e) {
+            logger.warn("Discarding unreadable cache entry '{}'.  {}", entry, e.getMessage());
+            discard(entry);
+            return null;
+        }
+    }
+
+    // The context branch saved with an entry, wrapped in a cached-context Element, or null if
+    // there is no usable entry. Finding it marks the entry as used.
+
+    private Element loadContext(Path entry) {
+        Path contextPath = contextPathOf(entry);
+        if (!Files.isRegularFile(entry) || !Files.isRegularFile(contextPath)) {
+            return null;
+        }
+        try {
+            Element cachedContext = new Builder().build(contextPath.toFile()).getRootElement();
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return cachedContext;
+        } catch (IOException | ParsingException e) {
+            logger.warn("Discarding unreadable cache entry '{}'.  {}", entry, e.getMessage());
+            discard(entry);
+            return null;
+        }
+    }
+
+    private static Element copyContext(Document doc) {
+        Element twig = doc.getRootElement().getFirstChildElement("context");
+        return (twig == null) ? null : new Element(twig);
+    }
+
+    private static Path contextPathOf(Path entry) {
+        return entry.resolveSibling(entry.getFileName().toString() + CONTEXT_EXTENSION);
+    }
+
+    private static void discard(Path entry) {
+        try {
+            Files.deleteIfExists(entry);
+            Files.deleteIfExists(contextPathOf(entry));
+        } catch (IOException ignored) {
+            // it will be overwritten
+        }
+    }
+
+    // Write to a temporary file first so a partly written entry is never found
+
+    private void store(Path entry, Document out) throws IOException {
+        Element cachedContext = new Element("cached-context");
+        Element context = copyContext(out);
+        if (context != null) {
+            cachedContext.appendChild(context);
+        }
+        Path temp = Files.createTempFile(cacheDir, "entry", ".tmp");
+        try {
+            Files.write(temp, cachedContext.toXML().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, contextPathOf(entry), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            CompactDocumentFormat.write(out, temp);
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        evict();
+    }
+
+    // Delete the least recently used entries until the cache fits
+
+    private void evict() throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        final List<BasicFileAttributes> attributes = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(cacheDir, "*" + ENTRY_EXTENSION)) {
+            for (Path p : dir) {
+                BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+                entries.add(p);
+                attributes.add(a);
+                total += a.size();
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        List<Integer> order = new ArrayList<>(entries.size());
+        for (int idx = 0; idx < entries.size(); idx++) {
+            order.add(idx);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return attributes.get(a).lastModifiedTime().compareTo(
+                        attributes.get(b).lastModifiedTime());
+            }
+        });
+        for (int idx : order) {
+            if (total <= maxBytes) {
+                break;
+            }
+            logger.debug("Evicting cache entry '{}'.", entries.get(idx));
+            Files.deleteIfExists(entries.get(idx));
+            Files.deleteIfExists(contextPathOf(entries.get(idx)));
+            total -= attributes.get(idx).size();
+        }
+    }
+
+    private byte[] hashDocument(Document doc) throws IOException {
+        MessageDigest md = newDigest();
+        try (OutputStream out = new DigestOutputStream(new NullOutputStream(), md)) {
+            CompactDocumentFormat.write(doc, out, false);
+        }
+        return md.digest();
+    }
+
+    private byte[] hashStep(byte[] inputKey, int stepIndex, Element context) throws IOException {
+        Element stepElement = stepElements.get(stepIndex);
+        MessageDigest md = newDigest();
+        md.update(inputKey);
+        md.update(stepSalts.get(stepIndex));
+        md.update(stepElement.toXML().getBytes(StandardCharsets.UTF_8));
+
+        // The files the step may read, as far as its configuration says
+
+        Element globalContextElement = (context == null) ? null : new Element(context);
+        Nodes fileElements = stepElement.query("descendant::file");
+        for (int idx = 0; idx < fileElements.size(); idx++) {
+            Path p = new ConfiguredPathname((Element) fileElements.get(idx))
+                    .getSourcePath(globalContextElement);
+            md.update(p.toString().getBytes(StandardCharsets.UTF_8));
+            if (Files.isRegularFile(p)) {
+                BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+                md.update(Long.toString(a.size()).getBytes(StandardCharsets.UTF_8));
+                md.update(Long.toString(a.lastModifiedTime().toMillis()).getBytes(
+                        StandardCharsets.UTF_8));
+            }
+        }
+        return md.digest();
+    }
+
+    // A hash of the versions of the key and entry formats and of the code of the step class, so
+    // entries made by another version of this class or of the step are not used
+
+    private static byte[] saltOf(Class<?> stepClass) throws IOException {
+        MessageDigest md = newDigest();
+        md.update(("CachedSteps " + KEY_VERSION + " " + CompactDocumentFormat.VERSION + " "
+                + stepClass.getName()).getBytes(StandardCharsets.UTF_8));
+        String className = stepClass.getName();
+        String resource = className.substring(className.lastIndexOf('.') + 1) + ".class";
+        try (InputStream code = stepClass.getResourceAsStream(resource)) {
+            if (code != null) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = code.read(buffer)) > 0) {
+                    md.update(buffer, 0, n);
+                }
+            }
+        }
+        Package p = stepClass.getPackage();
+        if (p != null && p.getImplementationVersion() != null) {
+            md.update(p.getImplementationVersion().getBytes(StandardCharsets.UTF_8));
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
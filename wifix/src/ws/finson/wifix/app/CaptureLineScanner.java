@@ -0,0 +1,222 @@
+package ws.finson.wifix.app;
+
+/**
+ * This CaptureLineScanner class splits the lines of a raw data capture file into fields without
+ * using regular expressions. It is a hand-written equivalent of the patterns the record classes
+ * used to compile for each record, and it produces exactly the same fields as those patterns did.
+ *
+ * The WiFi table lines are the output of "airport -s". The SSID is right aligned and may contain
+ * spaces, so the scanner locates the fixed-format BSSID (six pairs of hex digits separated by
+ * colons) and splits around it: everything to the left is the SSID and the whitespace separated
+ * fields to the right are RSSI, CHANNEL, HT, CC and the first word of SECURITY. A secondary channel
+ * ("6,+1") is dropped from the CHANNEL field.
+ *
+ * All the methods are static and the class keeps no state, so it can be used from any thread.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public final class CaptureLineScanner {
+
+    private static final int BSSID_LENGTH = 17;
+
+    private CaptureLineScanner() {
+    }
+
+    /**
+     * @return true if the line is empty or contains nothing but whitespace
+     */
+    public static boolean isBlank(String line) {
+        return skipSpace(line, 0) == line.length();
+    }
+
+    /**
+     * @return true if the line is an end of record or end of scan marker ("---")
+     */
+    public static boolean isEndMarker(String line) {
+        return line.startsWith("---");
+    }
+
+    /**
+     * Check for a record or scan header line of the form "+++ Type [Word ...]".
+     *
+     * @return a two element array holding the type and the last of the following words (null if
+     *         there are none), or null if the line is not a header line
+     */
+    public static String[] parseHeader(String line) {
+        if (!line.startsWith("+++")) {
+            return null;
+        }
+        int len = line.length();
+        int pos = skipSpace(line, 3);
+        if (pos == 3) {
+            return null;
+        }
+        String type = null;
+        String lastWord = null;
+        while (pos < len) {
+            int end = skipWord(line, pos);
+            if (end == pos) {
+                return null;
+            }
+            if (type == null) {
+                type = line.substring(pos, end);
+            } else {
+                lastWord = line.substring(pos, end);
+            }
+            pos = skipSpace(line, end);
+            if (pos == end && pos < len) {
+                return null;
+            }
+        }
+        return (type == null) ? null : new String[] { type, lastWord };
+    }
+
+    /**
+     * @return true if the line says that IBSS (ad hoc) networks were found
+     */
+    public static boolean isIbssLine(String line) {
+        return line.contains("IBSS network found") || line.contains("IBSS networks found");
+    }
+
+    /**
+     * Split the label line at the top of a WiFi table. The line must start with at least seven
+     * words, the first six of which are returned.
+     *
+     * @return the first six labels, or null if the line is not a label line
+     */
+    public static String[] splitLabels(String line) {
+        String[] row = new String[6];
+        int pos = skipSpace(line, 0);
+        for (int idx = 0; idx < 7; idx++) {
+            if (idx > 0) {
+                int next = skipSpace(line, pos);
+                if (next == pos) {
+                    return null;
+                }
+                pos = next;
+            }
+            int end = skipWord(line, pos);
+            if (end == pos) {
+                return null;
+            }
+            if (idx < row.length) {
+                row[idx] = line.substring(pos, end);
+            }
+            pos = end;
+        }
+        return row;
+    }
+
+    /**
+     * Split one value line of a WiFi table into SSID, BSSID, RSSI, CHANNEL, HT and CC.
+     *
+     * @return the six fields, or null if the line is not a value line
+     */
+    public static String[] splitValues(String line) {
+        int last = line.length() - BSSID_LENGTH;
+        for (int start = 0; start <= last; start++) {
+            if (isBssidAt(line, start)) {
+                String[] row = splitAfterBssid(line, start + BSSID_LENGTH);
+                if (row != null) {
+                    row[0] = line.substring(0, start).trim();
+                    row[1] = line.substring(start, start + BSSID_LENGTH);
+                    return row;
+                }
+            }
+        }
+        return null;
+    }
+
+    // The fields that follow a BSSID that ends at the given position
+
+    private static String[] splitAfterBssid(String line, int pos) {
+        String[] row = new String[6];
+        for (int idx = 2; idx <= row.length; idx++) {
+            int start = skipSpace(line, pos);
+            if (start == pos) {
+                return null;
+            }
+            int end = (idx == 3) ? skipChannel(line, start) : skipNonSpace(line, start);
+            if (end == start) {
+                return null;
+            }
+
+            // The last field (the start of SECURITY) must be present, but it is not kept
+
+            if (idx < row.length) {
+                row[idx] = line.substring(start, end).trim();
+            }
+            pos = end;
+
+            // A secondary channel follows a comma and is dropped
+
+            if (idx == 3 && pos < line.length() && line.charAt(pos) == ',') {
+                end = skipNonSpace(line, pos + 1);
+                if (end == pos + 1) {
+                    return null;
+                }
+                pos = end;
+            }
+        }
+        return row;
+    }
+
+    private static int skipChannel(String line, int pos) {
+        while (pos < line.length() && !isSpace(line.charAt(pos)) && line.charAt(pos) != ',') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isBssidAt(String line, int start) {
+        for (int idx = 0; idx < BSSID_LENGTH; idx++) {
+            char c = line.charAt(start + idx);
+            if (idx % 3 == 2) {
+                if (c != ':') {
+                    return false;
+                }
+            } else if (!isHexDigit(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    // Whitespace and word characters are the ASCII sets used by \s and \w
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_';
+    }
+
+    private static int skipSpace(String line, int pos) {
+        while (pos < line.length() && isSpace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipNonSpace(String line, int pos) {
+        while (pos < line.length() && !isSpace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipWord(String line, int pos) {
+        while (pos < line.length() && isWordChar(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
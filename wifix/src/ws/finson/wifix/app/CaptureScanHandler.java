@@ -0,0 +1,42 @@
+package ws.finson.wifix.app;
+
+/**
+ * This CaptureScanHandler interface receives the contents of a raw data capture file as a
+ * sequence of parse events instead of as a list of {@link DAP_Scan} objects. The events for one
+ * scan are startScan(), then for each record in the scan one fieldNames() event followed by zero
+ * or more fieldRow() events, and finally endScan().
+ *
+ * The arrays passed to the handler are not reused by the caller and may be kept.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public interface CaptureScanHandler {
+
+    /**
+     * A new scan has started.
+     *
+     * @param ordinal
+     *            zero-based position of the scan in the capture file
+     */
+    void startScan(int ordinal);
+
+    /**
+     * A new record has started within the current scan.
+     *
+     * @param names
+     *            the names of the fields in this record
+     */
+    void fieldNames(String[] names);
+
+    /**
+     * One row of values for the current record, in the same order as the field names.
+     */
+    void fieldRow(String[] values);
+
+    /**
+     * The current scan is complete.
+     */
+    void endScan();
+}
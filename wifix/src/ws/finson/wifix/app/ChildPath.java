@@ -0,0 +1,210 @@
+package ws.finson.wifix.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.Nodes;
+
+/**
+ * This ChildPath class evaluates the simple relative paths that make up almost all of the paths
+ * in our configuration files by navigating directly from element to child element, instead of
+ * going through XPath. A simple path is a sequence of child element steps separated by '/', each
+ * with at most one predicate, optionally ending in an attribute step. For example:
+ *
+ * <pre>
+ * table/col[3]/value
+ * table/col[position()=4]/@name
+ * sensor-sequence/parameter[@name='power']/sensor-values[@key='1']/value
+ * </pre>
+ *
+ * The predicates understood are a position ([n] or [position()=n]) and an attribute value test
+ * ([@a='v'] or [@a="v"]). Element and attribute names must be unprefixed. Anything else is not a
+ * simple path and {@link #compile(String)} returns null for it, so the caller can fall back to
+ * XPath. The nodes selected are the same, in the same (document) order, as XPath would select.
+ *
+ * Columnar tables met along the path are materialized before their children are examined.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class ChildPath {
+
+    private final String path;
+    private final List<Step> steps;
+    private final String attributeName;
+
+    private ChildPath(String path, List<Step> steps, String attributeName) {
+        this.path = path;
+        this.steps = steps;
+        this.attributeName = attributeName;
+    }
+
+    /**
+     * @param path
+     *            a relative XPath expression
+     * @return the compiled path, or null if the expression is not a simple child path
+     */
+    public static ChildPath compile(String path) {
+        String[] segments = path.split("/", -1);
+        List<Step> steps = new ArrayList<>(segments.length);
+        String attributeName = null;
+        for (int idx = 0; idx < segments.length; idx++) {
+            String segment = segments[idx];
+            if (segment.startsWith("@")) {
+                if (idx != segments.length - 1 || idx == 0 || !isName(segment.substring(1))) {
+                    return null;
+                }
+                attributeName = segment.substring(1);
+            } else {
+                Step step = Step.parse(segment);
+                if (step == null) {
+                    return null;
+                }
+                steps.add(step);
+            }
+        }
+        return new ChildPath(path, steps, attributeName);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Select the nodes this path leads to.
+     *
+     * @param context
+     *            the element the path is relative to
+     * @return the selected elements or attributes, in document order
+     */
+    public Nodes evaluate(Element context) {
+        List<Element> current = new ArrayList<>(1);
+        current.add(context);
+        for (Step step : steps) {
+            List<Element> next = new ArrayList<>();
+            for (Element parent : current) {
+                step.select(parent, next);
+            }
+            current = next;
+        }
+        Nodes result = new Nodes();
+        for (Element e : current) {
+            if (attributeName == null) {
+                result.append(e);
+            } else {
+                Attribute a = e.getAttribute(attributeName);
+                if (a != null) {
+                    result.append(a);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Names are restricted to the usual ASCII name characters. Anything fancier goes to XPath.
+
+    private static boolean isName(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int idx = 0; idx < s.length(); idx++) {
+            char c = s.charAt(idx);
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+            boolean other = (c >= '0' && c <= '9') || c == '-' || c == '.';
+            if (!letter && !(other && idx > 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One child element step: a name and an optional position or attribute test.
+     */
+    private static class Step {
+        final String name;
+        final int position;
+        final String testAttribute;
+        final String testValue;
+
+        Step(String name, int position, String testAttribute, String testValue) {
+            this.name = name;
+            this.position = position;
+            this.testAttribute = testAttribute;
+            this.testValue = testValue;
+        }
+
+        static Step parse(String segment) {
+            int open = segment.indexOf('[');
+            if (open < 0) {
+                return isName(segment) ? new Step(segment, 0, null, null) : null;
+            }
+            String name = segment.substring(0, open);
+            if (!isName(name) || !segment.endsWith("]")) {
+                return null;
+            }
+            String predicate = segment.substring(open + 1, segment.length() - 1);
+            if (predicate.startsWith("position()=")) {
+                predicate = predicate.substring("position()=".length());
+            }
+            if (isDigits(predicate)) {
+                int position;
+                try {
+                    position = Integer.parseInt(predicate);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                return (position > 0) ? new Step(name, position, null, null) : null;
+            }
+            int eq = predicate.indexOf('=');
+            if (!predicate.startsWith("@") || eq < 0 || predicate.length() < eq + 3) {
+                return null;
+            }
+            String attribute = predicate.substring(1, eq);
+            char quote = predicate.charAt(eq + 1);
+            String literal = predicate.substring(eq + 2, predicate.length() - 1);
+            if (!isName(attribute) || (quote != '\'' && quote != '"')
+                    || predicate.charAt(predicate.length() - 1) != quote
+                    || literal.indexOf(quote) >= 0) {
+                return null;
+            }
+            return new Step(name, 0, attribute, literal);
+        }
+
+        void select(Element parent, List<Element> result) {
+            if (parent instanceof ColumnarTableElement) {
+                ((ColumnarTableElement) parent).materialize();
+            }
+            Elements children = parent.getChildElements(name);
+            if (position > 0) {
+                if (position <= children.size()) {
+                    result.add(children.get(position - 1));
+                }
+            } else {
+                for (int idx = 0; idx < children.size(); idx++) {
+                    Element child = children.get(idx);
+                    if (testAttribute == null
+                            || testValue.equals(child.getAttributeValue(testAttribute))) {
+                        result.add(child);
+                    }
+                }
+            }
+        }
+
+        private static boolean isDigits(String s) {
+            if (s.isEmpty()) {
+                return false;
+            }
+            for (int idx = 0; idx < s.length(); idx++) {
+                if (s.charAt(idx) < '0' || s.charAt(idx) > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
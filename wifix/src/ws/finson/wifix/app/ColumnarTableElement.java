@@ -0,0 +1,172 @@
+package ws.finson.wifix.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.Nodes;
+import nu.xom.ParentNode;
+
+/**
+ * This ColumnarTableElement class is a table Element in my XML "table" format whose col and value
+ * children have not been built yet. Instead, the values are kept in {@link TableColumn} arrays
+ * until some step actually needs the XML view.
+ *
+ * Steps that understand the columnar form (ImportCSVToTable, NormalizeTableValues,
+ * ExportTableToCSV) work on the columns directly. Anything that needs the XML view (XPath queries,
+ * XSLT, etc) must first call {@link #materialize()} or {@link #materializeAll(Node)}, which builds
+ * the col and value children in place and discards the columns. From then on the element is just
+ * an ordinary table Element.
+ *
+ * Copying an unmaterialized element (Node.copy(), Document copy constructor) shares the columns
+ * with the original, so columns must not be modified once the table has been built.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class ColumnarTableElement extends Element {
+
+    private TableColumn[] columns;
+
+    public ColumnarTableElement(List<TableColumn> columns) {
+        super("table");
+        this.columns = columns.toArray(new TableColumn[columns.size()]);
+    }
+
+    private ColumnarTableElement(TableColumn[] columns) {
+        super("table");
+        this.columns = (columns == null) ? null : Arrays.copyOf(columns, columns.length);
+    }
+
+    /**
+     * @return true if the col and value children have been built and the columns discarded
+     */
+    public boolean isMaterialized() {
+        return columns == null;
+    }
+
+    public int getColumnCount() {
+        assertColumnar();
+        return columns.length;
+    }
+
+    /**
+     * @param index
+     *            zero-based column index
+     */
+    public TableColumn getColumn(int index) {
+        assertColumnar();
+        return columns[index];
+    }
+
+    /**
+     * @return the first column with the given name, or null if there is none
+     */
+    public TableColumn getColumn(String name) {
+        assertColumnar();
+        for (TableColumn c : columns) {
+            if (c.getName().equals(name)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace one column with another of the same length. The replaced column is not changed, so
+     * copies of this table that share it are not affected.
+     */
+    public void setColumn(int index, TableColumn column) {
+        assertColumnar();
+        columns[index] = column;
+    }
+
+    /**
+     * Build one col Element with all its value children. The result has no parent and is not
+     * attached to this table.
+     */
+    public Element buildColumnElement(int index) {
+        assertColumnar();
+        TableColumn c = columns[index];
+        Element columnElement = new Element("col");
+        columnElement.addAttribute(new Attribute("name", c.getName()));
+        for (int row = 0; row < c.size(); row++) {
+            Element valueElement = new Element("value");
+            valueElement.appendChild(c.getString(row));
+            columnElement.appendChild(valueElement);
+        }
+        return columnElement;
+    }
+
+    /**
+     * Build the XML view of this table in place and discard the columns. Does nothing if the
+     * table is already materialized.
+     */
+    public void materialize() {
+        if (columns != null) {
+            for (int idx = 0; idx < columns.length; idx++) {
+                appendChild(buildColumnElement(idx));
+            }
+            columns = null;
+        }
+    }
+
+    /**
+     * Materialize every columnar table at or below the given node.
+     *
+     * @param subtree
+     *            a Document or Element
+     */
+    public static void materializeAll(Node subtree) {
+        for (ColumnarTableElement t : findAll(subtree)) {
+            t.materialize();
+        }
+    }
+
+    /**
+     * @return all the unmaterialized columnar tables at or below the given node, in document order
+     */
+    public static List<ColumnarTableElement> findAll(Node subtree) {
+        List<ColumnarTableElement> result = new ArrayList<>();
+        if (subtree instanceof ColumnarTableElement) {
+            if (!((ColumnarTableElement) subtree).isMaterialized()) {
+                result.add((ColumnarTableElement) subtree);
+            }
+        } else if (subtree instanceof ParentNode) {
+            Nodes tables = subtree.query("descendant::table");
+            for (int idx = 0; idx < tables.size(); idx++) {
+                Node n = tables.get(idx);
+                if (n instanceof ColumnarTableElement
+                        && !((ColumnarTableElement) n).isMaterialized()) {
+                    result.add((ColumnarTableElement) n);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies of an unmaterialized table share its columns. Copies of a materialized table are
+     * plain table Elements whose children are copied by XOM as usual.
+     *
+     * @see nu.xom.Element#shallowCopy()
+     */
+    @Override
+    protected Element shallowCopy() {
+        if (columns == null) {
+            return new Element(getQualifiedName(), getNamespaceURI());
+        }
+        return new ColumnarTableElement(columns);
+    }
+
+    private void assertColumnar() {
+        if (columns == null) {
+            throw new IllegalStateException(
+                    "Table has been materialized, column data is no longer available.");
+        }
+    }
+}
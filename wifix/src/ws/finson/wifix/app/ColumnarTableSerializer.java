@@ -0,0 +1,62 @@
+package ws.finson.wifix.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Serializer;
+
+/**
+ * This ColumnarTableSerializer class is a XOM Serializer that can write a
+ * {@link ColumnarTableElement} without materializing it in the tree being written. The col
+ * Elements are built one at a time, written, and then dropped, so the extra memory needed is never
+ * more than one column. The output is the same as if the table had been materialized first.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class ColumnarTableSerializer extends Serializer {
+
+    public ColumnarTableSerializer(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * @see nu.xom.Serializer#write(nu.xom.Element)
+     */
+    @Override
+    protected void write(Element element) throws IOException {
+        if (!(element instanceof ColumnarTableElement)
+                || ((ColumnarTableElement) element).isMaterialized()) {
+            super.write(element);
+            return;
+        }
+        ColumnarTableElement table = (ColumnarTableElement) element;
+
+        // A stand-in with the same name and attributes carries the start and end tags
+
+        Element shell = new Element(table.getQualifiedName(), table.getNamespaceURI());
+        for (int idx = 0; idx < table.getAttributeCount(); idx++) {
+            shell.addAttribute((Attribute) table.getAttribute(idx).copy());
+        }
+        if (table.getColumnCount() == 0) {
+            writeEmptyElementTag(shell);
+            return;
+        }
+
+        writeStartTag(shell);
+        Element previous = null;
+        for (int idx = 0; idx < table.getColumnCount(); idx++) {
+            Element columnElement = table.buildColumnElement(idx);
+            if (previous != null) {
+                previous.detach();
+            }
+            shell.appendChild(columnElement);
+            writeChild(columnElement);
+            previous = columnElement;
+        }
+        writeEndTag(shell);
+    }
+}
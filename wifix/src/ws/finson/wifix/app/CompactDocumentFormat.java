@@ -0,0 +1,479 @@
+package ws.finson.wifix.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import nu.xom.Attribute;
+import nu.xom.Comment;
+import nu.xom.DocType;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.ParentNode;
+import nu.xom.ProcessingInstruction;
+import nu.xom.Text;
+import nu.xom.XMLException;
+
+/**
+ * This CompactDocumentFormat class reads and writes pipeline Documents in a compact binary form,
+ * for checkpoints that are saved and reloaded much faster than XML text. A file ending in ".xbin"
+ * is written plain and one ending in ".xbin.gz" is written with its body gzipped. When reading,
+ * the header says whether the body is gzipped, so either extension can be read.
+ *
+ * The file is a header (the bytes "WXB", a version byte and a flags byte) followed by the nodes
+ * of the Document, depth first. Each node is a kind byte and its content, and counts and lengths
+ * are unsigned LEB128 varints. Every string is written as a varint reference: 0 for null, 1 for a
+ * new string (its UTF-8 length and bytes follow), or 2 plus the index of a string seen earlier.
+ * Short strings are added to the dictionary as they are first written, and the reader builds the
+ * same dictionary as it goes, so element names, attribute names and the small values that fill
+ * the sensor trees are each written out only once.
+ *
+ * Unmaterialized columnar tables are written column by column and read back as columnar tables.
+ * Attribute types are not kept.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public final class CompactDocumentFormat {
+
+    public static final String EXTENSION = ".xbin";
+    public static final String GZIP_EXTENSION = ".xbin.gz";
+
+    private static final byte[] MAGIC = { 'W', 'X', 'B' };
+    static final int VERSION = 1;
+    private static final int FLAG_GZIP = 0x01;
+
+    private static final int ELEMENT = 1;
+    private static final int TEXT = 2;
+    private static final int COMMENT = 3;
+    private static final int PROCESSING_INSTRUCTION = 4;
+    private static final int DOCTYPE = 5;
+    private static final int COLUMNAR_TABLE = 6;
+
+    // Strings up to this many chars go in the dictionary, until it holds this many entries
+
+    private static final int MAX_DICTIONARY_STRING = 64;
+    private static final int MAX_DICTIONARY_SIZE = 1 << 20;
+
+    private CompactDocumentFormat() {
+    }
+
+    /**
+     * @return true if the file name has one of the compact format extensions
+     */
+    public static boolean isCompactPath(Path p) {
+        String name = p.getFileName().toString();
+        return name.endsWith(EXTENSION) || name.endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * Write a Document to a file. The body is gzipped if the file name ends in ".xbin.gz".
+     */
+    public static void write(Document tree, Path sinkPath) throws IOException {
+        boolean gzip = sinkPath.getFileName().toString().endsWith(GZIP_EXTENSION);
+        try (OutputStream out = Files.newOutputStream(sinkPath)) {
+            write(tree, out, gzip);
+        }
+    }
+
+    /**
+     * Write a Document to a stream. The stream is not closed.
+     */
+    public static void write(Document tree, OutputStream out, boolean gzip) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(gzip ? FLAG_GZIP : 0);
+        GZIPOutputStream gzipStream = gzip ? new GZIPOutputStream(out, 64 * 1024) : null;
+        Writer w = new Writer(new BufferedOutputStream(gzip ? gzipStream : out, 64 * 1024));
+        w.writeChildren(tree);
+        w.out.flush();
+        if (gzipStream != null) {
+            gzipStream.finish();
+        }
+    }
+
+    /**
+     * Read a Document from a file written by {@link #write(Document, Path)}.
+     */
+    public static Document read(Path srcPath) throws IOException {
+        try (InputStream in = Files.newInputStream(srcPath)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Read a Document from a stream. The stream is not closed.
+     *
+     * @throws IOException
+     *             if the stream can't be read or is not in this format
+     */
+    public static Document read(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        for (byte b : MAGIC) {
+            if (header.readByte() != b) {
+                throw new IOException("Not a compact document file.");
+            }
+        }
+        int version = header.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compact document version " + version + ".");
+        }
+        int flags = header.readUnsignedByte();
+        InputStream body = ((flags & FLAG_GZIP) != 0) ? new GZIPInputStream(in, 64 * 1024) : in;
+        Reader r = new Reader(new DataInputStream(new BufferedInputStream(body, 64 * 1024)));
+        try {
+            return r.readDocument();
+        } catch (XMLException e) {
+            throw new IOException("Malformed compact document.  " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isDictionaryString(String s) {
+        return s.length() <= MAX_DICTIONARY_STRING;
+    }
+
+    /**
+     * Writes nodes and keeps the writer's half of the string dictionary.
+     */
+    private static class Writer {
+        final DataOutputStream out;
+        final Map<String, Integer> dictionary = new HashMap<>();
+
+        Writer(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        void writeChildren(ParentNode parent) throws IOException {
+            int count = parent.getChildCount();
+            writeVarint(count);
+            for (int idx = 0; idx < count; idx++) {
+                writeNode(parent.getChild(idx));
+            }
+        }
+
+        void writeNode(Node n) throws IOException {
+            if (n instanceof ColumnarTableElement && !((ColumnarTableElement) n).isMaterialized()) {
+                ColumnarTableElement table = (ColumnarTableElement) n;
+                out.write(COLUMNAR_TABLE);
+                writeString(table.getQualifiedName());
+                writeString(table.getNamespaceURI());
+                writeAttributes(table);
+                writeVarint(table.getColumnCount());
+                for (int idx = 0; idx < table.getColumnCount(); idx++) {
+                    TableColumn column = table.getColumn(idx);
+                    writeString(column.getName());
+                    writeVarint(column.size());
+                    for (int row = 0; row < column.size(); row++) {
+                        writeString(column.getString(row));
+                    }
+                }
+            } else if (n instanceof Element) {
+                Element e = (Element) n;
+                out.write(ELEMENT);
+                writeString(e.getQualifiedName());
+                writeString(e.getNamespaceURI());
+                writeNamespaceDeclarations(e);
+                writeAttributes(e);
+                writeChildren(e);
+            } else if (n instanceof Text) {
+                out.write(TEXT);
+                writeString(n.getValue());
+            } else if (n instanceof Comment) {
+                out.write(COMMENT);
+                writeString(n.getValue());
+            } else if (n instanceof ProcessingInstruction) {
+                ProcessingInstruction pi = (ProcessingInstruction) n;
+                out.write(PROCESSING_INSTRUCTION);
+                writeString(pi.getTarget());
+                writeString(pi.getValue());
+            } else if (n instanceof DocType) {
+                DocType dt = (DocType) n;
+                out.write(DOCTYPE);
+                writeString(dt.getRootElementName());
+                writeString(dt.getPublicID());
+                writeString(dt.getSystemID());
+                writeString(dt.getInternalDTDSubset());
+            } else {
+                throw new IOException("Can't write a " + n.getClass().getName() + " node.");
+            }
+        }
+
+        // Only the declarations not implied by the prefixes of the element and its attributes
+
+        void writeNamespaceDeclarations(Element e) throws IOException {
+            List<String> prefixes = new ArrayList<>();
+            for (int idx = 0; idx < e.getNamespaceDeclarationCount(); idx++) {
+                String prefix = e.getNamespacePrefix(idx);
+                boolean implied = prefix.equals(e.getNamespacePrefix());
+                for (int a = 0; a < e.getAttributeCount() && !implied; a++) {
+                    implied = prefix.equals(e.getAttribute(a).getNamespacePrefix());
+                }
+                if (!implied) {
+                    prefixes.add(prefix);
+                }
+            }
+            writeVarint(prefixes.size());
+            for (String prefix : prefixes) {
+                writeString(prefix);
+                writeString(e.getNamespaceURI(prefix));
+            }
+        }
+
+        void writeAttributes(Element e) throws IOException {
+            writeVarint(e.getAttributeCount());
+            for (int idx = 0; idx < e.getAttributeCount(); idx++) {
+                Attribute a = e.getAttribute(idx);
+                writeString(a.getQualifiedName());
+                writeString(a.getNamespaceURI());
+                writeString(a.getValue());
+            }
+        }
+
+        void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarint(0);
+                return;
+            }
+            Integer ref = dictionary.get(s);
+            if (ref != null) {
+                writeVarint(ref + 2);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(1);
+            writeVarint(bytes.length);
+            out.write(bytes);
+            if (isDictionaryString(s) && dictionary.size() < MAX_DICTIONARY_SIZE) {
+                dictionary.put(s, dictionary.size());
+            }
+        }
+
+        void writeVarint(int v) throws IOException {
+            while ((v & ~0x7F) != 0) {
+                out.write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+    }
+
+    /**
+     * Reads nodes and keeps the reader's half of the string dictionary.
+     */
+    private static class Reader {
+        final DataInputStream in;
+        final List<String> dictionary = new ArrayList<>();
+        byte[] bytes = new byte[256];
+
+        // XOM checks every name and text it is given, so nodes built from dictionary strings are
+        // copied from an already checked prototype instead. The copy constructors don't check.
+
+        final List<Element> elementPrototypes = new ArrayList<>();
+        final List<Text> textPrototypes = new ArrayList<>();
+        final List<Attribute> attributePrototypes = new ArrayList<>();
+
+        // The dictionary index of the string most recently read, or -1 if it was not from the
+        // dictionary
+
+        int lastIndex;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Document readDocument() throws IOException {
+            int count = readVarint();
+            List<Node> children = new ArrayList<>(count);
+            Element root = null;
+            for (int idx = 0; idx < count; idx++) {
+                Node n = readNode();
+                if (root == null && n instanceof Element) {
+                    root = (Element) n;
+                }
+                children.add(n);
+            }
+            if (root == null) {
+                throw new IOException("Compact document has no root element.");
+            }
+            Document doc = new Document(root);
+            int rootIndex = children.indexOf(root);
+            for (int idx = 0; idx < children.size(); idx++) {
+                if (idx < rootIndex) {
+                    doc.insertChild(children.get(idx), idx);
+                } else if (idx > rootIndex) {
+                    doc.appendChild(children.get(idx));
+                }
+            }
+            return doc;
+        }
+
+        Node readNode() throws IOException {
+            int kind = in.readUnsignedByte();
+            switch (kind) {
+            case ELEMENT: {
+                String name = readString();
+                int nameIndex = lastIndex;
+                String uri = readString();
+                Element e;
+                Element prototype = getPrototype(elementPrototypes, nameIndex);
+                if (prototype != null && prototype.getNamespaceURI().equals(uri)) {
+                    e = new Element(prototype);
+                } else {
+                    e = new Element(name, uri);
+                    if (nameIndex >= 0 && prototype == null) {
+                        setPrototype(elementPrototypes, nameIndex, new Element(e));
+                    }
+                }
+                int declarations = readVarint();
+                for (int idx = 0; idx < declarations; idx++) {
+                    e.addNamespaceDeclaration(readString(), readString());
+                }
+                readAttributes(e);
+                int count = readVarint();
+                for (int idx = 0; idx < count; idx++) {
+                    e.appendChild(readNode());
+                }
+                return e;
+            }
+            case COLUMNAR_TABLE: {
+                String name = readString();
+                String uri = readString();
+                Element attributes = new Element(name, uri);
+                readAttributes(attributes);
+                int columnCount = readVarint();
+                List<TableColumn> columns = new ArrayList<>(columnCount);
+                for (int idx = 0; idx < columnCount; idx++) {
+                    TableColumn column = TableColumn.newColumn(readString());
+                    int rows = readVarint();
+                    for (int row = 0; row < rows; row++) {
+                        column = column.append(readString());
+                    }
+                    columns.add(column);
+                }
+                ColumnarTableElement table = new ColumnarTableElement(columns);
+                while (attributes.getAttributeCount() > 0) {
+                    Attribute a = attributes.getAttribute(0);
+                    attributes.removeAttribute(a);
+                    table.addAttribute(a);
+                }
+                return table;
+            }
+            case TEXT: {
+                String value = readString();
+                int valueIndex = lastIndex;
+                Text prototype = getPrototype(textPrototypes, valueIndex);
+                if (prototype != null) {
+                    return new Text(prototype);
+                }
+                Text t = new Text(value);
+                if (valueIndex >= 0) {
+                    setPrototype(textPrototypes, valueIndex, t);
+                }
+                return t;
+            }
+            case COMMENT:
+                return new Comment(readString());
+            case PROCESSING_INSTRUCTION:
+                return new ProcessingInstruction(readString(), readString());
+            case DOCTYPE: {
+                DocType dt = new DocType(readString(), readString(), readString());
+                String subset = readString();
+                if (subset != null && !subset.isEmpty()) {
+                    dt.setInternalDTDSubset(subset);
+                }
+                return dt;
+            }
+            default:
+                throw new IOException("Unknown node kind " + kind + " in compact document.");
+            }
+        }
+
+        void readAttributes(Element e) throws IOException {
+            int count = readVarint();
+            for (int idx = 0; idx < count; idx++) {
+                String name = readString();
+                String uri = readString();
+                String value = readString();
+                int valueIndex = lastIndex;
+                Attribute prototype = getPrototype(attributePrototypes, valueIndex);
+                if (prototype != null && prototype.getQualifiedName().equals(name)
+                        && prototype.getNamespaceURI().equals(uri)) {
+                    e.addAttribute(new Attribute(prototype));
+                } else {
+                    Attribute a = new Attribute(name, uri, value);
+                    if (valueIndex >= 0 && prototype == null) {
+                        setPrototype(attributePrototypes, valueIndex, new Attribute(a));
+                    }
+                    e.addAttribute(a);
+                }
+            }
+        }
+
+        <T> T getPrototype(List<T> prototypes, int index) {
+            return (index >= 0 && index < prototypes.size()) ? prototypes.get(index) : null;
+        }
+
+        <T> void setPrototype(List<T> prototypes, int index, T prototype) {
+            while (prototypes.size() <= index) {
+                prototypes.add(null);
+            }
+            prototypes.set(index, prototype);
+        }
+
+        String readString() throws IOException {
+            int ref = readVarint();
+            lastIndex = -1;
+            if (ref == 0) {
+                return null;
+            } else if (ref >= 2) {
+                if (ref - 2 >= dictionary.size()) {
+                    throw new IOException("Bad string reference in compact document.");
+                }
+                lastIndex = ref - 2;
+                return dictionary.get(ref - 2);
+            }
+            int length = readVarint();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.readFully(bytes, 0, length);
+            String s = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            if (isDictionaryString(s) && dictionary.size() < MAX_DICTIONARY_SIZE) {
+                lastIndex = dictionary.size();
+                dictionary.add(s);
+            }
+            return s;
+        }
+
+        int readVarint() throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Compact document ends unexpectedly.");
+                }
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IOException("Bad varint in compact document.");
+        }
+    }
+}
@@ -1,9 +1,20 @@
 package ws.finson.wifix.app;
 
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import nu.xom.Attribute;
 import nu.xom.Document;
 import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.Node;
 import nu.xom.Nodes;
+import nu.xom.XPathException;
+
+import org.jaxen.JaxenException;
+import org.jaxen.xom.XOMXPath;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +26,14 @@ import ws.tuxi.lib.cfg.ConfigurationException;
  * a column of values in a Table Layout. The configuration is based on the attributes of a nodes
  * element in the configuration file.
  * 
+ * Paths of the form table[n]/col[n]/value or table[n]/col[@name='x']/value (and the matching
+ * /@name label paths) can be resolved directly against a {@link ColumnarTableElement} without
+ * building its XML view. Any other path is evaluated with XPath, after first materializing the
+ * columnar tables in the tree.
+ * 
+ * The paths are compiled when the configuration is read. Simple child paths (see
+ * {@link ChildPath}) are evaluated by navigating directly from element to child element, and any
+ * other expression is parsed once into a Jaxen XPath and reused for every evaluation.
  * 
  * @author Doug Johnson
  * @since Dec 20, 2014
@@ -27,6 +46,18 @@ public class ConfiguredNodeSet {
     private String theLabelPath = null;
     private String theValuePath = null;
 
+    // Each path is compiled once, either as a simple child path or as an XPath expression
+
+    private ChildPath valueChildPath = null;
+    private XOMXPath valueXPath = null;
+    private ChildPath labelChildPath = null;
+    private XOMXPath labelXPath = null;
+    private MatchResult valueColumnMatch = null;
+    private MatchResult labelColumnMatch = null;
+
+    private static final Pattern tableColumnPattern = Pattern
+            .compile("^table(?:\\[(\\d+)\\])?/col\\[(?:(\\d+)|@name='([^']*)')\\]/(value|@name)$");
+
     /**
      * @throws ConfigurationException
      * 
@@ -56,10 +87,32 @@ public class ConfiguredNodeSet {
             throw new ConfigurationException(
                     "A valid xPath expression must be given for the value-path.");
         }
+        valueChildPath = ChildPath.compile(theValuePath);
+        if (valueChildPath == null) {
+            valueXPath = compileXPath(theValuePath);
+        }
+        valueColumnMatch = matchColumn(theValuePath, "value");
+        if (theLabelPath != null) {
+            labelChildPath = ChildPath.compile(theLabelPath);
+            if (labelChildPath == null) {
+                labelXPath = compileXPath(theLabelPath);
+            }
+            labelColumnMatch = matchColumn(theLabelPath, "@name");
+        }
     }
 
     public Nodes getNodeSet(Document tree) {
-        return tree.getRootElement().query(theValuePath);
+        return select(tree, valueChildPath, valueXPath);
+    }
+
+    /**
+     * If the value path selects all the values of one column of a columnar table, return that
+     * column so the caller can use the values without building the XML view.
+     * 
+     * @return the selected column, or null if the path must be evaluated with getNodeSet()
+     */
+    public TableColumn getColumn(Document tree) {
+        return resolveColumn(tree, valueColumnMatch);
     }
 
     public String getLabel(Document tree) {
@@ -68,9 +121,14 @@ public class ConfiguredNodeSet {
 
         String resultLabel = null;
         if (theLabelPath != null) {
-            Nodes labelNodes = tree.getRootElement().query(theLabelPath);
-            if (labelNodes.size() > 0) {
-                resultLabel = labelNodes.get(0).getValue();
+            TableColumn labelColumn = resolveColumn(tree, labelColumnMatch);
+            if (labelColumn != null) {
+                resultLabel = labelColumn.getName();
+            } else {
+                Nodes labelNodes = select(tree, labelChildPath, labelXPath);
+                if (labelNodes.size() > 0) {
+                    resultLabel = labelNodes.get(0).getValue();
+                }
             }
         }
 
@@ -81,4 +139,75 @@ public class ConfiguredNodeSet {
         }
         return resultLabel;
     }
+
+    // Simple paths are navigated directly. Only XPath needs the whole tree materialized first.
+
+    private Nodes select(Document tree, ChildPath childPath, XOMXPath xpath) {
+        if (childPath != null) {
+            return childPath.evaluate(tree.getRootElement());
+        }
+        ColumnarTableElement.materializeAll(tree);
+        List<?> selection;
+        try {
+            selection = xpath.selectNodes(tree.getRootElement());
+        } catch (JaxenException e) {
+            throw new XPathException("XPath error: " + e.getMessage(), e);
+        }
+        Nodes result = new Nodes();
+        for (Object n : selection) {
+            if (!(n instanceof Node)) {
+                throw new XPathException("XPath expression must select nodes, not "
+                        + n.getClass().getSimpleName() + ".");
+            }
+            result.append((Node) n);
+        }
+        return result;
+    }
+
+    private XOMXPath compileXPath(String path) throws ConfigurationException {
+        try {
+            return new XOMXPath(path);
+        } catch (JaxenException e) {
+            throw new ConfigurationException("Invalid xPath expression '" + path + "': "
+                    + e.getMessage());
+        }
+    }
+
+    private static MatchResult matchColumn(String path, String leaf) {
+        Matcher m = tableColumnPattern.matcher(path);
+        return (m.matches() && leaf.equals(m.group(4))) ? m.toMatchResult() : null;
+    }
+
+    private TableColumn resolveColumn(Document tree, MatchResult m) {
+        if (m == null) {
+            return null;
+        }
+
+        // Without a position predicate, the path selects from every table, so only resolve it if
+        // there is exactly one
+
+        Elements tables = tree.getRootElement().getChildElements("table");
+        Element aTable;
+        if (m.group(1) == null) {
+            aTable = (tables.size() == 1) ? tables.get(0) : null;
+        } else {
+            int tableIndex = Integer.parseInt(m.group(1)) - 1;
+            aTable = (tableIndex >= 0 && tableIndex < tables.size()) ? tables.get(tableIndex)
+                    : null;
+        }
+        if (!(aTable instanceof ColumnarTableElement)
+                || ((ColumnarTableElement) aTable).isMaterialized()) {
+            return null;
+        }
+        ColumnarTableElement theTable = (ColumnarTableElement) aTable;
+
+        if (m.group(2) != null) {
+            int columnIndex = Integer.parseInt(m.group(2)) - 1;
+            if (columnIndex >= 0 && columnIndex < theTable.getColumnCount()) {
+                return theTable.getColumn(columnIndex);
+            }
+            return null;
+        }
+        return theTable.getColumn(m.group(3));
+    }
 }
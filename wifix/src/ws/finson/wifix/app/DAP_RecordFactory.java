@@ -0,0 +1,30 @@
+package ws.finson.wifix.app;
+
+import java.io.LineNumberReader;
+
+import ws.tuxi.lib.pipeline.PipelineSourceException;
+
+/**
+ * This DAP_RecordFactory interface creates one type of {@link DAP_Record} from the lines that
+ * follow its "+++ Type" header line. Factories are registered with a {@link RecordTypeRegistry}.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public interface DAP_RecordFactory {
+
+    /**
+     * Read one record. On return the reader is positioned just after the end of the record.
+     *
+     * @param src
+     *            the raw capture file, positioned just after the record header line
+     * @param handler
+     *            if not null, the record passes its rows to the handler instead of keeping them
+     * @return the new record
+     * @throws PipelineSourceException
+     *             if the record cannot be read
+     */
+    DAP_Record newRecord(LineNumberReader src, CaptureScanHandler handler)
+            throws PipelineSourceException;
+}
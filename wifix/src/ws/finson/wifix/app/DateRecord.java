@@ -24,6 +24,19 @@ public class DateRecord extends AbstractRecord {
      * 
      */
     public DateRecord(LineNumberReader src) throws PipelineSourceException {
+        this(src, null);
+    }
+
+    /**
+     * @param handler
+     *            if not null, the rows are passed to the handler as they are read and are not
+     *            kept in this record
+     * @throws PipelineSourceException
+     */
+    public DateRecord(LineNumberReader src, CaptureScanHandler handler)
+            throws PipelineSourceException {
+        super(handler);
+        long moment;
 
         // Read date and time from raw data file
 
@@ -36,14 +49,14 @@ public class DateRecord extends AbstractRecord {
             if (line == null) {
                 throw new PipelineSourceException("Unexpected end of file");
             }
-            long moment = Long.parseLong(line);
-            recordValues.add(new String[] { "timetag" });
-            recordValues.add(new String[] { Long.toString(moment) });
+            moment = Long.parseLong(line);
+            addRow(new String[] { "timetag" });
+            addRow(new String[] { Long.toString(moment) });
             skipRemainderOfCurrentRecord(src);
         } catch (IOException e) {
             throw new PipelineSourceException(e);
         }
-        logger.trace("{} {}", recordValues.get(0)[0], recordValues.get(1)[0]);
+        logger.trace("timetag {}", moment);
         return;
     }
 }
@@ -1,11 +1,7 @@
 package ws.finson.wifix.app;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
@@ -16,8 +12,6 @@ import nu.xom.Elements;
 import nu.xom.Node;
 import nu.xom.Nodes;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,17 +25,21 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
  * This ExportTableToCSV class writes one or more nodesets to a table in a file. Each column
  * comprises one nodeset. The output file can be in text (CSV) or binary (bin).
  * 
+ * All the files are written in a single pass over the rows. Each row is formatted once per
+ * format, and the encoded bytes are shared by every file of that format through a
+ * {@link FanOutChannelWriter}.
+ * 
  * @author Doug Johnson, Nov 14, 2014
  * 
  */
 public class ExportTableToCSV implements PipelineOperation<Document, Document> {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private static final String RECORD_SEPARATOR = "\r\n";
+
     private List<ConfiguredNodeSet> selectors = new ArrayList<>();
 
     private List<ConfiguredPathname> sinkPathnames = new ArrayList<>();
-    private List<BufferedOutputStream> binOut = new ArrayList<>();
-    private List<BufferedWriter> csvOut = new ArrayList<>();
 
     /**
      * @param ac
@@ -83,124 +81,210 @@ public class ExportTableToCSV implements PipelineOperation<Document, Document> {
     @Override
     public Document doStep(Document in) throws PipelineOperationException {
 
+        // Sort the sinks by format. All the files of one format get identical bytes.
+
         Element globalContextElement = in.getRootElement().getFirstChildElement("context");
+        List<Path> csvPaths = new ArrayList<>();
+        List<Path> binPaths = new ArrayList<>();
         for (ConfiguredPathname cpn : sinkPathnames) {
             Path theSinkPath = cpn.getSinkPath(globalContextElement);
             String format = FilenameUtils.getExtension(theSinkPath.toString());
             switch (format) {
             case "csv":
-                BufferedWriter printer;
-                try {
-                    logger.info("Opening file '{}' for CSV export.",theSinkPath.toString());
-                    printer = Files.newBufferedWriter(theSinkPath, Charset.defaultCharset());
-                } catch (IOException e) {
-                    throw new PipelineOperationException(e);
-                }
-                csvOut.add(printer);
+                logger.info("Opening file '{}' for CSV export.", theSinkPath.toString());
+                csvPaths.add(theSinkPath);
                 break;
             case "bin":
             case "raw":
-                BufferedOutputStream binStreamer;
-                try {
-                    logger.info("Opening file '{}' for binary export.",theSinkPath.toString());
-                    binStreamer = new BufferedOutputStream(new FileOutputStream(cpn.getSinkPath(
-                            globalContextElement).toFile()));
-                } catch (IOException e) {
-                    throw new PipelineOperationException(e);
-                }
-                binOut.add(binStreamer);
+                logger.info("Opening file '{}' for binary export.", theSinkPath.toString());
+                binPaths.add(theSinkPath);
                 break;
             default:
                 throw new PipelineOperationException("Unrecognized table format: " + format);
             }
         }
 
-        // Get the data to print
+        // Get the data to print. Columns of a columnar table are used directly, anything else is
+        // selected as a node set.
 
         List<Nodes> nodesList = new ArrayList<>(selectors.size());
+        TableColumn[] columnList = new TableColumn[selectors.size()];
+        int[] sizeList = new int[selectors.size()];
         int rowCount = 0;
         for (int idx = 0; idx < selectors.size(); idx++) {
-            Nodes col = selectors.get(idx).getNodeSet(in);
-            nodesList.add(col);
-            rowCount = Math.max(rowCount, col.size());
-            logger.debug("{} column has {} rows.", selectors.get(idx).getLabel(in), col.size());
+            columnList[idx] = selectors.get(idx).getColumn(in);
+            if (columnList[idx] != null) {
+                nodesList.add(null);
+                sizeList[idx] = columnList[idx].size();
+            } else {
+                Nodes col = selectors.get(idx).getNodeSet(in);
+                nodesList.add(col);
+                sizeList[idx] = col.size();
+            }
+            rowCount = Math.max(rowCount, sizeList[idx]);
+            logger.debug("{} column has {} rows.", selectors.get(idx).getLabel(in), sizeList[idx]);
         }
         int colCount = nodesList.size();
 
-        // Write the CSV file header row
-
+        FanOutChannelWriter csvOut = null;
+        FanOutChannelWriter binOut = null;
         try {
-            if (csvOut.size() > 0) {
-                String[] header = new String[colCount];
-                for (int idx = 0; idx < selectors.size(); idx++) {
+            if (!csvPaths.isEmpty()) {
+                csvOut = new FanOutChannelWriter(csvPaths, Charset.defaultCharset());
+            }
+            if (!binPaths.isEmpty()) {
+                binOut = new FanOutChannelWriter(binPaths, null);
+            }
+
+            // Write the CSV file header row
+
+            StringBuilder line = new StringBuilder();
+            if (csvOut != null) {
+                for (int idx = 0; idx < colCount; idx++) {
                     String aLabel = selectors.get(idx).getLabel(in);
-                    header[idx] = (aLabel != null) ? aLabel : "Field" + Integer.toString(idx);
                     logger.trace("Field name: {}", aLabel);
+                    appendField(line, (aLabel != null) ? aLabel : "Field" + Integer.toString(idx),
+                            idx == 0);
                 }
+                line.append(RECORD_SEPARATOR);
+                csvOut.write(line);
+            }
 
-                CSVFormat flavor = CSVFormat.RFC4180.withHeader(header);
-                List<CSVPrinter> printers = new ArrayList<>(csvOut.size());
-                for (BufferedWriter sinkWriter : csvOut) {
-                    printers.add(new CSVPrinter(sinkWriter, flavor));
-                }
-
-                // Write the CSV file value rows
+            // Write the value rows. Each value is fetched once and encoded into the CSV line, the
+            // binary row, or both. A CSV column that runs out of values repeats its last value,
+            // a binary column writes 0.
 
-                String[] values = new String[colCount];
-                for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
-                    for (int colIndex = 0; colIndex < nodesList.size(); colIndex++) {
-                        Nodes col = nodesList.get(colIndex);
-                        if (rowIndex < col.size()) {
-                            Node val = col.get(rowIndex);
+            String[] values = new String[colCount];
+            for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+                line.setLength(0);
+                for (int colIndex = 0; colIndex < colCount; colIndex++) {
+                    int dataValue = 0;
+                    if (rowIndex < sizeList[colIndex]) {
+                        if (columnList[colIndex] != null) {
+                            if (csvOut != null) {
+                                values[colIndex] = columnList[colIndex].getString(rowIndex);
+                            }
+                            if (binOut != null) {
+                                try {
+                                    dataValue = columnList[colIndex].getInt(rowIndex);
+                                } catch (NumberFormatException e) {
+                                    throw notAnInteger(selectors.get(colIndex).getLabel(in),
+                                            colIndex, columnList[colIndex].getString(rowIndex));
+                                }
+                            }
+                        } else {
+                            Node val = nodesList.get(colIndex).get(rowIndex);
                             values[colIndex] = val.getValue();
+                            if (binOut != null) {
+                                dataValue = toBinValue(selectors.get(colIndex).getLabel(in),
+                                        colIndex, values[colIndex]);
+                            }
                         }
                     }
-                    for (CSVPrinter p : printers) {
-                        p.printRecord(values);
+                    if (csvOut != null) {
+                        appendField(line, values[colIndex], colIndex == 0);
+                    }
+                    if (binOut != null) {
+                        binOut.write((byte) (dataValue & 0xFF));
                     }
                 }
+                if (csvOut != null) {
+                    line.append(RECORD_SEPARATOR);
+                    csvOut.write(line);
+                }
             }
+            logger.debug("Wrote {} rows to {} CSV and {} binary files.", rowCount,
+                    csvPaths.size(), binPaths.size());
+
+            if (csvOut != null) {
+                FanOutChannelWriter w = csvOut;
+                csvOut = null;
+                w.close();
+            }
+            if (binOut != null) {
+                FanOutChannelWriter w = binOut;
+                binOut = null;
+                w.close();
+            }
+        } catch (IOException e) {
+            throw new PipelineOperationException(e);
+        } finally {
+            closeQuietly(csvOut);
+            closeQuietly(binOut);
+        }
+        return in;
+    }
 
-            // Write the binary file rows
+    // A bin file holds one byte per value, taken from the value as an integer. Values that are
+    // not integers, such as z-scores, are refused rather than quantized in some arbitrary way.
 
-            if (binOut.size() > 0) {
-                int dataValue;
+    static int toBinValue(String label, int colIndex, String value)
+            throws PipelineOperationException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw notAnInteger(label, colIndex, value);
+        }
+    }
 
-                for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
-                    byte[] byteBuffer = new byte[colCount];
-                    int offset = 0;
-                    for (int colIndex = 0; colIndex < colCount; colIndex++) {
-                        Nodes col = nodesList.get(colIndex);
-                        if (rowIndex < col.size()) {
-                            Node val = col.get(rowIndex);
-                            dataValue = Integer.parseInt(val.getValue());
-                        } else {
-                            dataValue = 0;
-                        }
-                        byteBuffer[offset++] = (byte) (dataValue & 0xFF);
-                    }
-                    for (BufferedOutputStream sinkStreamer : binOut) {
-                        try {
-                            sinkStreamer.write(byteBuffer);
-                            logger.trace("Wrote {} bytes to row {} of binary file.",
-                                    byteBuffer.length, rowIndex);
-                        } catch (IOException e) {
-                            throw new PipelineOperationException(e);
-                        }
-                    }
+    private static PipelineOperationException notAnInteger(String label, int colIndex,
+            String value) {
+        return new PipelineOperationException("Column '"
+                + ((label != null) ? label : "Field" + Integer.toString(colIndex))
+                + "' cannot be exported to a bin file. The value '" + value
+                + "' is not an integer.");
+    }
+
+    // Append one field to a CSV line, quoted exactly as CSVPrinter quotes it with the RFC4180
+    // format (QuoteMode.MINIMAL), so the files don't change.
+
+    static void appendField(StringBuilder line, String value, boolean first) {
+        if (!first) {
+            line.append(',');
+        }
+        if (value == null) {
+            value = "";
+        }
+        int len = value.length();
+        boolean quote;
+        if (len == 0) {
+            quote = first;
+        } else {
+            char c = value.charAt(0);
+            if (first && (c < '0' || (c > '9' && c < 'A') || (c > 'Z' && c < 'a') || (c > 'z'))) {
+                quote = true;
+            } else if (c <= '#') {
+                quote = true;
+            } else {
+                quote = value.charAt(len - 1) <= ' ';
+                for (int idx = 0; idx < len && !quote; idx++) {
+                    c = value.charAt(idx);
+                    quote = (c == '\n' || c == '\r' || c == '"' || c == ',');
                 }
             }
-
-            for (BufferedWriter sinkWriter : csvOut) {
-                sinkWriter.close();
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int idx = 0; idx < len; idx++) {
+            char c = value.charAt(idx);
+            if (c == '"') {
+                line.append('"');
             }
+            line.append(c);
+        }
+        line.append('"');
+    }
 
-            for (BufferedOutputStream sinkStreamer : binOut) {
-                sinkStreamer.close();
+    private void closeQuietly(FanOutChannelWriter w) {
+        if (w != null) {
+            try {
+                w.close();
+            } catch (IOException e) {
+                logger.warn("Error closing export file: {}", e.getMessage());
             }
-        } catch (IOException e) {
-            throw new PipelineOperationException(e);
         }
-        return in;
     }
 }
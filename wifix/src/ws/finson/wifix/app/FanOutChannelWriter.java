@@ -0,0 +1,185 @@
+package ws.finson.wifix.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This FanOutChannelWriter class writes the same bytes to any number of files. The bytes are
+ * encoded once into a block of reusable direct buffers, and when the block is full it is written
+ * to each file in turn with a single gathering write, so adding a sink costs one system call per
+ * block instead of a second copy of the formatting work.
+ *
+ * A writer created with a Charset also encodes text, so a text sink and a binary sink can both be
+ * filled during the same pass over the data.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class FanOutChannelWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFER_COUNT = 4;
+
+    private final List<FileChannel> channels = new ArrayList<>();
+    private final ByteBuffer[] block = new ByteBuffer[BUFFER_COUNT];
+    private int current = 0;
+
+    private final CharsetEncoder encoder;
+    private char[] chars = new char[256];
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+    /**
+     * Create (or truncate) all the given files and prepare to write to them.
+     *
+     * @param paths
+     *            the files to write
+     * @param charset
+     *            the encoding to use for text, or null if only bytes will be written
+     * @throws IOException
+     *             if one of the files can't be opened. Any files already opened are closed.
+     */
+    public FanOutChannelWriter(List<Path> paths, Charset charset) throws IOException {
+        try {
+            for (Path p : paths) {
+                channels.add(FileChannel.open(p, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        for (int idx = 0; idx < block.length; idx++) {
+            block[idx] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        encoder = (charset == null) ? null : charset.newEncoder();
+    }
+
+    /**
+     * @return the number of files being written
+     */
+    public int getSinkCount() {
+        return channels.size();
+    }
+
+    /**
+     * Append one byte.
+     */
+    public void write(byte b) throws IOException {
+        if (!block[current].hasRemaining()) {
+            nextBuffer();
+        }
+        block[current].put(b);
+    }
+
+    /**
+     * Encode and append the characters in the given StringBuilder.
+     *
+     * @throws IOException
+     *             if the characters can't be encoded in the writer's Charset
+     */
+    public void write(StringBuilder text) throws IOException {
+        int len = text.length();
+        if (chars.length < len) {
+            chars = new char[Math.max(len, chars.length * 2)];
+            charBuffer = CharBuffer.wrap(chars);
+        }
+        text.getChars(0, len, chars, 0);
+        charBuffer.clear();
+        charBuffer.limit(len);
+        encode(charBuffer, false);
+    }
+
+    /**
+     * Write everything appended so far to all the files.
+     */
+    public void flush() throws IOException {
+        int used = current + 1;
+        long total = 0;
+        for (int idx = 0; idx < used; idx++) {
+            block[idx].flip();
+            total += block[idx].remaining();
+        }
+        for (FileChannel ch : channels) {
+            for (int idx = 0; idx < used; idx++) {
+                block[idx].rewind();
+            }
+            long written = 0;
+            while (written < total) {
+                written += ch.write(block, 0, used);
+            }
+        }
+        for (int idx = 0; idx < used; idx++) {
+            block[idx].clear();
+        }
+        current = 0;
+    }
+
+    /**
+     * Flush and close all the files. All of them are closed even if one fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (encoder != null) {
+                charBuffer.clear();
+                charBuffer.limit(0);
+                encode(charBuffer, true);
+                while (encoder.flush(block[current]).isOverflow()) {
+                    nextBuffer();
+                }
+            }
+            flush();
+        } finally {
+            closeChannels();
+        }
+    }
+
+    private void encode(CharBuffer in, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(in, block[current], endOfInput);
+            if (result.isUnderflow()) {
+                return;
+            } else if (result.isOverflow()) {
+                nextBuffer();
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void nextBuffer() throws IOException {
+        if (current == block.length - 1) {
+            flush();
+        } else {
+            current++;
+        }
+    }
+
+    private void closeChannels() throws IOException {
+        IOException failure = null;
+        for (FileChannel ch : channels) {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        channels.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package ws.finson.wifix.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.Nodes;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.cfg.ApplicationComponent;
+import ws.tuxi.lib.cfg.ConfigurationException;
+import ws.tuxi.lib.pipeline.PipelineOperation;
+import ws.tuxi.lib.pipeline.PipelineOperationException;
+import ws.tuxi.lib.pipeline.PipelineSourceException;
+
+/**
+ * This FollowCaptureScans class reads a raw data capture file while capture-v.sh is still
+ * appending to it, and processes each scan as soon as the scan is complete, so results are
+ * available during a capture session instead of after it.
+ *
+ * <pre>
+ * &lt;step type="FollowCaptureScans"&gt;
+ *   &lt;file pathname="data-file.txt" /&gt;
+ *   &lt;step type="BuildSensorBranch"&gt;...&lt;/step&gt;
+ *   &lt;step type="BuildParameters"&gt;...&lt;/step&gt;
+ *   &lt;export&gt;
+ *     &lt;file suffix="-RSSI-table" extension="csv" /&gt;
+ *     &lt;nodes label="Ch1" value-path="sensor-sequence/parameter[@name='power']/sensor-values[@key='1']/value" /&gt;
+ *   &lt;/export&gt;
+ * &lt;/step&gt;
+ * </pre>
+ *
+ * The file is polled for new bytes. Only complete lines are parsed, and the lines of a scan are
+ * collected until its end marker is read, then parsed as {@link ImportCaptureScans} would parse
+ * them. The nested steps are run on a Document holding the context and just that one scan. Each
+ * export then appends one row to its files, with the first value each nodes element selects from
+ * the result, or 0 if it selects nothing. That is the value the same column has for that scan
+ * when the whole file is processed after the capture. The export files are flushed after every
+ * row.
+ *
+ * Following stops when the file is removed or renamed (capture-v.sh renames it when the capture is
+ * done), or when it has not grown for idle-timeout seconds. Anything written before the rename is
+ * still read. The Document returned holds the complete scan-sequence branch and context, the same
+ * as ImportCaptureScans would produce from the finished file, so later steps can process the whole
+ * capture in the usual way.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class FollowCaptureScans implements PipelineOperation<Document, Document> {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final int READ_SIZE = 64 * 1024;
+
+    private ConfiguredPathname sourcePathname = null;
+    private long pollMillis = 250;
+    private long idleMillis = 0;
+    private final List<PipelineOperation<Document, Document>> steps = new ArrayList<>();
+    private final List<Export> exports = new ArrayList<>();
+
+    private final RecordTypeRegistry recordTypes = RecordTypeRegistry.getDefault();
+
+    /**
+     * @param ac
+     *            the containing ApplicationComponent
+     * @param cE
+     *            the Element from the config file that defines this object
+     * @ws.tuxi.element file - the capture file to follow
+     * @ws.tuxi.element step - a pipeline step to run on each new scan, in the usual form
+     * @ws.tuxi.element export - file and nodes elements as for ExportTableToCSV. One row is
+     *                  appended for each scan.
+     * @ws.tuxi.element poll - milliseconds between checks for new data. Default 250.
+     * @ws.tuxi.element idle-timeout - seconds without new data after which to stop. Default 0,
+     *                  which means stop only when the file is removed or renamed.
+     * @throws IOException
+     * @throws ConfigurationException
+     */
+    @SuppressWarnings("unchecked")
+    public FollowCaptureScans(ApplicationComponent ac, Element cE) throws IOException,
+            ConfigurationException {
+
+        // Process each of the configuration sections
+
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            logger.debug("Begin section element <{}>", sectionElement.getLocalName());
+            if ("file".equals(sectionElement.getLocalName())) {
+                sourcePathname = new ConfiguredPathname(sectionElement);
+            } else if ("step".equals(sectionElement.getLocalName())) {
+                if (sectionElement.getAttributeValue("type") == null) {
+                    throw new ConfigurationException("Nested <step> elements must have a type.");
+                }
+                steps.add(ac
+                        .getApplication()
+                        .getConfig()
+                        .getInstanceUsingFactory(PipelineOperation.class, sectionElement,
+                                new Object[] { ac, sectionElement }));
+            } else if ("export".equals(sectionElement.getLocalName())) {
+                exports.add(new Export(sectionElement));
+            } else if ("poll".equals(sectionElement.getLocalName())) {
+                pollMillis = parseNumber(sectionElement,
+                        "Poll interval must be a number of milliseconds.");
+            } else if ("idle-timeout".equals(sectionElement.getLocalName())) {
+                idleMillis = parseNumber(sectionElement,
+                        "Idle timeout must be a number of seconds.") * 1000;
+            } else {
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+            }
+        }
+        if (sourcePathname == null) {
+            throw new ConfigurationException("A source file must be specified.");
+        }
+    }
+
+    private static long parseNumber(Element sectionElement, String message)
+            throws ConfigurationException {
+        try {
+            long value = Long.parseLong(sectionElement.getValue().trim());
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ConfigurationException(message);
+    }
+
+    /**
+     * @see ws.tuxi.lib.pipeline.PipelineOperation#doStep(java.lang.Object)
+     */
+    @Override
+    public Document doStep(Document tree) throws PipelineOperationException {
+        Element twig = tree.getRootElement().getFirstChildElement("context");
+        Element globalContextElement = (twig == null) ? null : new Element(twig);
+        Path srcPath = sourcePathname.getSourcePath(globalContextElement);
+
+        ScanFollower follower = new ScanFollower(tree);
+        tree.getRootElement().appendChild(follower.builder.getScanSequence());
+        try {
+            for (Export export : exports) {
+                export.open(tree);
+            }
+            FileChannel channel = waitForFile(srcPath);
+            if (channel != null) {
+                try {
+                    logger.info("Following file '{}'.", srcPath);
+                    follow(channel, srcPath, follower);
+                } finally {
+                    channel.close();
+                }
+            }
+            for (Export export : exports) {
+                export.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new PipelineOperationException(e);
+        } finally {
+            for (Export export : exports) {
+                export.closeQuietly();
+            }
+        }
+        if (follower.depth != 0) {
+            logger.warn("The last scan in '{}' is incomplete and was skipped.", srcPath);
+        }
+        logger.info("Scan count: {}", follower.scanCount);
+        ImportCaptureScans.addSourceContext(tree, srcPath);
+        return tree;
+    }
+
+    // The capture may not have started yet
+
+    private FileChannel waitForFile(Path srcPath) throws IOException {
+        long start = System.currentTimeMillis();
+        while (!Files.exists(srcPath)) {
+            if (idleMillis > 0 && System.currentTimeMillis() - start > idleMillis) {
+                logger.warn("File '{}' did not appear.", srcPath);
+                return null;
+            }
+            if (!sleep()) {
+                return null;
+            }
+        }
+        return FileChannel.open(srcPath, StandardOpenOption.READ);
+    }
+
+    private void follow(FileChannel channel, Path srcPath, ScanFollower follower)
+            throws IOException, PipelineOperationException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+        long lastGrowth = System.currentTimeMillis();
+        while (true) {
+            boolean grew = false;
+            while (channel.read(buffer) > 0) {
+                grew = true;
+                buffer.flip();
+                follower.bytes(buffer);
+                buffer.clear();
+            }
+            if (grew) {
+                lastGrowth = System.currentTimeMillis();
+                continue;
+            }
+
+            // Nothing new. The channel still reads a file that has been renamed, so a last read
+            // is made after the name is gone.
+
+            if (!Files.exists(srcPath)) {
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    follower.bytes(buffer);
+                    buffer.clear();
+                }
+                logger.info("File '{}' is gone, following stopped.", srcPath);
+                return;
+            }
+            if (idleMillis > 0 && System.currentTimeMillis() - lastGrowth > idleMillis) {
+                logger.info("File '{}' has not grown for {} s, following stopped.", srcPath,
+                        idleMillis / 1000);
+                return;
+            }
+            if (!sleep()) {
+                return;
+            }
+        }
+    }
+
+    private boolean sleep() {
+        try {
+            Thread.sleep(pollMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.info("Interrupted, following stopped.");
+            return false;
+        }
+    }
+
+    /**
+     * Splits the bytes read into lines, collects the lines of each scan, and processes the scan
+     * when its end marker arrives. Every "+++" header line opens a block and every "---" line
+     * closes one, so a scan is complete when the depth returns to 0.
+     */
+    private class ScanFollower {
+        final Document tree;
+        final ImportCaptureScans.ScanSequenceBuilder builder =
+                new ImportCaptureScans.ScanSequenceBuilder(ImportCaptureScans.DATA_FIELD_NAMES);
+        final ByteArrayOutputStream partLine = new ByteArrayOutputStream();
+        final StringBuilder scanText = new StringBuilder();
+        int depth = 0;
+        int scanCount = 0;
+
+        ScanFollower(Document tree) {
+            this.tree = tree;
+        }
+
+        void bytes(ByteBuffer buffer) throws IOException, PipelineOperationException {
+            byte[] array = buffer.array();
+            int start = buffer.position();
+            for (int idx = start; idx < buffer.limit(); idx++) {
+                if (array[idx] == '\n') {
+                    partLine.write(array, start, idx - start);
+                    String line = new String(partLine.toByteArray(), StandardCharsets.UTF_8);
+                    partLine.reset();
+                    if (line.endsWith("\r")) {
+                        line = line.substring(0, line.length() - 1);
+                    }
+                    line(line);
+                    start = idx + 1;
+                }
+            }
+            partLine.write(array, start, buffer.limit() - start);
+        }
+
+        private void line(String line) throws IOException, PipelineOperationException {
+            String[] header = CaptureLineScanner.parseHeader(line);
+            if (depth == 0 && (header == null || !"Scan".equals(header[0]))) {
+                throw new PipelineOperationException(
+                        "Unrecognized input line.  Expecting start of scan '+++ Scan': " + line);
+            }
+            scanText.append(line).append('\n');
+            if (header != null) {
+                depth++;
+            } else if (CaptureLineScanner.isEndMarker(line)) {
+                depth--;
+            }
+            if (depth == 0) {
+                long start = System.nanoTime();
+                Element scan = parseScan();
+                processScan(scan);
+                logger.debug("Scan {} processed in {} ms.", scanCount - 1,
+                        (System.nanoTime() - start) / 1000000);
+            }
+        }
+
+        private Element parseScan() throws IOException, PipelineOperationException {
+            LineNumberReader scanReader = new LineNumberReader(new StringReader(
+                    scanText.toString()));
+            scanText.setLength(0);
+            scanReader.readLine();
+            builder.startScan(scanCount++);
+            try {
+                ImportCaptureScans.readScanRecords(scanReader, recordTypes, builder);
+            } catch (PipelineSourceException e) {
+                throw new PipelineOperationException(e);
+            }
+            builder.endScan();
+            Element scanSequence = builder.getScanSequence();
+            return (Element) scanSequence.getChild(scanSequence.getChildCount() - 1);
+        }
+
+        // Run the nested steps on a Document that holds only the context and the new scan
+
+        private void processScan(Element scan) throws IOException, PipelineOperationException {
+            if (steps.isEmpty() && exports.isEmpty()) {
+                return;
+            }
+            Element root = new Element(tree.getRootElement().getLocalName());
+            Element context = tree.getRootElement().getFirstChildElement("context");
+            if (context != null) {
+                root.appendChild(new Element(context));
+            }
+            Element scanSequence = new Element("scan-sequence");
+            scanSequence.appendChild(new Element(scan));
+            root.appendChild(scanSequence);
+            Document scanDocument = new Document(root);
+            for (PipelineOperation<Document, Document> step : steps) {
+                scanDocument = step.doStep(scanDocument);
+            }
+            for (Export export : exports) {
+                export.writeRow(scanDocument);
+            }
+        }
+    }
+
+    /**
+     * The files and columns of one export element, and the writers that are open while the file
+     * is followed.
+     */
+    private class Export {
+        final List<ConfiguredPathname> sinkPathnames = new ArrayList<>();
+        final List<ConfiguredNodeSet> selectors = new ArrayList<>();
+        final StringBuilder line = new StringBuilder();
+        FanOutChannelWriter csvOut = null;
+        FanOutChannelWriter binOut = null;
+
+        Export(Element cE) throws ConfigurationException {
+            Elements sectionElements = cE.getChildElements();
+            for (int idx = 0; idx < sectionElements.size(); idx++) {
+                Element sectionElement = sectionElements.get(idx);
+                if ("file".equals(sectionElement.getLocalName())) {
+                    sinkPathnames.add(new ConfiguredPathname(sectionElement));
+                } else if ("nodes".equals(sectionElement.getLocalName())) {
+                    selectors.add(new ConfiguredNodeSet(sectionElement));
+                } else {
+                    logger.warn("Skipping <{}> element. Element not recognized.",
+                            sectionElement.getLocalName());
+                }
+            }
+            if (sinkPathnames.isEmpty() || selectors.isEmpty()) {
+                throw new ConfigurationException(
+                        "An export must specify at least one file and one nodes element.");
+            }
+        }
+
+        // Create the files and write the CSV header row
+
+        void open(Document tree) throws IOException, PipelineOperationException {
+            Element globalContextElement = tree.getRootElement().getFirstChildElement("context");
+            List<Path> csvPaths = new ArrayList<>();
+            List<Path> binPaths = new ArrayList<>();
+            for (ConfiguredPathname cpn : sinkPathnames) {
+                Path theSinkPath = cpn.getSinkPath(globalContextElement);
+                String format = FilenameUtils.getExtension(theSinkPath.toString());
+                switch (format) {
+                case "csv":
+                    logger.info("Opening file '{}' for CSV export.", theSinkPath.toString());
+                    csvPaths.add(theSinkPath);
+                    break;
+                case "bin":
+                case "raw":
+                    logger.info("Opening file '{}' for binary export.", theSinkPath.toString());
+                    binPaths.add(theSinkPath);
+                    break;
+                default:
+                    throw new PipelineOperationException("Unrecognized table format: " + format);
+                }
+            }
+            if (!csvPaths.isEmpty()) {
+                csvOut = new FanOutChannelWriter(csvPaths, Charset.defaultCharset());
+                line.setLength(0);
+                for (int idx = 0; idx < selectors.size(); idx++) {
+                    String aLabel = selectors.get(idx).getLabel(tree);
+                    ExportTableToCSV.appendField(line, (aLabel != null) ? aLabel : "Field"
+                            + Integer.toString(idx), idx == 0);
+                }
+                line.append("\r\n");
+                csvOut.write(line);
+                csvOut.flush();
+            }
+            if (!binPaths.isEmpty()) {
+                binOut = new FanOutChannelWriter(binPaths, null);
+            }
+        }
+
+        void writeRow(Document scanDocument) throws IOException, PipelineOperationException {
+            line.setLength(0);
+            for (int idx = 0; idx < selectors.size(); idx++) {
+                Nodes col = selectors.get(idx).getNodeSet(scanDocument);
+                String value = (col.size() > 0) ? col.get(0).getValue() : "0";
+                if (csvOut != null) {
+                    ExportTableToCSV.appendField(line, value, idx == 0);
+                }
+                if (binOut != null) {
+                    binOut.write((byte) (ExportTableToCSV.toBinValue(
+                            selectors.get(idx).getLabel(scanDocument), idx, value) & 0xFF));
+                }
+            }
+            if (csvOut != null) {
+                line.append("\r\n");
+                csvOut.write(line);
+                csvOut.flush();
+            }
+            if (binOut != null) {
+                binOut.flush();
+            }
+        }
+
+        void close() throws IOException {
+            FanOutChannelWriter csv = csvOut;
+            FanOutChannelWriter bin = binOut;
+            csvOut = null;
+            binOut = null;
+            try {
+                if (csv != null) {
+                    csv.close();
+                }
+            } finally {
+                if (bin != null) {
+                    bin.close();
+                }
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                logger.warn("Error closing export file: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ws.finson.wifix.app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.cfg.ApplicationComponent;
+import ws.tuxi.lib.cfg.ConfigurationException;
+import ws.tuxi.lib.pipeline.PipelineOperation;
+import ws.tuxi.lib.pipeline.PipelineOperationException;
+
+/**
+ * This GenerateSyntheticData class writes made-up capture files and csv tables for load testing
+ * the other steps at sizes well beyond the captures on hand. The capture files are written by a
+ * {@link SyntheticCapture} and the tables by a {@link SyntheticTable}, each configured from the
+ * element that asks for it.
+ *
+ * <pre>
+ * &lt;step type="GenerateSyntheticData"&gt;
+ *   &lt;capture scans="100000" seed="1" count="4"&gt;
+ *     &lt;file suffix="-raw" extension="txt" /&gt;
+ *     &lt;networks&gt;200&lt;/networks&gt;
+ *   &lt;/capture&gt;
+ *   &lt;table rows="1000000" seed="1"&gt;
+ *     &lt;file extension="csv" /&gt;
+ *     &lt;columns&gt;64&lt;/columns&gt;
+ *   &lt;/table&gt;
+ * &lt;/step&gt;
+ * </pre>
+ *
+ * The files are named through {@link ConfiguredPathname} as sinks. When count is more than one,
+ * the number of each file is added to the base of its name, so the example above writes
+ * SYN-1-raw.txt to SYN-4-raw.txt when the base is SYN, ready for {@link BatchSteps}. A file named
+ * outright gets the number at the end of its name instead. The seed of each file is the given seed
+ * plus that number, so every file is different and every file can be made again exactly. The
+ * Document returned is the Document passed in, unchanged.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class GenerateSyntheticData implements PipelineOperation<Document, Document> {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final List<Request> requests = new ArrayList<>();
+
+    /**
+     * @param ac
+     *            the containing ApplicationComponent
+     * @param cE
+     *            the Element from the config file that defines this object
+     * @ws.tuxi.element capture - a capture file to write. Attribute scans is the number of scans,
+     *                  seed the seed (default 1) and count the number of files (default 1). The
+     *                  child elements are a file element and the settings of
+     *                  {@link SyntheticCapture}.
+     * @ws.tuxi.element table - a csv table to write. Attribute rows is the number of rows, seed and
+     *                  count as for capture. The child elements are a file element and the
+     *                  settings of {@link SyntheticTable}.
+     * @throws IOException
+     * @throws ConfigurationException
+     */
+    public GenerateSyntheticData(ApplicationComponent ac, Element cE) throws IOException,
+            ConfigurationException {
+
+        // Process each of the configuration sections
+
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            logger.debug("Begin section element <{}>", sectionElement.getLocalName());
+            if ("capture".equals(sectionElement.getLocalName())) {
+                Request r = new Request(sectionElement, "scans");
+                r.capture = new SyntheticCapture(sectionElement);
+                requests.add(r);
+            } else if ("table".equals(sectionElement.getLocalName())) {
+                Request r = new Request(sectionElement, "rows");
+                r.table = new SyntheticTable(sectionElement);
+                requests.add(r);
+            } else {
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+            }
+        }
+        if (requests.isEmpty()) {
+            throw new ConfigurationException(
+                    "At least one capture or table element must be specified.");
+        }
+    }
+
+    /**
+     * @see ws.tuxi.lib.pipeline.PipelineOperation#doStep(java.lang.Object)
+     */
+    @Override
+    public Document doStep(Document tree) throws PipelineOperationException {
+        Element globalContextElement = tree.getRootElement().getFirstChildElement("context");
+        for (Request r : requests) {
+            Path sinkPath = r.pathname.getSinkPath(globalContextElement);
+            for (int n = 1; n <= r.count; n++) {
+                Path p = sinkPath;
+                long seed = r.seed;
+                if (r.count > 1) {
+                    p = r.pathname.getSinkPath(globalContextElement, numberedContext(
+                            globalContextElement, n));
+                    if (p.equals(sinkPath)) {
+                        String name = sinkPath.getFileName().toString();
+                        String ext = FilenameUtils.getExtension(name);
+                        p = sinkPath.resolveSibling(FilenameUtils.getBaseName(name) + "-" + n
+                                + (ext.isEmpty() ? "" : "." + ext));
+                    }
+                    seed += n;
+                }
+                long start = System.nanoTime();
+                try {
+                    if (p.getParent() != null) {
+                        Files.createDirectories(p.getParent());
+                    }
+                    if (r.capture != null) {
+                        r.capture.write(p, r.size, seed);
+                    } else {
+                        r.table.write(p, r.size, seed);
+                    }
+                    logger.info("Wrote '{}', {} MB in {} ms.", p, String.format("%.1f",
+                            Files.size(p) / (1024.0 * 1024.0)),
+                            (System.nanoTime() - start) / 1000000);
+                } catch (IOException e) {
+                    throw new PipelineOperationException(e);
+                }
+            }
+        }
+        return tree;
+    }
+
+    // A local context whose base is the base of the global context with the file number added
+
+    private static Element numberedContext(Element globalContextElement, int n) {
+        String base = "";
+        if (globalContextElement != null
+                && globalContextElement.getFirstChildElement("base") != null) {
+            base = globalContextElement.getFirstChildElement("base").getValue();
+        }
+        Element baseElement = new Element("base");
+        baseElement.appendChild(base + "-" + n);
+        Element localContextElement = new Element("context");
+        localContextElement.appendChild(baseElement);
+        return localContextElement;
+    }
+
+    /**
+     * One capture or table element.
+     */
+    private static class Request {
+        final ConfiguredPathname pathname;
+        final int size;
+        final long seed;
+        final int count;
+        SyntheticCapture capture;
+        SyntheticTable table;
+
+        Request(Element e, String sizeName) throws ConfigurationException {
+            Element fileElement = e.getFirstChildElement("file");
+            if (fileElement == null) {
+                throw new ConfigurationException("<" + e.getLocalName()
+                        + "> must have a file element.");
+            }
+            pathname = new ConfiguredPathname(fileElement);
+            size = (int) SyntheticCapture.parseAttribute(e, sizeName, 10, 0, Integer.MAX_VALUE);
+            try {
+                seed = (e.getAttributeValue("seed") == null) ? 1 : Long.parseLong(e
+                        .getAttributeValue("seed").trim());
+            } catch (NumberFormatException ex) {
+                throw new ConfigurationException("<" + e.getLocalName()
+                        + "> attribute seed must be a whole number.");
+            }
+            count = (int) SyntheticCapture.parseAttribute(e, "count", 1, 1, 100000);
+        }
+    }
+}
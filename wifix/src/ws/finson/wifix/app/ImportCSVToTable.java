@@ -1,25 +1,15 @@
 package ws.finson.wifix.app;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Pattern;
 
-import nu.xom.Attribute;
 import nu.xom.Document;
 import nu.xom.Element;
 import nu.xom.Elements;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +29,14 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
  * not combined, thus missing values can be indicated by two successive delimiters. Leading and
  * trailing spaces are trimmed from labels and values.
  * 
+ * The table is kept in columnar form (see {@link ColumnarTableElement}) and the col and value
+ * Elements are only built if a later step needs the XML view of it.
+ * 
+ * The files are read by a {@link ParallelCSVReader}, so large files are parsed in pieces on all
+ * the available cores and several files are read at the same time. The optional
+ * &lt;chunk-size&gt; element sets the size in bytes of the pieces. The tables and context entries
+ * are always added in the order the files are listed in the configuration.
+ * 
  * @author Doug Johnson, Dec 2014
  * 
  */
@@ -47,7 +45,7 @@ public class ImportCSVToTable implements PipelineOperation<Document, Document> {
 
     private List<ConfiguredPathname> sourcePathnames = new ArrayList<>();
     private String delimiter = ",";
-    private InputStreamReader sourceReader = null;
+    private int chunkSize = 0;
 
     public ImportCSVToTable(ApplicationComponent ac, Element cE) throws ConfigurationException,
             IOException {
@@ -62,6 +60,13 @@ public class ImportCSVToTable implements PipelineOperation<Document, Document> {
                 sourcePathnames.add(new ConfiguredPathname(sectionElement));
             } else if ("delimiter".equals(sectionElement.getLocalName())) {
                 delimiter = sectionElement.getValue();
+            } else if ("chunk-size".equals(sectionElement.getLocalName())) {
+                try {
+                    chunkSize = Integer.parseInt(sectionElement.getValue().trim());
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "Chunk size must be an integer number of bytes.");
+                }
             } else {
                 logger.warn("Skipping <{}> element. Element not recognized.",
                         sectionElement.getLocalName());
@@ -80,65 +85,24 @@ public class ImportCSVToTable implements PipelineOperation<Document, Document> {
      */
     @Override
     public Document doStep(Document tree) throws PipelineOperationException {
-        Path srcPath;
         Element globalContextElement = tree.getRootElement().getFirstChildElement("context");
         if (globalContextElement == null) {
             logger.warn("Input XML Document has no top-level <context> branch.");
         }
+        List<Path> srcPaths = new ArrayList<>(sourcePathnames.size());
         for (ConfiguredPathname sourcePathname : sourcePathnames) {
-            CSVParser parser;
-            CSVFormat sourceFormat = CSVFormat.RFC4180.withDelimiter(delimiter.charAt(0))
-                    .withHeader();
-            try {
-                srcPath = sourcePathname.getSourcePath(globalContextElement);
-                logger.info("Opening file '{}' for CSV import.", srcPath.toString());
-                sourceReader = new InputStreamReader(Files.newInputStream(srcPath,
-                        StandardOpenOption.READ), StandardCharsets.UTF_8);
-                parser = new CSVParser(sourceReader, sourceFormat);
-            } catch (IOException e) {
-                throw new PipelineOperationException(e);
-            }
-
-            Map<String, Integer> labelMap = parser.getHeaderMap();
-            logger.debug("Column label count: {}", labelMap.size());
-
-            Element tableElement = new Element("table");
-
-            Element[] col = new Element[labelMap.size()];
-            int columnIndex = 0;
-            for (String label : labelMap.keySet()) {
-                logger.trace("Label {}: {}", labelMap.get(label), label);
-                Element columnElement = new Element("col");
-                columnElement.addAttribute(new Attribute("name", label));
-                tableElement.appendChild(columnElement);
-                col[columnIndex++] = columnElement;
-            }
+            Path srcPath = sourcePathname.getSourcePath(globalContextElement);
+            logger.info("Opening file '{}' for CSV import.", srcPath.toString());
+            srcPaths.add(srcPath);
+        }
 
-            // read the data file, line by line and build the XML table directly
+        // Read all the files at once, then attach the tables in configuration order
 
-            int recordCount = 0;
-            Iterator<CSVRecord> iter = parser.iterator();
-            try {
-                while (iter.hasNext()) {
-                    CSVRecord rec = iter.next();
-                    if (!rec.isConsistent()) {
-                        throw new PipelineOperationException("Line "
-                                + parser.getCurrentLineNumber() + ".  Number of data values ("
-                                + rec.size() + ") doesn't match number of labels ("
-                                + labelMap.size() + ").");
-                    }
-                    for (int idx = 0; idx < rec.size(); idx++) {
-                        Element newValueElement = new Element("value");
-                        newValueElement.appendChild(rec.get(idx));
-                        col[idx].appendChild(newValueElement);
-                    }
-                    recordCount++;
-                }
-                logger.debug("Record count: {}", recordCount);
-            } catch (Exception e) {
-                throw new PipelineOperationException(e);
-            }
-            tree.getRootElement().appendChild(tableElement);
+        List<ColumnarTableElement> tables = new ParallelCSVReader(delimiter.charAt(0), chunkSize)
+                .readAll(srcPaths);
+        for (int idx = 0; idx < srcPaths.size(); idx++) {
+            Path srcPath = srcPaths.get(idx);
+            tree.getRootElement().appendChild(tables.get(idx));
 
             // Store some additional context information for downstream processors
 
@@ -153,12 +117,6 @@ public class ImportCSVToTable implements PipelineOperation<Document, Document> {
                 sourceDatasetName.appendChild(datasetName);
                 globalContextElement.appendChild(sourceDatasetName);
             }
-            try {
-                parser.close();
-            } catch (IOException e) {
-                throw new PipelineOperationException(e);
-            }
-
         }
         return tree;
     }
@@ -3,16 +3,12 @@ package ws.finson.wifix.app;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.lang.reflect.Constructor;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import nu.xom.Attribute;
 import nu.xom.Document;
@@ -27,6 +23,7 @@ import ws.tuxi.lib.cfg.ApplicationComponent;
 import ws.tuxi.lib.cfg.ConfigurationException;
 import ws.tuxi.lib.pipeline.PipelineOperation;
 import ws.tuxi.lib.pipeline.PipelineOperationException;
+import ws.tuxi.lib.pipeline.PipelineSourceException;
 
 /**
  * This ImportCaptureScans class reads a raw data capture text file and creates an XML document
@@ -35,6 +32,11 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
  * The format of the incoming file is determined by the way the data was acquired, and so this
  * particular class is not very flexible with regard to input changes.
  * 
+ * The file is read as a stream of parse events (see {@link CaptureScanHandler}) and each scan
+ * Element is added to the scan-sequence branch as soon as the end of the scan is read, so only
+ * the current scan is ever held in memory apart from the output tree itself. This keeps long
+ * capture sessions manageable.
+ * 
  * @author Doug Johnson, Nov 2014
  * 
  */
@@ -45,11 +47,13 @@ public class ImportCaptureScans implements PipelineOperation<Document, Document>
     private ConfiguredPathname sourcePathname = null;
     private Path srcPath = null;
 
-    private final List<DAP_Scan> scans = new ArrayList<>();
+    // The data fields that are kept from each scan, in addition to the timetag
+
+    static final String[] DATA_FIELD_NAMES = { "SSID", "BSSID", "RSSI", "CHANNEL", "CC" };
 
-    // Patterns to match each of the header lines
+    // The record types are looked up once, not per record
 
-    private final Pattern startScan = Pattern.compile("^\\+\\+\\+\\s+(Scan)(?:\\s+(\\w+))*\\s*$");
+    private final RecordTypeRegistry recordTypes = RecordTypeRegistry.getDefault();
 
     public ImportCaptureScans(ApplicationComponent ac, Element cE) throws ConfigurationException,
             IOException {
@@ -87,83 +91,207 @@ public class ImportCaptureScans implements PipelineOperation<Document, Document>
             throw new PipelineOperationException(e);
         }
 
-        // read the data file, line by line and build a POJO tree
+        // read the data file, line by line and build the scan-sequence branch as we go
 
+        ScanSequenceBuilder builder = new ScanSequenceBuilder(DATA_FIELD_NAMES);
+        int scanCount = 0;
         String line = null;
         try {
             while ((line = sourceReader.readLine()) != null) {
-                Matcher m = startScan.matcher(line);
-                if (m.matches()) {
-                    String className = "ws.finson.wifix.app." + "Basic" + m.group(1);
-                    logger.debug("Scan start: {}", className);
-                    Class<DAP_Scan> c = (Class<DAP_Scan>) Class.forName(className);
-                    Constructor<DAP_Scan> maker = c.getConstructor(LineNumberReader.class);
-                    scans.add(maker.newInstance(sourceReader));
+                String[] header = CaptureLineScanner.parseHeader(line);
+                if (header != null && "Scan".equals(header[0])) {
+                    logger.debug("Scan start: {}", header[0]);
+                    builder.startScan(scanCount++);
+                    readScanRecords(sourceReader, recordTypes, builder);
+                    builder.endScan();
                 } else {
                     throw new PipelineOperationException(
                             "Unrecognized input line.  Expecting start of scan '+++ Scan': " + line);
                 }
             }
-        } catch (IOException | IllegalArgumentException | ReflectiveOperationException
-                | SecurityException e) {
+        } catch (IOException | PipelineSourceException e) {
             throw new PipelineOperationException(e);
+        } finally {
+            try {
+                sourceReader.close();
+            } catch (IOException e) {
+                logger.warn("Error closing '{}': {}", srcPath.toString(), e.getMessage());
+            }
+        }
+        logger.info("Scan count: {}", scanCount);
+        tree.getRootElement().appendChild(builder.getScanSequence());
+
+        // Store some additional context information for downstream processors
+
+        addSourceContext(tree, srcPath);
+        return tree;
+    }
+
+    // Record the name of the source file and the dataset name derived from it in the context
+    // branch
+
+    static void addSourceContext(Document tree, Path srcPath) {
+        Element contextBranch = tree.getRootElement().getFirstChildElement("context");
+        if (contextBranch == null) {
+            LoggerFactory.getLogger(ImportCaptureScans.class).warn(
+                    "Input XML Document has no top-level <context> branch.");
+        } else {
+            Element sourceElement = new Element("source");
+            sourceElement.appendChild(srcPath.getFileName().toString());
+            contextBranch.appendChild(sourceElement);
+
+            String datasetName = FilenameUtils.getBaseName(srcPath.getFileName().toString());
+            datasetName = datasetName.replaceFirst("-raw$", "");
+            Element sourceDatasetName = new Element("dataset");
+            sourceDatasetName.appendChild(datasetName);
+            contextBranch.appendChild(sourceDatasetName);
+        }
+    }
+
+    // Read and interpret records from the raw file until we find the end-of-scan marker. Each
+    // record passes its rows straight to the handler.
+
+    static void readScanRecords(LineNumberReader sourceReader, RecordTypeRegistry recordTypes,
+            CaptureScanHandler handler) throws IOException, PipelineSourceException,
+            PipelineOperationException {
+        Logger logger = LoggerFactory.getLogger(ImportCaptureScans.class);
+        String line = null;
+        while ((line = sourceReader.readLine()) != null) {
+            logger.trace(line);
+            String[] header = CaptureLineScanner.parseHeader(line);
+            if (header != null) {
+                logger.trace("Record start: {}", header[0]);
+                recordTypes.getFactory(header).newRecord(sourceReader, handler);
+            } else if (CaptureLineScanner.isEndMarker(line)) {
+                return;
+            } else {
+                throw new PipelineOperationException("Unexpected line format: " + line);
+            }
+        }
+    }
+
+    /**
+     * Build scan Elements from the parse events and append each one to the scan-sequence branch
+     * as soon as the scan is complete. Only the values of the current scan are held here, and
+     * only for the fields that are kept.
+     *
+     * As in BasicScan, the timetag comes from the first record that has one, each data field comes
+     * from the last record that has values for it, and the data fields are only recorded if all of
+     * them are present.
+     */
+    static class ScanSequenceBuilder implements CaptureScanHandler {
+        private final String[] dataFieldNames;
+        private final Element scanBranch = new Element("scan-sequence");
+
+        private int ordinal;
+        private String timetag;
+        private final Map<String, Element> scanFields = new HashMap<>();
+
+        private String[] recordNames;
+        private Element[] recordFields;
+        private int recordRows;
+
+        ScanSequenceBuilder(String[] dataFieldNames) {
+            this.dataFieldNames = dataFieldNames;
+        }
+
+        Element getScanSequence() {
+            return scanBranch;
+        }
+
+        @Override
+        public void startScan(int ordinal) {
+            this.ordinal = ordinal;
+            timetag = null;
+            scanFields.clear();
+            recordNames = null;
         }
-        logger.info("Scan count: {}", scans.size());
 
-        // Walk the POJO tree and build a new scan-sequence branch
+        @Override
+        public void fieldNames(String[] names) {
+            endRecord();
+            recordNames = names;
+            recordFields = new Element[names.length];
+            recordRows = 0;
+            for (int idx = 0; idx < names.length; idx++) {
+                if (isDataField(names[idx])) {
+                    recordFields[idx] = new Element("scan-values");
+                    recordFields[idx].addAttribute(new Attribute("field", names[idx]));
+                }
+            }
+        }
 
-        Element scanBranch = new Element("scan-sequence");
-        int ordinal = 0;
-        for (DAP_Scan currentScan : scans) {
+        @Override
+        public void fieldRow(String[] values) {
+            if (recordRows++ == 0) {
+                for (int idx = 0; idx < recordNames.length; idx++) {
+                    if (timetag == null && "timetag".equals(recordNames[idx])) {
+                        timetag = values[idx];
+                    }
+                }
+            }
+            for (int idx = 0; idx < recordFields.length; idx++) {
+                if (recordFields[idx] != null) {
+                    Element valueElement = new Element("value");
+                    valueElement.appendChild(values[idx]);
+                    recordFields[idx].appendChild(valueElement);
+                }
+            }
+        }
+
+        @Override
+        public void endScan() {
+            endRecord();
             Element aScanElement = new Element("scan");
-            aScanElement.addAttribute(new Attribute("ordinal", Integer.toString(ordinal++)));
+            aScanElement.addAttribute(new Attribute("ordinal", Integer.toString(ordinal)));
 
             // record the time of this scan
 
             Element scanValuesElement = new Element("scan-values");
             scanValuesElement.addAttribute(new Attribute("field", "timetag"));
             Element valueElement = new Element("value");
-            valueElement.appendChild(currentScan.getValue("timetag"));
+            valueElement.appendChild(timetag);
             scanValuesElement.appendChild(valueElement);
             aScanElement.appendChild(scanValuesElement);
 
-            // record the acquired data
+            // record the acquired data, in the same order BasicScan.getValues() would give
 
-            Map<String, List<String>> table = currentScan.getValues(new String[] { "SSID", "BSSID",
-                    "RSSI", "CHANNEL", "CC" });
-            if (table != null) {
-                logger.trace("Data table fields: {}", table.keySet().toString());
+            Map<String, Element> table = new HashMap<String, Element>();
+            for (String fieldName : dataFieldNames) {
+                if (scanFields.containsKey(fieldName)) {
+                    table.put(fieldName, scanFields.get(fieldName));
+                }
+            }
+            if (table.size() == dataFieldNames.length) {
                 for (String key : table.keySet()) {
-                    scanValuesElement = new Element("scan-values");
-                    scanValuesElement.addAttribute(new Attribute("field", key));
-                    for (String value : table.get(key)) {
-                        valueElement = new Element("value");
-                        valueElement.appendChild(value);
-                        scanValuesElement.appendChild(valueElement);
-                    }
-                    aScanElement.appendChild(scanValuesElement);
+                    aScanElement.appendChild(table.get(key));
                 }
             }
             scanBranch.appendChild(aScanElement);
+            scanFields.clear();
         }
-        tree.getRootElement().appendChild(scanBranch);
 
-        // Store some additional context information for downstream processors
+        // A field replaces the same field from an earlier record only if it has values
 
-        Element contextBranch = tree.getRootElement().getFirstChildElement("context");
-        if (contextBranch == null) {
-            logger.warn("Input XML Document has no top-level <context> branch.");
-        } else {
-            Element sourceElement = new Element("source");
-            sourceElement.appendChild(srcPath.getFileName().toString());
-            contextBranch.appendChild(sourceElement);
+        private void endRecord() {
+            if (recordNames != null && recordRows > 0) {
+                for (int idx = 0; idx < recordFields.length; idx++) {
+                    if (recordFields[idx] != null) {
+                        scanFields.put(recordNames[idx], recordFields[idx]);
+                    }
+                }
+            }
+            recordNames = null;
+            recordFields = null;
+        }
 
-            String datasetName = FilenameUtils.getBaseName(srcPath.getFileName().toString());
-            datasetName = datasetName.replaceFirst("-raw$", "");
-            Element sourceDatasetName = new Element("dataset");
-            sourceDatasetName.appendChild(datasetName);
-            contextBranch.appendChild(sourceDatasetName);
+        private boolean isDataField(String name) {
+            for (String fieldName : dataFieldNames) {
+                if (fieldName.equals(name)) {
+                    return true;
+                }
+            }
+            return false;
         }
-        return tree;
     }
 }
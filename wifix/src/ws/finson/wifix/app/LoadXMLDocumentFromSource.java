@@ -21,7 +21,8 @@ import ws.tuxi.lib.pipeline.PipelineSource;
 import ws.tuxi.lib.pipeline.PipelineSourceException;
 
 /**
- * This LoadXMLDocumentFromSource class reads an XML Document from the specified file.
+ * This LoadXMLDocumentFromSource class reads an XML Document from the specified file. Files with
+ * the extension .xbin or .xbin.gz are read in the {@link CompactDocumentFormat}.
  * 
  * @author Doug Johnson, Jun 13, 2013
  * 
@@ -30,7 +31,6 @@ public class LoadXMLDocumentFromSource implements PipelineSource<Document> {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private ConfiguredPathname sourcePathName = null;
-    private BufferedReader sourceReader = null;
 
     /**
      * @param ac
@@ -69,13 +69,31 @@ public class LoadXMLDocumentFromSource implements PipelineSource<Document> {
         try {
             Path srcPath = sourcePathName.getSourcePath(null);
             logger.info("Opening file '{}' for XML parsing.", srcPath.toString());
-            sourceReader = Files.newBufferedReader(sourcePathName.getSourcePath(null),
-                    Charset.defaultCharset());
-            Builder parser = new Builder();
-            registerTree = parser.build(sourceReader);
+            registerTree = read(srcPath);
         } catch (ParsingException | IOException e) {
             throw new PipelineSourceException(e);
         }
         return registerTree;
     }
+
+    /**
+     * Read a Document from a file, parsing it as XML text or reading it in the
+     * {@link CompactDocumentFormat} depending on the file extension.
+     *
+     * @param srcPath
+     *            the file to read
+     * @return the Document
+     * @throws IOException
+     * @throws ParsingException
+     */
+    static Document read(Path srcPath) throws IOException, ParsingException {
+        if (CompactDocumentFormat.isCompactPath(srcPath)) {
+            return CompactDocumentFormat.read(srcPath);
+        }
+        try (BufferedReader sourceReader = Files.newBufferedReader(srcPath,
+                Charset.defaultCharset())) {
+            Builder parser = new Builder();
+            return parser.build(sourceReader);
+        }
+    }
 }
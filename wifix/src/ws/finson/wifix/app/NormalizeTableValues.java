@@ -2,7 +2,14 @@ package ws.finson.wifix.app;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import nu.xom.Document;
 import nu.xom.Element;
@@ -22,13 +29,27 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
  * This NormalizeTableValues class reads all the entries in a table, calculates the min and max,
  * then scales all the values to fit a given range and type and rewrites every value in the table.
  * 
+ * Each column is read once into a primitive array and reduced to its statistics, with all the
+ * columns of all the tables processed in parallel. The column statistics are then combined as the
+ * mode requires and every column is rescaled in one more parallel pass before the results are
+ * stored. Columnar tables get new int (or double, for z-scores) columns and are not materialized.
+ * If there are nodes selectors, only the selected columns are normalized, and in table mode the
+ * min and max are taken over the selected columns only.
+ * 
  * @author Doug Johnson, Dec 24, 2014
  * 
  */
 public class NormalizeTableValues implements PipelineOperation<Document, Document> {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    private enum Mode {
+        TABLE, COLUMN, Z_SCORE
+    }
+
     private List<ConfiguredNodeSet> selectors = new ArrayList<>();
+    private Mode mode = Mode.TABLE;
 
     /**
      * @param ac
@@ -37,6 +58,10 @@ public class NormalizeTableValues implements PipelineOperation<Document, Documen
      *            the Element from the config file that defines this object
      * @ws.tuxi.element nodes - a {@link ConfiguredNodeSet} that selects some or all of the nodes to
      * be normalized
+     * @ws.tuxi.element mode - "table" (the default) to scale by the min and max of each whole
+     * table, "column" to scale each column by its own min and max, or "z-score" to replace each
+     * value by its z-score within its column. Z-scores are not integers, so they can be exported to csv
+     * but not to bin.
      * 
      * @throws IOException
      * @throws ConfigurationException
@@ -52,6 +77,18 @@ public class NormalizeTableValues implements PipelineOperation<Document, Documen
             logger.debug("Begin section element <{}>", sectionElement.getLocalName());
             if ("nodes".equals(sectionElement.getLocalName())) {
                 selectors.add(new ConfiguredNodeSet(sectionElement));
+            } else if ("mode".equals(sectionElement.getLocalName())) {
+                String modeName = sectionElement.getValue().trim();
+                if ("table".equals(modeName)) {
+                    mode = Mode.TABLE;
+                } else if ("column".equals(modeName)) {
+                    mode = Mode.COLUMN;
+                } else if ("z-score".equals(modeName)) {
+                    mode = Mode.Z_SCORE;
+                } else {
+                    throw new ConfigurationException(
+                            "Normalization mode must be one of table, column or z-score.");
+                }
             } else {
                 logger.warn("Skipping <{}> element. Element not recognized.",
                         sectionElement.getLocalName());
@@ -66,39 +103,298 @@ public class NormalizeTableValues implements PipelineOperation<Document, Documen
     @Override
     public Document doStep(Document in) throws PipelineOperationException {
 
+        // 1. Find the columns to normalize
+
+        List<Target> targets = selectors.isEmpty() ? findAllTargets(in) : findSelectedTargets(in);
+        logger.debug("Normalizing {} columns, mode {}.", targets.size(), mode);
+
+        // 2. Load the values and reduce each column to its statistics, all columns in parallel
+
+        try {
+            pool.invoke(new TargetAction(targets, TargetAction.LOAD));
+        } catch (RuntimeException e) {
+            throw new PipelineOperationException(e);
+        }
+
+        // 3. Combine the column statistics into the statistics each column is scaled by
+
+        if (mode == Mode.TABLE) {
+            Map<Element, ColumnStats> tableStats = new IdentityHashMap<>();
+            for (Target t : targets) {
+                ColumnStats ts = tableStats.get(t.table);
+                if (ts == null) {
+                    ts = new ColumnStats();
+                    tableStats.put(t.table, ts);
+                }
+                ts.merge(t.stats);
+            }
+            for (Target t : targets) {
+                t.scaleBy = tableStats.get(t.table);
+            }
+        } else {
+            for (Target t : targets) {
+                t.scaleBy = t.stats;
+            }
+        }
+
+        // 4. Rescale in parallel, then store the results
+
+        pool.invoke(new TargetAction(targets, (mode == Mode.Z_SCORE) ? TargetAction.Z_SCORE
+                : TargetAction.RANGE));
+        for (Target t : targets) {
+            t.store();
+        }
+        return in;
+    }
+
+    // Every column of every table
+
+    private List<Target> findAllTargets(Document in) {
+        List<Target> targets = new ArrayList<>();
         Nodes tables = in.query("//table");
         for (int tableIndex = 0; tableIndex < tables.size(); tableIndex++) {
-            Node aTable = tables.get(tableIndex);
-            double minValue = Double.MAX_VALUE;
-            double maxValue = Double.MIN_VALUE;
-            Nodes columns = aTable.query("col");
-
-            for (int colIndex = 0; colIndex < columns.size(); colIndex++) {
-                Node column = columns.get(colIndex);
-                Nodes values = column.query("value");
-                for (int rowIndex = 0; rowIndex < values.size(); rowIndex++) {
-                    double currentValue = Double.parseDouble(values.get(rowIndex).getValue());
-                    minValue = Math.min(currentValue, minValue);
-                    maxValue = Math.max(currentValue, maxValue);
+            Element aTable = (Element) tables.get(tableIndex);
+            if (aTable instanceof ColumnarTableElement
+                    && !((ColumnarTableElement) aTable).isMaterialized()) {
+                ColumnarTableElement theTable = (ColumnarTableElement) aTable;
+                for (int colIndex = 0; colIndex < theTable.getColumnCount(); colIndex++) {
+                    targets.add(new Target(theTable, colIndex));
+                }
+            } else {
+                Elements columns = aTable.getChildElements("col");
+                for (int colIndex = 0; colIndex < columns.size(); colIndex++) {
+                    Elements values = columns.get(colIndex).getChildElements("value");
+                    List<Element> valueElements = new ArrayList<>(values.size());
+                    for (int rowIndex = 0; rowIndex < values.size(); rowIndex++) {
+                        valueElements.add(values.get(rowIndex));
+                    }
+                    targets.add(new Target(aTable, valueElements));
+                }
+            }
+        }
+        return targets;
+    }
+
+    // Only the columns named by the <nodes> selectors. If they all name columns of columnar
+    // tables, those are used directly. Otherwise the tables are materialized and the selected
+    // value Elements are grouped by their parent.
+
+    private List<Target> findSelectedTargets(Document in) {
+        List<Target> targets = new ArrayList<>();
+        List<TableColumn> columns = new ArrayList<>(selectors.size());
+        for (ConfiguredNodeSet selector : selectors) {
+            columns.add(selector.getColumn(in));
+        }
+        if (!columns.contains(null)) {
+            List<ColumnarTableElement> tables = ColumnarTableElement.findAll(in);
+            Set<TableColumn> seen = Collections.newSetFromMap(new IdentityHashMap<TableColumn, Boolean>());
+            for (TableColumn column : columns) {
+                if (!seen.add(column)) {
+                    continue;
+                }
+                for (ColumnarTableElement theTable : tables) {
+                    for (int colIndex = 0; colIndex < theTable.getColumnCount(); colIndex++) {
+                        if (theTable.getColumn(colIndex) == column) {
+                            targets.add(new Target(theTable, colIndex));
+                        }
+                    }
+                }
+            }
+            return targets;
+        }
+
+        ColumnarTableElement.materializeAll(in);
+        Map<Element, List<Element>> groups = new LinkedHashMap<>();
+        Set<Element> seen = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+        for (ConfiguredNodeSet selector : selectors) {
+            Nodes values = selector.getNodeSet(in);
+            for (int idx = 0; idx < values.size(); idx++) {
+                Node n = values.get(idx);
+                if (!(n instanceof Element) || !(n.getParent() instanceof Element)) {
+                    logger.warn("Skipping a selected node that is not a table value Element.");
+                    continue;
+                }
+                if (!seen.add((Element) n)) {
+                    continue;
+                }
+                Element column = (Element) n.getParent();
+                List<Element> group = groups.get(column);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(column, group);
+                }
+                group.add((Element) n);
+            }
+        }
+        for (Map.Entry<Element, List<Element>> entry : groups.entrySet()) {
+            Element column = entry.getKey();
+            Element aTable = (column.getParent() instanceof Element) ? (Element) column
+                    .getParent() : column;
+            targets.add(new Target(aTable, entry.getValue()));
+        }
+        return targets;
+    }
+
+    /**
+     * Count, min, max, mean and sum of squared deviations of a set of values. Partial statistics
+     * can be merged, so columns can be reduced independently and then combined per table.
+     */
+    private static class ColumnStats {
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double mean = 0;
+        double m2 = 0;
+
+        void add(double v) {
+            count++;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            double delta = v - mean;
+            mean += delta / count;
+            m2 += delta * (v - mean);
+        }
+
+        void merge(ColumnStats other) {
+            if (other.count == 0) {
+                return;
+            }
+            long n = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / n;
+            m2 += other.m2 + delta * delta * count * other.count / n;
+            count = n;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        double standardDeviation() {
+            return (count == 0) ? 0 : Math.sqrt(m2 / count);
+        }
+    }
+
+    /**
+     * One column (or the selected part of one) to be normalized, either a column of a columnar
+     * table or a list of value Elements.
+     */
+    private static class Target {
+        final Element table;
+        final int colIndex;
+        final List<Element> valueElements;
+
+        double[] values;
+        ColumnStats stats = new ColumnStats();
+        ColumnStats scaleBy;
+        int[] scaled;
+
+        Target(ColumnarTableElement table, int colIndex) {
+            this.table = table;
+            this.colIndex = colIndex;
+            this.valueElements = null;
+        }
+
+        Target(Element table, List<Element> valueElements) {
+            this.table = table;
+            this.colIndex = -1;
+            this.valueElements = valueElements;
+        }
+
+        void load() {
+            if (valueElements == null) {
+                TableColumn column = ((ColumnarTableElement) table).getColumn(colIndex);
+                values = new double[column.size()];
+                for (int row = 0; row < values.length; row++) {
+                    values[row] = column.getDouble(row);
+                }
+            } else {
+                values = new double[valueElements.size()];
+                for (int row = 0; row < values.length; row++) {
+                    values[row] = Double.parseDouble(valueElements.get(row).getValue());
                 }
             }
+            for (double v : values) {
+                stats.add(v);
+            }
+        }
+
+        // Scale to 0..255, truncated to int
+
+        void scaleToRange() {
+            double minValue = scaleBy.min;
+            double slope = (255.0 - 0) / (scaleBy.max - minValue);
+            scaled = new int[values.length];
+            for (int row = 0; row < values.length; row++) {
+                scaled[row] = (int) ((values[row] - minValue) * slope);
+            }
+            values = null;
+        }
 
-            double slope = (255.0 - 0) / (maxValue - minValue);
+        // Replace each value with its z-score, in place
 
-            for (int colIndex = 0; colIndex < columns.size(); colIndex++) {
-                Node column = columns.get(colIndex);
-                Nodes values = column.query("value");
-                for (int rowIndex = 0; rowIndex < values.size(); rowIndex++) {
-                    Element valueElement = (Element) values.get(rowIndex);
-                    double currentValue = Double.parseDouble(valueElement.getValue());
-                    double newValue = (currentValue - minValue) * slope;
+        void scaleToZScore() {
+            double mean = scaleBy.mean;
+            double sd = scaleBy.standardDeviation();
+            for (int row = 0; row < values.length; row++) {
+                values[row] = (sd == 0) ? 0 : (values[row] - mean) / sd;
+            }
+        }
+
+        // XOM is not thread safe, so this is called from one thread only
+
+        void store() {
+            if (valueElements == null) {
+                ColumnarTableElement theTable = (ColumnarTableElement) table;
+                String name = theTable.getColumn(colIndex).getName();
+                theTable.setColumn(colIndex, (scaled != null) ? new TableColumn.IntColumn(name,
+                        scaled) : new TableColumn.DoubleColumn(name, values));
+            } else {
+                for (int row = 0; row < valueElements.size(); row++) {
+                    Element valueElement = valueElements.get(row);
                     valueElement.removeChildren();
-                    String newStringValue = Integer.toString((int) newValue);
-                    valueElement.appendChild(newStringValue);
+                    valueElement.appendChild((scaled != null) ? Integer.toString(scaled[row])
+                            : Double.toString(values[row]));
                 }
             }
         }
+    }
 
-        return in;
+    /**
+     * Apply one phase of the calculation to each target, in parallel.
+     */
+    @SuppressWarnings("serial")
+    private static class TargetAction extends RecursiveAction {
+        static final int LOAD = 0;
+        static final int RANGE = 1;
+        static final int Z_SCORE = 2;
+
+        private final List<Target> targets;
+        private final int phase;
+
+        TargetAction(List<Target> targets, int phase) {
+            this.targets = targets;
+            this.phase = phase;
+        }
+
+        @Override
+        protected void compute() {
+            if (targets.size() > 1) {
+                int half = targets.size() / 2;
+                invokeAll(new TargetAction(targets.subList(0, half), phase), new TargetAction(
+                        targets.subList(half, targets.size()), phase));
+            } else if (targets.size() == 1) {
+                Target t = targets.get(0);
+                switch (phase) {
+                case LOAD:
+                    t.load();
+                    break;
+                case RANGE:
+                    t.scaleToRange();
+                    break;
+                default:
+                    t.scaleToZScore();
+                    break;
+                }
+            }
+        }
     }
 }
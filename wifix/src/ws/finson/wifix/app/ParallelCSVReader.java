@@ -0,0 +1,376 @@
+package ws.finson.wifix.app;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.pipeline.PipelineOperationException;
+
+/**
+ * This ParallelCSVReader class reads RFC 4180 CSV files into {@link ColumnarTableElement} tables
+ * using all the available cores.
+ *
+ * Each file is memory-mapped and divided into ranges of roughly equal size. In a first parallel
+ * pass, each range counts its quote characters and notes where its first newline falls with an
+ * even and with an odd number of quotes in front of it. A running total of the quote counts then
+ * tells whether each range starts inside a quoted field, and therefore which of those two
+ * newlines is a real record boundary. The chunks between boundaries are parsed in parallel with
+ * the commons-csv CSVParser, each into its own set of columns, and the columns are finally joined
+ * in file order. Several files are read concurrently on the same fork-join pool.
+ *
+ * The first record of the file is the label row and is parsed on its own before the data chunks.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class ParallelCSVReader {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final CSVFormat dataFormat;
+    private final CSVFormat headerFormat;
+    private final int chunkSize;
+
+    /**
+     * @param delimiter
+     *            the field delimiter
+     * @param chunkSize
+     *            nominal size in bytes of the pieces each file is split into, or 0 for the
+     *            default
+     */
+    public ParallelCSVReader(char delimiter, int chunkSize) {
+        dataFormat = CSVFormat.RFC4180.withDelimiter(delimiter);
+        headerFormat = dataFormat.withHeader();
+        this.chunkSize = (chunkSize > 0) ? chunkSize : DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Read one or more CSV files concurrently.
+     *
+     * @param srcPaths
+     *            the files to read
+     * @return one table per file, in the same order as the paths
+     * @throws PipelineOperationException
+     *             if a file cannot be read or is not consistently formatted
+     */
+    public List<ColumnarTableElement> readAll(List<Path> srcPaths)
+            throws PipelineOperationException {
+        final List<FileTask> tasks = new ArrayList<>(srcPaths.size());
+        for (Path p : srcPaths) {
+            tasks.add(new FileTask(p));
+        }
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (ReaderException e) {
+            throw e.unwrap();
+        }
+        List<ColumnarTableElement> result = new ArrayList<>(tasks.size());
+        for (FileTask t : tasks) {
+            result.add(t.getRawResult());
+        }
+        return result;
+    }
+
+    // Unchecked carrier for exceptions thrown inside fork-join tasks
+
+    @SuppressWarnings("serial")
+    private static class ReaderException extends RuntimeException {
+        ReaderException(Throwable cause) {
+            super(cause);
+        }
+
+        PipelineOperationException unwrap() {
+            if (getCause() instanceof PipelineOperationException) {
+                return (PipelineOperationException) getCause();
+            }
+            return new PipelineOperationException(getCause());
+        }
+    }
+
+    /**
+     * Read one whole file into a table.
+     */
+    @SuppressWarnings("serial")
+    private class FileTask extends RecursiveTask<ColumnarTableElement> {
+        private final Path srcPath;
+
+        FileTask(Path srcPath) {
+            this.srcPath = srcPath;
+        }
+
+        @Override
+        protected ColumnarTableElement compute() {
+            try (FileChannel channel = FileChannel.open(srcPath, StandardOpenOption.READ)) {
+                return read(channel);
+            } catch (IOException | PipelineOperationException e) {
+                throw new ReaderException(e);
+            }
+        }
+
+        private ColumnarTableElement read(FileChannel channel) throws IOException,
+                PipelineOperationException {
+            long fileSize = channel.size();
+
+            // The label row
+
+            long dataStart = findFirstRecordEnd(channel, fileSize);
+            CSVParser headerParser = new CSVParser(decode(channel, 0, dataStart), headerFormat);
+            Map<String, Integer> labelMap = headerParser.getHeaderMap();
+            long headerLines = headerParser.getCurrentLineNumber();
+            headerParser.close();
+            String[] labels = labelMap.keySet().toArray(new String[labelMap.size()]);
+            logger.debug("{}: column label count: {}", srcPath.getFileName(), labels.length);
+
+            // Count quotes in each range and find the candidate record boundaries
+
+            List<RangeScan> scans = new ArrayList<>();
+            for (long start = dataStart; start < fileSize; start += chunkSize) {
+                scans.add(new RangeScan(channel, start, Math.min(fileSize, start + chunkSize)));
+            }
+            invokeAll(scans);
+
+            // Work out where the chunks really begin and end
+
+            List<Long> boundaries = new ArrayList<>();
+            boundaries.add(dataStart);
+            long quotes = 0;
+            for (int idx = 0; idx < scans.size(); idx++) {
+                RangeScan rs = scans.get(idx);
+                if (idx > 0) {
+                    long boundary = ((quotes & 1) == 0) ? rs.firstEvenNewline
+                            : rs.firstOddNewline;
+                    if (boundary >= 0) {
+                        boundaries.add(boundary + 1);
+                    }
+                }
+                quotes += rs.quoteCount;
+            }
+            boundaries.add(fileSize);
+
+            // Parse the chunks
+
+            List<ChunkParse> chunks = new ArrayList<>();
+            for (int idx = 0; idx < boundaries.size() - 1; idx++) {
+                if (boundaries.get(idx) < boundaries.get(idx + 1)) {
+                    chunks.add(new ChunkParse(channel, boundaries.get(idx),
+                            boundaries.get(idx + 1), labels));
+                }
+            }
+            invokeAll(chunks);
+            logger.debug("{}: {} bytes parsed in {} chunks.", srcPath.getFileName(), fileSize,
+                    chunks.size());
+
+            // Report the first badly formed record, if there is one
+
+            long linesBefore = headerLines;
+            for (ChunkParse cp : chunks) {
+                if (cp.badRecordSize >= 0) {
+                    throw new PipelineOperationException("Line " + (linesBefore + cp.badRecordLine)
+                            + ".  Number of data values (" + cp.badRecordSize
+                            + ") doesn't match number of labels (" + labels.length + ").");
+                }
+                linesBefore += cp.lineCount;
+            }
+
+            // Join the chunk columns in file order, one column per task
+
+            List<ColumnJoin> joins = new ArrayList<>(labels.length);
+            for (int columnIndex = 0; columnIndex < labels.length; columnIndex++) {
+                joins.add(new ColumnJoin(chunks, columnIndex, labels[columnIndex]));
+            }
+            invokeAll(joins);
+            List<TableColumn> columns = new ArrayList<>(labels.length);
+            int recordCount = 0;
+            for (ColumnJoin cj : joins) {
+                columns.add(cj.getRawResult());
+                recordCount = cj.getRawResult().size();
+            }
+            logger.debug("{}: record count: {}", srcPath.getFileName(), recordCount);
+            return new ColumnarTableElement(columns);
+        }
+    }
+
+    /**
+     * Quote count and first even and odd newline positions in one byte range of a file.
+     */
+    @SuppressWarnings("serial")
+    private static class RangeScan extends RecursiveAction {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        long quoteCount = 0;
+        long firstEvenNewline = -1;
+        long firstOddNewline = -1;
+
+        RangeScan(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            MappedByteBuffer buf;
+            try {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new ReaderException(e);
+            }
+            int limit = buf.limit();
+            for (int idx = 0; idx < limit; idx++) {
+                byte b = buf.get(idx);
+                if (b == '"') {
+                    quoteCount++;
+                } else if (b == '\n') {
+                    if ((quoteCount & 1) == 0) {
+                        if (firstEvenNewline < 0) {
+                            firstEvenNewline = start + idx;
+                        }
+                    } else if (firstOddNewline < 0) {
+                        firstOddNewline = start + idx;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse the records in one chunk of a file into a private set of columns.
+     */
+    @SuppressWarnings("serial")
+    private class ChunkParse extends RecursiveAction {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final String[] labels;
+
+        TableColumn[] columns;
+        long lineCount = 0;
+        long badRecordLine = 0;
+        int badRecordSize = -1;
+
+        ChunkParse(FileChannel channel, long start, long end, String[] labels) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.labels = labels;
+        }
+
+        @Override
+        protected void compute() {
+            columns = new TableColumn[labels.length];
+            for (int idx = 0; idx < labels.length; idx++) {
+                columns[idx] = TableColumn.newColumn(labels[idx]);
+            }
+            try (CSVParser parser = new CSVParser(decode(channel, start, end), dataFormat)) {
+                Iterator<CSVRecord> iter = parser.iterator();
+                while (iter.hasNext()) {
+                    CSVRecord rec = iter.next();
+                    if (rec.size() != labels.length) {
+                        badRecordLine = parser.getCurrentLineNumber();
+                        badRecordSize = rec.size();
+                        return;
+                    }
+                    for (int idx = 0; idx < rec.size(); idx++) {
+                        columns[idx] = columns[idx].append(rec.get(idx));
+                    }
+                }
+                lineCount = parser.getCurrentLineNumber();
+            } catch (IOException | RuntimeException e) {
+                throw new ReaderException(e);
+            }
+        }
+    }
+
+    /**
+     * Join one column from each chunk, in order.
+     */
+    @SuppressWarnings("serial")
+    private static class ColumnJoin extends RecursiveTask<TableColumn> {
+        private final List<ChunkParse> chunks;
+        private final int columnIndex;
+        private final String label;
+
+        ColumnJoin(List<ChunkParse> chunks, int columnIndex, String label) {
+            this.chunks = chunks;
+            this.columnIndex = columnIndex;
+            this.label = label;
+        }
+
+        @Override
+        protected TableColumn compute() {
+            if (chunks.isEmpty()) {
+                return TableColumn.newColumn(label);
+            }
+            TableColumn result = chunks.get(0).columns[columnIndex];
+            for (int idx = 1; idx < chunks.size(); idx++) {
+                result = result.appendAll(chunks.get(idx).columns[columnIndex]);
+            }
+            return result;
+        }
+    }
+
+    // Find the end of the first record (just past its newline) by reading from the start of the
+    // file until a newline is found outside of quotes
+
+    private static long findFirstRecordEnd(FileChannel channel, long fileSize) throws IOException {
+        long quotes = 0;
+        long position = 0;
+        while (position < fileSize) {
+            long length = Math.min(fileSize - position, 64 * 1024);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int idx = 0; idx < length; idx++) {
+                byte b = buf.get(idx);
+                if (b == '"') {
+                    quotes++;
+                } else if (b == '\n' && (quotes & 1) == 0) {
+                    return position + idx + 1;
+                }
+            }
+            position += length;
+        }
+        return fileSize;
+    }
+
+    // Map a byte range and decode it. Chunks always begin and end on newlines, so they never split
+    // a multi-byte UTF-8 character.
+
+    private static Reader decode(FileChannel channel, long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("CSV record at byte offset " + start + " is too large to parse.");
+        }
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        CharBuffer chars = StandardCharsets.UTF_8.decode(buf);
+        return new CharArrayReader(chars.array(), chars.arrayOffset() + chars.position(),
+                chars.remaining());
+    }
+}
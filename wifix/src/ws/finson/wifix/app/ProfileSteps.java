@@ -0,0 +1,284 @@
+package ws.finson.wifix.app;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.Node;
+import nu.xom.Nodes;
+import nu.xom.ParentNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.cfg.ApplicationComponent;
+import ws.tuxi.lib.cfg.ConfigurationException;
+import ws.tuxi.lib.pipeline.PipelineOperation;
+import ws.tuxi.lib.pipeline.PipelineOperationException;
+
+/**
+ * This ProfileSteps class runs a sequence of nested pipeline steps and measures each one. The
+ * steps are written inside it exactly as they would be written in the component, so profiling a
+ * pipeline (or part of one) only means wrapping its steps in a ProfileSteps step.
+ *
+ * <pre>
+ * &lt;step type="ProfileSteps"&gt;
+ *   &lt;enabled&gt;true&lt;/enabled&gt;
+ *   &lt;step type="ImportCaptureScans"&gt;...&lt;/step&gt;
+ *   &lt;step type="BuildSensorBranch"&gt;...&lt;/step&gt;
+ * &lt;/step&gt;
+ * </pre>
+ *
+ * For each step it records the wall time, the CPU time of the whole process (so work done on
+ * worker threads is included), the bytes allocated by all threads, the number of nodes in the
+ * Document before and after the step, and the size of its input files. A line is logged as each
+ * step finishes and a summary table is logged after the last one. Measurements the JVM or
+ * platform can't provide are shown as -1.
+ *
+ * The input bytes of a step are the sizes of the files named by the file elements of its
+ * configuration, including those of steps nested in it, that exist before the step runs and are
+ * unchanged after it. Files the step writes are left out that way. The figure does not depend on
+ * how the file is read (a memory mapping counts the same as a stream) or on what other threads
+ * read at the same time, but it is the size of the file, not a count of the bytes the step
+ * actually touched.
+ *
+ * When profiling is disabled the steps are simply run in order.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class ProfileSteps implements PipelineOperation<Document, Document> {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final List<String> stepNames = new ArrayList<>();
+    private final List<Element> stepElements = new ArrayList<>();
+    private final List<PipelineOperation<Document, Document>> steps = new ArrayList<>();
+    private boolean enabled = true;
+
+    /**
+     * @param ac
+     *            the containing ApplicationComponent
+     * @param cE
+     *            the Element from the config file that defines this object
+     * @ws.tuxi.element step - a pipeline step to run and measure, in the usual form
+     * @ws.tuxi.element enabled - "false" to run the steps without measuring them. Default true.
+     * @throws IOException
+     * @throws ConfigurationException
+     */
+    @SuppressWarnings("unchecked")
+    public ProfileSteps(ApplicationComponent ac, Element cE) throws IOException,
+            ConfigurationException {
+
+        // Process each of the configuration sections
+
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            logger.debug("Begin section element <{}>", sectionElement.getLocalName());
+            if ("step".equals(sectionElement.getLocalName())) {
+                String stepName = sectionElement.getAttributeValue("type");
+                if (stepName == null) {
+                    throw new ConfigurationException("Nested <step> elements must have a type.");
+                }
+                stepNames.add(stepName.substring(stepName.lastIndexOf('.') + 1));
+                stepElements.add(sectionElement);
+                steps.add(ac
+                        .getApplication()
+                        .getConfig()
+                        .getInstanceUsingFactory(PipelineOperation.class, sectionElement,
+                                new Object[] { ac, sectionElement }));
+            } else if ("enabled".equals(sectionElement.getLocalName())) {
+                enabled = Boolean.parseBoolean(sectionElement.getValue().trim());
+            } else {
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+            }
+        }
+        if (steps.isEmpty()) {
+            throw new ConfigurationException("At least one step element must be specified.");
+        }
+    }
+
+    /**
+     * @see ws.tuxi.lib.pipeline.PipelineOperation#doStep(java.lang.Object)
+     */
+    @Override
+    public Document doStep(Document in) throws PipelineOperationException {
+        if (!enabled) {
+            for (PipelineOperation<Document, Document> step : steps) {
+                in = step.doStep(in);
+            }
+            return in;
+        }
+
+        Probe probe = new Probe();
+        List<long[]> results = new ArrayList<>(steps.size());
+        for (int idx = 0; idx < steps.size(); idx++) {
+            long nodesBefore = countNodes(in);
+            Map<Path, BasicFileAttributes> inputs = inputFiles(stepElements.get(idx), in);
+            long[] before = probe.sample();
+            in = steps.get(idx).doStep(in);
+            long[] after = probe.sample();
+            long[] r = new long[Probe.COUNT + 3];
+            for (int m = 0; m < Probe.COUNT; m++) {
+                r[m] = (before[m] < 0 || after[m] < 0) ? -1 : after[m] - before[m];
+            }
+            r[Probe.COUNT] = nodesBefore;
+            r[Probe.COUNT + 1] = countNodes(in);
+            r[Probe.COUNT + 2] = unchangedSize(inputs);
+            results.add(r);
+            logger.info("{} finished: {} ms wall, {} ms cpu, {} bytes allocated, {} input bytes.",
+                    stepNames.get(idx), millis(r[Probe.WALL]), millis(r[Probe.CPU]),
+                    r[Probe.ALLOCATED], r[Probe.COUNT + 2]);
+        }
+        logger.info("Step profile:\n{}", formatSummary(results));
+        return in;
+    }
+
+    private String formatSummary(List<long[]> results) {
+        String rowFormat = "%-28s %10s %10s %14s %12s %12s %14s%n";
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(rowFormat, "step", "wall ms", "cpu ms", "alloc bytes",
+                "nodes in", "nodes out", "input bytes"));
+        long[] total = new long[Probe.COUNT];
+        long totalInput = 0;
+        for (int idx = 0; idx < results.size(); idx++) {
+            long[] r = results.get(idx);
+            sb.append(String.format(rowFormat, stepNames.get(idx), millis(r[Probe.WALL]),
+                    millis(r[Probe.CPU]), r[Probe.ALLOCATED], r[Probe.COUNT],
+                    r[Probe.COUNT + 1], r[Probe.COUNT + 2]));
+            for (int m = 0; m < Probe.COUNT; m++) {
+                total[m] = (total[m] < 0 || r[m] < 0) ? -1 : total[m] + r[m];
+            }
+            totalInput += r[Probe.COUNT + 2];
+        }
+        sb.append(String.format(rowFormat, "TOTAL", millis(total[Probe.WALL]),
+                millis(total[Probe.CPU]), total[Probe.ALLOCATED], "", "", totalInput));
+        return sb.toString();
+    }
+
+    // The files named by the file elements of a step, and of the steps nested in it, that exist
+    // before it runs
+
+    private static Map<Path, BasicFileAttributes> inputFiles(Element stepElement, Document in) {
+        Element twig = in.getRootElement().getFirstChildElement("context");
+        Element globalContextElement = (twig == null) ? null : new Element(twig);
+        Map<Path, BasicFileAttributes> inputs = new LinkedHashMap<>();
+        Nodes fileElements = stepElement.query("descendant::file");
+        for (int idx = 0; idx < fileElements.size(); idx++) {
+            Path p = new ConfiguredPathname((Element) fileElements.get(idx))
+                    .getSourcePath(globalContextElement);
+            BasicFileAttributes a = attributesOf(p);
+            if (a != null && a.isRegularFile()) {
+                inputs.put(p.toAbsolutePath().normalize(), a);
+            }
+        }
+        return inputs;
+    }
+
+    // The total size of the files that the step did not write to
+
+    private static long unchangedSize(Map<Path, BasicFileAttributes> inputs) {
+        long total = 0;
+        for (Map.Entry<Path, BasicFileAttributes> e : inputs.entrySet()) {
+            BasicFileAttributes now = attributesOf(e.getKey());
+            BasicFileAttributes then = e.getValue();
+            if (now != null && now.size() == then.size()
+                    && now.lastModifiedTime().equals(then.lastModifiedTime())) {
+                total += then.size();
+            }
+        }
+        return total;
+    }
+
+    private static BasicFileAttributes attributesOf(Path p) {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String millis(long nanos) {
+        return (nanos < 0) ? "-1" : String.format("%.1f", nanos / 1e6);
+    }
+
+    // Count the nodes in a tree. Attributes are counted, and columnar tables are counted as
+    // though they had been materialized, without materializing them.
+
+    private static long countNodes(Node n) {
+        long count = 1;
+        if (n instanceof Element) {
+            count += ((Element) n).getAttributeCount();
+        }
+        if (n instanceof ColumnarTableElement && !((ColumnarTableElement) n).isMaterialized()) {
+            ColumnarTableElement table = (ColumnarTableElement) n;
+            for (int idx = 0; idx < table.getColumnCount(); idx++) {
+                count += 2 + 2L * table.getColumn(idx).size();
+            }
+            return count;
+        }
+        if (n instanceof ParentNode) {
+            for (int idx = 0; idx < n.getChildCount(); idx++) {
+                count += countNodes(n.getChild(idx));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the counters a step is measured by. Each counter is -1 if it isn't available.
+     */
+    private static class Probe {
+        static final int WALL = 0;
+        static final int CPU = 1;
+        static final int ALLOCATED = 2;
+        static final int COUNT = 3;
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+        long[] sample() {
+            return new long[] { System.nanoTime(), processCpuTime(), allocatedBytes() };
+        }
+
+        private long processCpuTime() {
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            }
+            return -1;
+        }
+
+        // Bytes allocated by all the live threads. Threads that exit during a step take their
+        // counts with them, but the worker pools used by the steps keep their threads.
+
+        private long allocatedBytes() {
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
+            }
+            com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+            if (!t.isThreadAllocatedMemorySupported() || !t.isThreadAllocatedMemoryEnabled()) {
+                return -1;
+            }
+            long total = 0;
+            for (long bytes : t.getThreadAllocatedBytes(t.getAllThreadIds())) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+            return total;
+        }
+    }
+}
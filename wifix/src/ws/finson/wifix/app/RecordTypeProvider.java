@@ -0,0 +1,19 @@
+package ws.finson.wifix.app;
+
+/**
+ * This RecordTypeProvider interface lets new sensor record types plug in to the
+ * {@link RecordTypeRegistry} without changing this package. Implementations are found with
+ * java.util.ServiceLoader, so a jar that provides record types lists its provider classes in
+ * META-INF/services/ws.finson.wifix.app.RecordTypeProvider.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public interface RecordTypeProvider {
+
+    /**
+     * Register a factory for each record type this provider knows about.
+     */
+    void registerRecordTypes(RecordTypeRegistry registry);
+}
@@ -0,0 +1,126 @@
+package ws.finson.wifix.app;
+
+import java.io.LineNumberReader;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.pipeline.PipelineSourceException;
+
+/**
+ * This RecordTypeRegistry class maps the record headers in a raw data capture file ("+++ WiFi",
+ * "+++ Date", etc) to the factories that read those records. It replaces looking up a record class
+ * by name for every header in the file.
+ *
+ * The record name for a header line "+++ Type" is Type, and for "+++ Type ... Word" it is
+ * Type_Word. The built-in WiFi and Date records are registered explicitly, and any other types
+ * are added by the {@link RecordTypeProvider} implementations that ServiceLoader finds when the
+ * default registry is first used.
+ *
+ * Records with no registered factory (for example "+++ Photo") are skipped, including any records
+ * nested inside them.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class RecordTypeRegistry {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Map<String, DAP_RecordFactory> factories = new ConcurrentHashMap<>();
+
+    private static final DAP_RecordFactory skipFactory = new DAP_RecordFactory() {
+        @Override
+        public DAP_Record newRecord(LineNumberReader src, CaptureScanHandler handler)
+                throws PipelineSourceException {
+            return new SkippedRecord(src);
+        }
+    };
+
+    // The default registry is built once, the first time it is needed
+
+    private static class DefaultHolder {
+        static final RecordTypeRegistry registry = createDefault();
+    }
+
+    /**
+     * @return the shared registry holding the built-in record types and those of all the
+     *         RecordTypeProviders on the class path
+     */
+    public static RecordTypeRegistry getDefault() {
+        return DefaultHolder.registry;
+    }
+
+    private static RecordTypeRegistry createDefault() {
+        RecordTypeRegistry registry = new RecordTypeRegistry();
+        registry.register("WiFi", new DAP_RecordFactory() {
+            @Override
+            public DAP_Record newRecord(LineNumberReader src, CaptureScanHandler handler)
+                    throws PipelineSourceException {
+                return new WiFiRecord(src, handler);
+            }
+        });
+        registry.register("Date", new DAP_RecordFactory() {
+            @Override
+            public DAP_Record newRecord(LineNumberReader src, CaptureScanHandler handler)
+                    throws PipelineSourceException {
+                return new DateRecord(src, handler);
+            }
+        });
+        for (RecordTypeProvider provider : ServiceLoader.load(RecordTypeProvider.class)) {
+            registry.logger.debug("Adding record types from {}", provider.getClass().getName());
+            provider.registerRecordTypes(registry);
+        }
+        return registry;
+    }
+
+    /**
+     * Register (or replace) the factory for one record name.
+     *
+     * @param recordName
+     *            Type or Type_Word, as described above
+     * @param factory
+     *            the factory for records with that name
+     */
+    public void register(String recordName, DAP_RecordFactory factory) {
+        factories.put(recordName, factory);
+    }
+
+    /**
+     * @return true if a factory is registered for the given record name
+     */
+    public boolean isRegistered(String recordName) {
+        return factories.containsKey(recordName);
+    }
+
+    /**
+     * Get the factory for a record header. Never returns null: unknown record types get a factory
+     * that skips the record.
+     *
+     * @param header
+     *            the type and optional last word of the header line, as returned by
+     *            {@link CaptureLineScanner#parseHeader(String)}
+     * @return the factory to use for this record
+     */
+    public DAP_RecordFactory getFactory(String[] header) {
+        String recordName = (header[1] == null) ? header[0] : header[0] + "_" + header[1];
+        DAP_RecordFactory factory = factories.get(recordName);
+        if (factory == null) {
+            logger.trace("Skipping record {}", recordName);
+            return skipFactory;
+        }
+        return factory;
+    }
+
+    /**
+     * A record of an unregistered type. It has no fields.
+     */
+    private static class SkippedRecord extends AbstractRecord {
+        SkippedRecord(LineNumberReader src) throws PipelineSourceException {
+            skipRemainderOfCurrentRecord(src);
+        }
+    }
+}
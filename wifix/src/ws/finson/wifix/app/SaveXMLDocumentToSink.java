@@ -22,7 +22,13 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
 
 /**
  * This SaveXMLDocumentToSink class writes an XML Document to the specified file using the XOM
- * Serializer class.
+ * Serializer class. Columnar tables are written without being materialized in the tree. If the
+ * file extension is .xbin or .xbin.gz, the Document is written in the {@link CompactDocumentFormat}
+ * instead.
+ * 
+ * In async mode the tree is copied and the copy is written by the {@link SnapshotWriter} of the
+ * pipeline run, so the next step can start right away. Put an AwaitSnapshotWrites step at the end
+ * of the pipeline to wait for the writes to finish and report any that failed.
  * 
  * @author Doug Johnson, Jun 13, 2013
  * 
@@ -31,13 +37,15 @@ public class SaveXMLDocumentToSink implements PipelineOperation<Document, Docume
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private ConfiguredPathname sinkPathname = null;
-    private Path sinkPath = null;
-    private OutputStream sinkStream = null;
-    private Serializer formattedWriter = null;
     private Document defaultContextDocument = null;
+    private boolean async = false;
+
     /**
      * @param ac
      * @param cE
+     * @ws.tuxi.element file - the file to write
+     * @ws.tuxi.element async - "true" to write a snapshot of the tree on a background thread and
+     *                  go on with the pipeline at once. Default false.
      * @throws ConfigurationException
      * @throws IOException
      */
@@ -57,6 +65,8 @@ public class SaveXMLDocumentToSink implements PipelineOperation<Document, Docume
             logger.trace("Begin section element <{}>", sectionElement.getLocalName());
             if ("file".equals(sectionElement.getLocalName())) {
                 sinkPathname = new ConfiguredPathname(sectionElement);
+            } else if ("async".equals(sectionElement.getLocalName())) {
+                async = Boolean.parseBoolean(sectionElement.getValue().trim());
             } else {
                 logger.warn("Skipping <{}> element. Element not recognized.",
                         sectionElement.getLocalName());
@@ -74,20 +84,45 @@ public class SaveXMLDocumentToSink implements PipelineOperation<Document, Docume
         Element twig = tree.getRootElement().getFirstChildElement("context");
         Element globalContextElement = (twig == null) ? null : new Element(twig);
         Element localContextElement = defaultContextDocument.getRootElement();
-        sinkPath = sinkPathname.getSinkPath(globalContextElement,localContextElement);
+        Path sinkPath = sinkPathname.getSinkPath(globalContextElement,localContextElement);
         try {
-            sinkStream = Files.newOutputStream(sinkPath);
-            formattedWriter = new Serializer(sinkStream);
+            if (async) {
+                SnapshotWriter.forCurrentRun().submit(tree, sinkPath);
+            } else {
+                write(tree, sinkPath);
+            }
+        } catch (IOException e) {
+            throw new PipelineOperationException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PipelineOperationException(e);
+        }
+        return tree;
+    }
+
+    /**
+     * Write a Document to a file, as XML text or in the {@link CompactDocumentFormat} depending on
+     * the file extension.
+     *
+     * @param tree
+     *            the Document to write
+     * @param sinkPath
+     *            the file to write
+     * @throws IOException
+     */
+    static void write(Document tree, Path sinkPath) throws IOException {
+        if (CompactDocumentFormat.isCompactPath(sinkPath)) {
+            CompactDocumentFormat.write(tree, sinkPath);
+            return;
+        }
+        try (OutputStream sinkStream = Files.newOutputStream(sinkPath)) {
+            Serializer formattedWriter = new ColumnarTableSerializer(sinkStream);
 
             formattedWriter.setIndent(2);
             formattedWriter.setMaxLength(80);
             formattedWriter.write(tree);
             formattedWriter.flush();
-
-        } catch (IOException e) {
-            throw new PipelineOperationException(e);
         }
-        return tree;
     }
 
 }
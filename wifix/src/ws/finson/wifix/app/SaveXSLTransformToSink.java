@@ -1,27 +1,27 @@
 package ws.finson.wifix.app;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.DateFormat;
 import java.util.Date;
 
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
 import nu.xom.Builder;
 import nu.xom.Document;
 import nu.xom.Element;
 import nu.xom.Elements;
-import nu.xom.Nodes;
 import nu.xom.ParsingException;
-import nu.xom.Serializer;
-import nu.xom.xslt.XSLException;
-import nu.xom.xslt.XSLTransform;
+import nu.xom.converters.SAXConverter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 
 import ws.tuxi.lib.cfg.ApplicationComponent;
 import ws.tuxi.lib.cfg.ConfigurationException;
@@ -33,6 +33,10 @@ import ws.tuxi.lib.pipeline.PipelineOperationException;
  * writes the result to the given path. The initial document is passed on to the next stage of the
  * pipeline unchanged.
  * 
+ * Stylesheets are compiled once per JVM by the {@link StylesheetCache}. The result of the transform
+ * is written to the file as it is produced, in the form given by the stylesheet's xsl:output
+ * element.
+ * 
  * @author Doug Johnson, Dec 21, 2014
  * 
  */
@@ -42,9 +46,6 @@ public class SaveXSLTransformToSink implements PipelineOperation<Document, Docum
     private String stylesheetResource = null;
     private ConfiguredPathname sinkPathname = null;
 
-    private Path sinkPath = null;
-    private OutputStream sinkStream = null;
-    private Serializer formattedWriter = null;
     private Document defaultContextDocument = null;
 
     /**
@@ -89,35 +90,24 @@ public class SaveXSLTransformToSink implements PipelineOperation<Document, Docum
     @Override
     public Document doStep(Document tree) throws PipelineOperationException {
 
-        Document stylesheet;
-        Nodes transformResult;
-        PrintWriter pw;
-
-        try {
-            Builder builder = new Builder();
-            InputStream resource = this.getClass().getResourceAsStream(stylesheetResource);
-            stylesheet = builder.build(resource);
-            XSLTransform transform = new XSLTransform(stylesheet);
-            logger.debug("XSLTransform: {}",transform.toString());
-            String today = DateFormat.getDateInstance().format(new Date());
-            transform.setParameter("today", today);
-            transformResult = transform.transform(tree);
-        } catch (ParsingException | IOException | XSLException e) {
-            throw new PipelineOperationException(e);
-        }
-
         Element twig = tree.getRootElement().getFirstChildElement("context");
         Element globalContextElement = (twig == null) ? null : new Element(twig);
         Element localContextElement = defaultContextDocument.getRootElement();
-        sinkPath = sinkPathname.getSinkPath(globalContextElement, localContextElement);
-        try {
-            pw = new PrintWriter(new BufferedWriter(new FileWriter(sinkPath.toFile())));
-            for (int idx = 0; idx < transformResult.size(); idx++) {
-                pw.println(transformResult.get(idx).getValue());
-            }
-            pw.flush();
-            pw.close();
-        } catch (IOException e) {
+        Path sinkPath = sinkPathname.getSinkPath(globalContextElement, localContextElement);
+
+        // The tree is fed to the transform as SAX events and the result goes straight to the file
+
+        try (OutputStream sinkStream = new BufferedOutputStream(Files.newOutputStream(sinkPath))) {
+            TransformerHandler transform = StylesheetCache.newTransformerHandler(StylesheetCache
+                    .getTemplates(stylesheetResource));
+            String today = DateFormat.getDateInstance().format(new Date());
+            transform.getTransformer().setParameter("today", today);
+            transform.setResult(new StreamResult(sinkStream));
+            ColumnarTableElement.materializeAll(tree);
+            SAXConverter converter = new SAXConverter(transform);
+            converter.setLexicalHandler(transform);
+            converter.convert(tree);
+        } catch (IOException | TransformerConfigurationException | SAXException e) {
             throw new PipelineOperationException(e);
         }
         return tree;
@@ -0,0 +1,243 @@
+package ws.finson.wifix.app;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import nu.xom.Document;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This SnapshotWriter class writes Document snapshots to files on a background thread, so a
+ * pipeline can save checkpoints of its tree without waiting for them. A snapshot is a copy of the
+ * tree taken when it is submitted. Columnar tables in the copy share their columns with the
+ * original, so taking a snapshot costs much less than serializing it.
+ *
+ * A writer belongs to one pipeline run. The steps of a run are done one after another on one
+ * thread, so the writer of the run is bound to that thread: {@link #forCurrentRun()} gives every
+ * SaveXMLDocumentToSink and AwaitSnapshotWrites step of the run the same writer, and steps running
+ * on other threads get their own. A step that starts runs of its own, as BatchSteps does, gives
+ * each of them a new writer with {@link #setCurrent(SnapshotWriter)} and closes it when the run
+ * ends. So await() waits only for the snapshots of its own run, and a write failure is reported
+ * only to the run that submitted the snapshot.
+ *
+ * The queue of snapshots waiting to be written is bounded. When it is full, submit() waits for
+ * room, which keeps the number of tree copies in memory at a fixed limit for each run.
+ *
+ * Write failures are collected and reported by the next submit(), by await() or by close(). The
+ * writer made for a thread by forCurrentRun() lives as long as the JVM; a shutdown hook waits for
+ * any of its writes still in progress when the JVM exits, and logs any failures that were never
+ * reported.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class SnapshotWriter {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final int QUEUE_CAPACITY = 2;
+
+    private final BlockingQueue<Job> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<IOException> failures = new ArrayList<>();
+    private final Thread worker;
+    private int pending = 0;
+
+    // The writer of the pipeline run on each thread
+
+    private static final ThreadLocal<SnapshotWriter> current = new ThreadLocal<>();
+
+    /**
+     * @return the writer of the pipeline run on this thread. If the thread has none, one is made
+     *         that lasts as long as the JVM.
+     */
+    public static SnapshotWriter forCurrentRun() {
+        SnapshotWriter writer = current.get();
+        if (writer == null) {
+            writer = new SnapshotWriter("snapshot-writer-" + Thread.currentThread().getName());
+            writer.addShutdownHook();
+            current.set(writer);
+        }
+        return writer;
+    }
+
+    /**
+     * @return the writer of the pipeline run on this thread, or null if no snapshot has been
+     *         submitted on this thread
+     */
+    public static SnapshotWriter getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Make a writer the writer of the pipeline run on this thread.
+     *
+     * @param writer
+     *            the writer, or null for none
+     * @return the writer it replaces, or null if there was none, to be restored when the run ends
+     */
+    public static SnapshotWriter setCurrent(SnapshotWriter writer) {
+        SnapshotWriter previous = current.get();
+        if (writer == null) {
+            current.remove();
+        } else {
+            current.set(writer);
+        }
+        return previous;
+    }
+
+    /**
+     * Make a new writer and start its thread.
+     *
+     * @param threadName
+     *            the name of the thread that writes the snapshots
+     */
+    public SnapshotWriter(String threadName) {
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void addShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    await();
+                } catch (IOException e) {
+                    logger.error("Snapshot not written: {}", e.getMessage());
+                } catch (InterruptedException e) {
+                    logger.warn("Interrupted while waiting for snapshots to be written.");
+                }
+            }
+        }, worker.getName() + "-shutdown"));
+    }
+
+    /**
+     * Take a snapshot of the tree and queue it to be written.
+     *
+     * @param tree
+     *            the Document to save. It may be changed as soon as this method returns.
+     * @param sinkPath
+     *            the file to write
+     * @throws IOException
+     *             if an earlier snapshot could not be written
+     * @throws InterruptedException
+     *             if interrupted while waiting for room in the queue
+     */
+    public void submit(Document tree, Path sinkPath) throws IOException, InterruptedException {
+        throwFailures();
+        Job job = new Job(new Document(tree), sinkPath);
+        synchronized (this) {
+            pending++;
+        }
+        try {
+            queue.put(job);
+        } catch (InterruptedException e) {
+            finished(null);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait until every snapshot submitted so far has been written.
+     *
+     * @throws IOException
+     *             the first of any write failures not yet reported. Any others are logged.
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void await() throws IOException, InterruptedException {
+        synchronized (this) {
+            while (pending > 0) {
+                wait();
+            }
+        }
+        throwFailures();
+    }
+
+    /**
+     * Wait until every snapshot submitted so far has been written, then stop the writer thread.
+     * The writer cannot be used after this.
+     *
+     * @throws IOException
+     *             the first of any write failures not yet reported. Any others are logged.
+     * @throws InterruptedException
+     *             if interrupted while waiting. The writer thread is stopped anyway.
+     */
+    public void close() throws IOException, InterruptedException {
+        try {
+            await();
+        } finally {
+            worker.interrupt();
+        }
+    }
+
+    private void throwFailures() throws IOException {
+        List<IOException> reported;
+        synchronized (this) {
+            if (failures.isEmpty()) {
+                return;
+            }
+            reported = new ArrayList<>(failures);
+            failures.clear();
+        }
+        for (int idx = 1; idx < reported.size(); idx++) {
+            logger.error("Snapshot not written: {}", reported.get(idx).getMessage());
+        }
+        throw reported.get(0);
+    }
+
+    private void drain() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            IOException failure = null;
+            try {
+                SaveXMLDocumentToSink.write(job.snapshot, job.sinkPath);
+                logger.debug("Wrote snapshot '{}'.", job.sinkPath);
+            } catch (IOException e) {
+                failure = new IOException("Error writing '" + job.sinkPath + "'.  "
+                        + e.getMessage(), e);
+            } catch (RuntimeException e) {
+                failure = new IOException("Error writing '" + job.sinkPath + "'.  " + e, e);
+            }
+            finished(failure);
+        }
+    }
+
+    private synchronized void finished(IOException failure) {
+        if (failure != null) {
+            failures.add(failure);
+        }
+        pending--;
+        notifyAll();
+    }
+
+    /**
+     * One snapshot and where to write it.
+     */
+    private static class Job {
+        final Document snapshot;
+        final Path sinkPath;
+
+        Job(Document snapshot, Path sinkPath) {
+            this.snapshot = snapshot;
+            this.sinkPath = sinkPath;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ws.finson.wifix.app;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This StylesheetCache class compiles XSLT stylesheets found on the class path and keeps the
+ * compiled Templates, so that a stylesheet used by several steps, or by several runs in the same
+ * JVM, is read and compiled only once. Compiled Templates are thread safe and are shared freely.
+ *
+ * The TransformerHandlers it creates accept the input document as SAX events and write the result
+ * of the transform directly to their Result, so the result is never built as a tree.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public final class StylesheetCache {
+    private static final Logger logger = LoggerFactory.getLogger(StylesheetCache.class);
+
+    private static final ConcurrentMap<String, Templates> templates = new ConcurrentHashMap<>();
+
+    // TransformerFactory is not thread safe, so all use of it is synchronized on the factory
+
+    private static final SAXTransformerFactory factory = newFactory();
+
+    private StylesheetCache() {
+    }
+
+    private static SAXTransformerFactory newFactory() {
+        TransformerFactory tf = TransformerFactory.newInstance();
+        if (!tf.getFeature(SAXTransformerFactory.FEATURE)) {
+            throw new IllegalStateException("The TransformerFactory " + tf.getClass().getName()
+                    + " does not support SAX input.");
+        }
+        tf.setErrorListener(new ErrorListener() {
+            @Override
+            public void warning(TransformerException e) {
+                logger.warn("XSLT: {}", e.getMessageAndLocation());
+            }
+
+            @Override
+            public void error(TransformerException e) throws TransformerException {
+                throw e;
+            }
+
+            @Override
+            public void fatalError(TransformerException e) throws TransformerException {
+                throw e;
+            }
+        });
+        return (SAXTransformerFactory) tf;
+    }
+
+    /**
+     * Get the compiled form of a stylesheet, compiling it the first time it is asked for.
+     *
+     * @param resourcePath
+     *            the class path resource name of the stylesheet, for example
+     *            "/ws/finson/wifix/app/parameters-to-table-layout.xsl"
+     * @return the compiled stylesheet
+     * @throws TransformerConfigurationException
+     *             if the stylesheet can't be found or has errors. Failures are not cached.
+     */
+    public static Templates getTemplates(String resourcePath)
+            throws TransformerConfigurationException {
+        Templates t = templates.get(resourcePath);
+        if (t == null) {
+            URL resource = StylesheetCache.class.getResource(resourcePath);
+            if (resource == null) {
+                throw new TransformerConfigurationException("Stylesheet resource '"
+                        + resourcePath + "' not found.");
+            }
+            synchronized (factory) {
+                t = templates.get(resourcePath);
+                if (t == null) {
+                    logger.debug("Compiling stylesheet '{}'.", resourcePath);
+                    t = factory.newTemplates(new StreamSource(resource.toExternalForm()));
+                    templates.put(resourcePath, t);
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return a new handler that applies the given stylesheet to the SAX events it receives. Set
+     *         its Result and any parameters before sending it events.
+     */
+    public static TransformerHandler newTransformerHandler(Templates t)
+            throws TransformerConfigurationException {
+        synchronized (factory) {
+            return factory.newTransformerHandler(t);
+        }
+    }
+}
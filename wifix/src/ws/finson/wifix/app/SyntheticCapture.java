@@ -0,0 +1,280 @@
+package ws.finson.wifix.app;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.cfg.ConfigurationException;
+
+/**
+ * This SyntheticCapture class writes made-up raw data capture files in the layout capture-v.sh
+ * writes on OS X: a +++ Scan block per scan holding a +++ Date record and a +++ WiFi record in the
+ * layout of airport -s. The files are read by {@link ImportCaptureScans} like real captures.
+ *
+ * The radio environment is a population of networks. Each network has an SSID, a BSSID, a channel
+ * drawn from the channel mix, and a base RSSI drawn from a normal distribution. In each scan,
+ * every network is first replaced by a new one with the churn probability, then seen with the
+ * visibility probability, and when seen its RSSI is its base RSSI plus normal jitter, clamped to
+ * the RSSI range.
+ *
+ * The output depends only on the settings, the number of scans and the seed, so a file can always
+ * be made again exactly.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class SyntheticCapture {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final String WIFI_HEADER = "                            SSID BSSID             "
+            + "RSSI CHANNEL HT CC SECURITY (auth/unicast/group)";
+
+    private static final String[] SSID_NAMES = { "HOME", "NETGEAR", "linksys", "xfinitywifi",
+            "Rogers network", "dlink", "ATT", "Planet Express", "CenturyLink", "TP-LINK" };
+    private static final String[] COUNTRY_CODES = { "US", "US", "US", "--", "CA" };
+    private static final String[] SECURITY = { "WPA2(PSK/AES/AES)",
+            "WPA(PSK/AES,TKIP/TKIP) WPA2(PSK/AES,TKIP/TKIP)", "WPA(PSK/TKIP/TKIP)", "NONE",
+            "WEP" };
+
+    private int networks = 60;
+    private double churn = 0.01;
+    private double visibility = 0.75;
+    private double rssiMean = -72;
+    private double rssiStddev = 9;
+    private double rssiJitter = 3;
+    private int rssiMin = -95;
+    private int rssiMax = -30;
+    private String[] channels = { "1", "6", "11", "1", "6", "11", "2", "3", "4", "5", "7", "8",
+            "9", "10", "6,+1", "11,-1", "36", "44,+1", "149", "161,-1" };
+    private long startTime = 1417039221L;
+    private int interval = 3;
+
+    /**
+     * Create a generator with the default settings: 60 networks, 1% churn, 75% visibility, RSSI
+     * -72 +/- 9 dBm with 3 dBm jitter in -95 to -30, channels 1 to 11 with extra weight on 1, 6
+     * and 11 plus a few 40 MHz and 5 GHz channels, and a scan every 3 seconds.
+     */
+    public SyntheticCapture() {
+    }
+
+    /**
+     * @param cE
+     *            the Element from the config file that holds the settings
+     * @ws.tuxi.element networks - the number of networks in range at any time
+     * @ws.tuxi.element churn - the probability that a network is replaced in each scan
+     * @ws.tuxi.element visibility - the probability that a network is seen in a scan
+     * @ws.tuxi.element rssi - attributes mean, stddev, jitter, min and max, in dBm
+     * @ws.tuxi.element channels - the channel mix, separated by spaces. A channel listed more than
+     *                  once is chosen more often. A secondary channel may follow a comma.
+     * @ws.tuxi.element start - the time of the first scan, in seconds since 1970
+     * @ws.tuxi.element interval - seconds between scans
+     * @throws ConfigurationException
+     */
+    public SyntheticCapture(Element cE) throws ConfigurationException {
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            String value = sectionElement.getValue().trim();
+            switch (sectionElement.getLocalName()) {
+            case "networks":
+                networks = (int) parse(sectionElement, value, 1, Integer.MAX_VALUE);
+                break;
+            case "churn":
+                churn = parse(sectionElement, value, 0, 1);
+                break;
+            case "visibility":
+                visibility = parse(sectionElement, value, 0, 1);
+                break;
+            case "rssi":
+                rssiMean = parseAttribute(sectionElement, "mean", rssiMean, -200, 0);
+                rssiStddev = parseAttribute(sectionElement, "stddev", rssiStddev, 0, 100);
+                rssiJitter = parseAttribute(sectionElement, "jitter", rssiJitter, 0, 100);
+                rssiMin = (int) parseAttribute(sectionElement, "min", rssiMin, -200, 0);
+                rssiMax = (int) parseAttribute(sectionElement, "max", rssiMax, rssiMin, 0);
+                break;
+            case "channels":
+                channels = value.split("\\s+");
+                if (value.isEmpty()) {
+                    throw new ConfigurationException("At least one channel must be specified.");
+                }
+                break;
+            case "start":
+                startTime = (long) parse(sectionElement, value, 0, Long.MAX_VALUE);
+                break;
+            case "interval":
+                interval = (int) parse(sectionElement, value, 1, Integer.MAX_VALUE);
+                break;
+            case "file":
+                break;
+            default:
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+                break;
+            }
+        }
+    }
+
+    static double parse(Element e, String value, double min, double max)
+            throws ConfigurationException {
+        try {
+            double d = Double.parseDouble(value);
+            if (d >= min && d <= max) {
+                return d;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new ConfigurationException("<" + e.getLocalName() + "> value '" + value
+                + "' must be a number from " + min + " to " + max + ".");
+    }
+
+    static double parseAttribute(Element e, String name, double defaultValue, double min,
+            double max) throws ConfigurationException {
+        String value = e.getAttributeValue(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double d = Double.parseDouble(value.trim());
+            if (d >= min && d <= max) {
+                return d;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new ConfigurationException("<" + e.getLocalName() + "> attribute " + name + " '"
+                + value + "' must be a number from " + min + " to " + max + ".");
+    }
+
+    /**
+     * Write a capture file.
+     *
+     * @param p
+     *            the file to write
+     * @param scans
+     *            the number of scans
+     * @param seed
+     *            the seed of the random numbers
+     * @throws IOException
+     */
+    public void write(Path p, int scans, long seed) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(p, StandardCharsets.UTF_8)) {
+            write(out, scans, seed);
+        }
+    }
+
+    /**
+     * Write a capture to a Writer, which is not closed.
+     */
+    public void write(Writer out, int scans, long seed) throws IOException {
+        Random random = new Random(seed);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy",
+                Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
+
+        List<Network> population = new ArrayList<>(networks);
+        for (int idx = 0; idx < networks; idx++) {
+            population.add(new Network(random));
+        }
+
+        StringBuilder line = new StringBuilder(128);
+        long time = startTime;
+        for (int scan = 0; scan < scans; scan++, time += interval) {
+            out.write("+++ Scan\n+++ Date\n");
+            out.write(dateFormat.format(new Date(time * 1000)));
+            out.write("\n" + time + "\n---\n+++ WiFi\n");
+            out.write(WIFI_HEADER);
+            out.write('\n');
+            int seen = 0;
+            for (int idx = 0; idx < population.size(); idx++) {
+                if (random.nextDouble() < churn) {
+                    population.set(idx, new Network(random));
+                }
+                Network n = population.get(idx);
+                boolean last = idx == population.size() - 1;
+                if (random.nextDouble() < visibility || (last && seen == 0)) {
+                    seen++;
+                    long rssi = Math.round(n.baseRssi + random.nextGaussian() * rssiJitter);
+                    rssi = Math.max(rssiMin, Math.min(rssiMax, rssi));
+                    line.setLength(0);
+                    pad(line, n.ssid, 32, true);
+                    line.append(' ').append(n.bssid).append(' ');
+                    pad(line, Long.toString(rssi), 4, false);
+                    line.append(' ');
+                    pad(line, n.channel, 8, false);
+                    pad(line, n.ht, 3, false);
+                    pad(line, n.cc, 3, false);
+                    line.append(n.security);
+
+                    // airport -s ends every line but an open network's with a space
+
+                    line.append("NONE".equals(n.security) ? "\n" : " \n");
+                    out.append(line);
+                }
+            }
+            out.write("---\n---\n");
+        }
+    }
+
+    private static void pad(StringBuilder line, String s, int width, boolean right) {
+        if (!right) {
+            line.append(s);
+        }
+        for (int idx = s.length(); idx < width; idx++) {
+            line.append(' ');
+        }
+        if (right) {
+            line.append(s);
+        }
+    }
+
+    /**
+     * One network in range.
+     */
+    private class Network {
+        final String ssid;
+        final String bssid;
+        final String channel;
+        final String ht;
+        final String cc;
+        final String security;
+        final double baseRssi;
+
+        Network(Random random) {
+            String name = SSID_NAMES[random.nextInt(SSID_NAMES.length)];
+            ssid = "xfinitywifi".equals(name) ? name : name + "-"
+                    + Integer.toHexString(0x1000 + random.nextInt(0xF000)).toUpperCase();
+            StringBuilder sb = new StringBuilder(17);
+            for (int idx = 0; idx < 6; idx++) {
+                int b = random.nextInt(256);
+                if (idx > 0) {
+                    sb.append(':');
+                }
+                sb.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            bssid = sb.toString();
+            channel = channels[random.nextInt(channels.length)];
+            ht = (random.nextInt(4) == 0) ? "N" : "Y";
+            cc = COUNTRY_CODES[random.nextInt(COUNTRY_CODES.length)];
+            security = SECURITY[random.nextInt(SECURITY.length)];
+            baseRssi = rssiMean + random.nextGaussian() * rssiStddev;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ws.finson.wifix.app;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import nu.xom.Element;
+import nu.xom.Elements;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ws.tuxi.lib.cfg.ConfigurationException;
+
+/**
+ * This SyntheticTable class writes made-up numeric tables as csv files in the form
+ * {@link ImportCSVToTable} reads: a row of labels, then rows of values, each line ended by CR LF.
+ * The labels are a prefix followed by the column number, so the default labels are Ch1, Ch2, and
+ * so on. The values are whole numbers or decimals spread evenly over a range, and a given fraction
+ * of them can be left empty.
+ *
+ * The output depends only on the settings, the number of rows and the seed, so a file can always
+ * be made again exactly.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public class SyntheticTable {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private int columns = 8;
+    private String prefix = "Ch";
+    private boolean decimal = false;
+    private double min = 0;
+    private double max = 255;
+    private double missing = 0;
+    private char delimiter = ',';
+
+    /**
+     * Create a generator with the default settings: eight columns Ch1 to Ch8 of whole numbers from
+     * 0 to 255, none missing.
+     */
+    public SyntheticTable() {
+    }
+
+    /**
+     * @param cE
+     *            the Element from the config file that holds the settings
+     * @ws.tuxi.element columns - the number of columns
+     * @ws.tuxi.element prefix - the start of each column label
+     * @ws.tuxi.element values - attribute type is int or double, attributes min and max the range
+     * @ws.tuxi.element missing - the fraction of values left empty
+     * @ws.tuxi.element delimiter - the field delimiter, a single character
+     * @throws ConfigurationException
+     */
+    public SyntheticTable(Element cE) throws ConfigurationException {
+        Elements sectionElements = cE.getChildElements();
+        for (int idx = 0; idx < sectionElements.size(); idx++) {
+            Element sectionElement = sectionElements.get(idx);
+            String value = sectionElement.getValue().trim();
+            switch (sectionElement.getLocalName()) {
+            case "columns":
+                columns = (int) SyntheticCapture.parse(sectionElement, value, 1, 1000000);
+                break;
+            case "prefix":
+                prefix = value;
+                break;
+            case "values":
+                String type = sectionElement.getAttributeValue("type");
+                if (type != null && !"int".equals(type) && !"double".equals(type)) {
+                    throw new ConfigurationException("Value type must be int or double.");
+                }
+                decimal = "double".equals(type);
+                min = SyntheticCapture.parseAttribute(sectionElement, "min", min,
+                        -Double.MAX_VALUE, Double.MAX_VALUE);
+                max = SyntheticCapture.parseAttribute(sectionElement, "max", max, min,
+                        Double.MAX_VALUE);
+                break;
+            case "missing":
+                missing = SyntheticCapture.parse(sectionElement, value, 0, 1);
+                break;
+            case "delimiter":
+                if (sectionElement.getValue().length() != 1) {
+                    throw new ConfigurationException("Field delimiter must be a single character.");
+                }
+                delimiter = sectionElement.getValue().charAt(0);
+                break;
+            case "file":
+                break;
+            default:
+                logger.warn("Skipping <{}> element. Element not recognized.",
+                        sectionElement.getLocalName());
+                break;
+            }
+        }
+    }
+
+    /**
+     * Write a table file.
+     *
+     * @param p
+     *            the file to write
+     * @param rows
+     *            the number of data rows
+     * @param seed
+     *            the seed of the random numbers
+     * @throws IOException
+     */
+    public void write(Path p, int rows, long seed) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(p, StandardCharsets.UTF_8)) {
+            write(out, rows, seed);
+        }
+    }
+
+    /**
+     * Write a table to a Writer, which is not closed.
+     */
+    public void write(Writer out, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder line = new StringBuilder(columns * 8);
+        for (int col = 1; col <= columns; col++) {
+            if (col > 1) {
+                line.append(delimiter);
+            }
+            line.append(prefix).append(col);
+        }
+        out.append(line.append("\r\n"));
+
+        long span = (long) Math.floor(max) - (long) Math.ceil(min) + 1;
+        for (int row = 0; row < rows; row++) {
+            line.setLength(0);
+            for (int col = 0; col < columns; col++) {
+                if (col > 0) {
+                    line.append(delimiter);
+                }
+                if (missing > 0 && random.nextDouble() < missing) {
+                    continue;
+                }
+                if (decimal) {
+                    appendThousandths(line, Math.round((min + random.nextDouble()
+                            * (max - min)) * 1000));
+                } else {
+                    line.append((long) Math.ceil(min) + (long) (random.nextDouble() * span));
+                }
+            }
+            out.append(line.append("\r\n"));
+        }
+    }
+
+    // The same digits as String.format("%.3f", v / 1000.0), without the cost of a Formatter
+
+    private static void appendThousandths(StringBuilder line, long v) {
+        if (v < 0) {
+            line.append('-');
+            v = -v;
+        }
+        long fraction = v % 1000;
+        line.append(v / 1000).append('.');
+        if (fraction < 100) {
+            line.append('0');
+        }
+        if (fraction < 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+}
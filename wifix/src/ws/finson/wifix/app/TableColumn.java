@@ -0,0 +1,456 @@
+package ws.finson.wifix.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This TableColumn class holds the values of one column of a {@link ColumnarTableElement} in a
+ * primitive array instead of one XOM value Element per cell.
+ *
+ * Each concrete column type stores its values losslessly, that is, getString() always returns
+ * exactly the text that was appended. A column starts out as the narrowest type that can hold
+ * the first value and is widened (int -> long -> double -> dictionary string) when a value is
+ * appended that the current type cannot reproduce exactly. Because of this, append() returns the
+ * column that should be used from then on, which may or may not be the same object.
+ *
+ * Once a table has been built, its columns are treated as read-only so that they can be shared
+ * between copies of the table. Steps that change values build a new column and replace the old.
+ *
+ * @author agent
+ * @since Oct 18, 2026
+ *
+ */
+public abstract class TableColumn {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String name;
+    protected int size = 0;
+
+    protected TableColumn(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Create an empty column of the narrowest type. The type is adjusted automatically as values
+     * are appended.
+     *
+     * @param name
+     *            the column label
+     * @return a new, empty column
+     */
+    public static TableColumn newColumn(String name) {
+        return new IntColumn(name, INITIAL_CAPACITY);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append one value in its original text form.
+     *
+     * @param s
+     *            the text of the value
+     * @return the column to use for subsequent appends, either this one or a wider replacement
+     */
+    public abstract TableColumn append(String s);
+
+    /**
+     * @return the value at the given row exactly as it was originally appended
+     */
+    public abstract String getString(int row);
+
+    /**
+     * @return the value at the given row as a double
+     * @throws NumberFormatException
+     *             if the value is not numeric
+     */
+    public abstract double getDouble(int row);
+
+    /**
+     * @return the value at the given row as an int, using the same rules as Integer.parseInt
+     * @throws NumberFormatException
+     *             if the value is not an int
+     */
+    public int getInt(int row) {
+        return Integer.parseInt(getString(row));
+    }
+
+    /**
+     * Append all the values of another column, in order. Columns of the same type are copied
+     * directly, others are re-appended value by value.
+     *
+     * @param other
+     *            the column whose values are to be appended. It is not changed.
+     * @return the column to use for subsequent appends, either this one or a wider replacement
+     */
+    public TableColumn appendAll(TableColumn other) {
+        if (other.rank() > rank()) {
+            return widenTo(other.newEmpty(getName(), size + other.size())).appendAll(other);
+        }
+        TableColumn result = this;
+        for (int row = 0; row < other.size(); row++) {
+            result = result.append(other.getString(row));
+        }
+        return result;
+    }
+
+    // Position of this column type in the widening order, and an empty column of the same type
+
+    protected abstract int rank();
+
+    protected abstract TableColumn newEmpty(String name, int capacity);
+
+    // Re-append all the values of this column into a wider column
+
+    protected TableColumn widenTo(TableColumn wider) {
+        for (int row = 0; row < size; row++) {
+            wider = wider.append(getString(row));
+        }
+        return wider;
+    }
+
+    protected static int grow(int capacity) {
+        return Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+    }
+
+    /**
+     * An int column. Only values whose text is the canonical Integer.toString() form are accepted.
+     */
+    public static class IntColumn extends TableColumn {
+        private int[] values;
+
+        public IntColumn(String name, int capacity) {
+            super(name);
+            values = new int[capacity];
+        }
+
+        /**
+         * Wrap an existing array of values. The array becomes the property of the column.
+         */
+        public IntColumn(String name, int[] values) {
+            super(name);
+            this.values = values;
+            size = values.length;
+        }
+
+        @Override
+        protected int rank() {
+            return 0;
+        }
+
+        @Override
+        protected TableColumn newEmpty(String name, int capacity) {
+            return new IntColumn(name, capacity);
+        }
+
+        @Override
+        public TableColumn append(String s) {
+            int v;
+            try {
+                v = Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                return widenTo(new LongColumn(getName(), values.length)).append(s);
+            }
+            if (!Integer.toString(v).equals(s)) {
+                return widenTo(new StringColumn(getName(), values.length)).append(s);
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = v;
+            return this;
+        }
+
+        @Override
+        public TableColumn appendAll(TableColumn other) {
+            if (!(other instanceof IntColumn)) {
+                return super.appendAll(other);
+            }
+            IntColumn src = (IntColumn) other;
+            if (size + src.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(grow(values.length), size + src.size));
+            }
+            System.arraycopy(src.values, 0, values, size, src.size);
+            size += src.size;
+            return this;
+        }
+
+        @Override
+        public String getString(int row) {
+            return Integer.toString(values[row]);
+        }
+
+        @Override
+        public double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        public int getInt(int row) {
+            return values[row];
+        }
+    }
+
+    /**
+     * A long column. Only values whose text is the canonical Long.toString() form are accepted.
+     */
+    public static class LongColumn extends TableColumn {
+        private long[] values;
+
+        public LongColumn(String name, int capacity) {
+            super(name);
+            values = new long[capacity];
+        }
+
+        @Override
+        protected int rank() {
+            return 1;
+        }
+
+        @Override
+        protected TableColumn newEmpty(String name, int capacity) {
+            return new LongColumn(name, capacity);
+        }
+
+        @Override
+        public TableColumn append(String s) {
+            long v;
+            try {
+                v = Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                return widenTo(new DoubleColumn(getName(), values.length)).append(s);
+            }
+            if (!Long.toString(v).equals(s)) {
+                return widenTo(new StringColumn(getName(), values.length)).append(s);
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = v;
+            return this;
+        }
+
+        @Override
+        public TableColumn appendAll(TableColumn other) {
+            if (!(other instanceof LongColumn || other instanceof IntColumn)) {
+                return super.appendAll(other);
+            }
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(grow(values.length), size + other.size));
+            }
+            if (other instanceof LongColumn) {
+                System.arraycopy(((LongColumn) other).values, 0, values, size, other.size);
+            } else {
+                int[] src = ((IntColumn) other).values;
+                for (int row = 0; row < other.size; row++) {
+                    values[size + row] = src[row];
+                }
+            }
+            size += other.size;
+            return this;
+        }
+
+        @Override
+        public String getString(int row) {
+            return Long.toString(values[row]);
+        }
+
+        @Override
+        public double getDouble(int row) {
+            return values[row];
+        }
+    }
+
+    /**
+     * A double column. Values are accepted if their text is either a canonical integer or the
+     * canonical Double.toString() form. A bit per row remembers which of the two it was.
+     */
+    public static class DoubleColumn extends TableColumn {
+        private double[] values;
+        private final BitSet integral = new BitSet();
+
+        public DoubleColumn(String name, int capacity) {
+            super(name);
+            values = new double[capacity];
+        }
+
+        /**
+         * Wrap an existing array of values. The array becomes the property of the column and
+         * every value is written in Double.toString() form.
+         */
+        public DoubleColumn(String name, double[] values) {
+            super(name);
+            this.values = values;
+            size = values.length;
+        }
+
+        @Override
+        protected int rank() {
+            return 2;
+        }
+
+        @Override
+        protected TableColumn newEmpty(String name, int capacity) {
+            return new DoubleColumn(name, capacity);
+        }
+
+        @Override
+        public TableColumn append(String s) {
+            double v;
+            long lv = 0;
+            boolean isIntegral = true;
+            try {
+                lv = Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                isIntegral = false;
+            }
+            if (isIntegral) {
+                v = lv;
+                if (!Long.toString(lv).equals(s) || ((long) v != lv)) {
+                    return widenTo(new StringColumn(getName(), values.length)).append(s);
+                }
+            } else {
+                try {
+                    v = Double.parseDouble(s);
+                } catch (NumberFormatException e) {
+                    return widenTo(new StringColumn(getName(), values.length)).append(s);
+                }
+                if (!Double.toString(v).equals(s)) {
+                    return widenTo(new StringColumn(getName(), values.length)).append(s);
+                }
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            integral.set(size, isIntegral);
+            values[size++] = v;
+            return this;
+        }
+
+        @Override
+        public TableColumn appendAll(TableColumn other) {
+            if (!(other instanceof DoubleColumn)) {
+                return super.appendAll(other);
+            }
+            DoubleColumn src = (DoubleColumn) other;
+            if (size + src.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(grow(values.length), size + src.size));
+            }
+            System.arraycopy(src.values, 0, values, size, src.size);
+            for (int row = src.integral.nextSetBit(0); row >= 0 && row < src.size; row = src.integral
+                    .nextSetBit(row + 1)) {
+                integral.set(size + row);
+            }
+            size += src.size;
+            return this;
+        }
+
+        @Override
+        public String getString(int row) {
+            return integral.get(row) ? Long.toString((long) values[row]) : Double
+                    .toString(values[row]);
+        }
+
+        @Override
+        public double getDouble(int row) {
+            return values[row];
+        }
+    }
+
+    /**
+     * A dictionary encoded String column. Each distinct value is stored once and each row holds
+     * an index into the dictionary. This column accepts any value.
+     */
+    public static class StringColumn extends TableColumn {
+        private int[] codes;
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> lookup = new HashMap<>();
+
+        public StringColumn(String name, int capacity) {
+            super(name);
+            codes = new int[capacity];
+        }
+
+        @Override
+        protected int rank() {
+            return 3;
+        }
+
+        @Override
+        protected TableColumn newEmpty(String name, int capacity) {
+            return new StringColumn(name, capacity);
+        }
+
+        @Override
+        public TableColumn append(String s) {
+            Integer code = lookup.get(s);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(s);
+                lookup.put(s, code);
+            }
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, grow(size));
+            }
+            codes[size++] = code;
+            return this;
+        }
+
+        @Override
+        public TableColumn appendAll(TableColumn other) {
+            if (!(other instanceof StringColumn)) {
+                return super.appendAll(other);
+            }
+            StringColumn src = (StringColumn) other;
+
+            // Translate the other column's dictionary codes into codes of this dictionary
+
+            int[] translation = new int[src.dictionary.size()];
+            for (int idx = 0; idx < translation.length; idx++) {
+                String s = src.dictionary.get(idx);
+                Integer code = lookup.get(s);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.add(s);
+                    lookup.put(s, code);
+                }
+                translation[idx] = code;
+            }
+            if (size + src.size > codes.length) {
+                codes = Arrays.copyOf(codes, Math.max(grow(codes.length), size + src.size));
+            }
+            for (int row = 0; row < src.size; row++) {
+                codes[size + row] = translation[src.codes[row]];
+            }
+            size += src.size;
+            return this;
+        }
+
+        @Override
+        public String getString(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        @Override
+        public double getDouble(int row) {
+            return Double.parseDouble(getString(row));
+        }
+
+        /**
+         * @return the number of distinct values in this column
+         */
+        public int getDictionarySize() {
+            return dictionary.size();
+        }
+    }
+}
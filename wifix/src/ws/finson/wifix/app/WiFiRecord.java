@@ -1,8 +1,6 @@
 package ws.finson.wifix.app;
 
 import java.io.LineNumberReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,19 +17,23 @@ import ws.tuxi.lib.pipeline.PipelineSourceException;
 public class WiFiRecord extends AbstractRecord {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private final Pattern firstLinePattern = Pattern
-            .compile("^\\s*(\\w+)\\s+(\\w+)\\s+(\\w+)\\s+(\\w+)\\s+(\\w+)\\s+(\\w+)\\s+(\\w+).*$");
-
-    private final Pattern valueLinePattern = Pattern
-            .compile("^(.*?)([a-fA-F\\d]{2}(?::[a-fA-F\\d]{2}){5})\\s+(\\S+)\\s+([^\\s,]+)(?:,\\S+)?\\s+(\\S+)\\s+(\\S+)\\s+(\\S+).*$");
-
-    private final Pattern blankLinePattern = Pattern.compile("^\\s*$");
-    private final Pattern ibssLinePattern = Pattern.compile("^.*?IBSS networks? found.*$");
     /**
      * @throws PipelineSourceException
      * 
      */
     public WiFiRecord(LineNumberReader src) throws PipelineSourceException {
+        this(src, null);
+    }
+
+    /**
+     * @param handler
+     *            if not null, the rows are passed to the handler as they are read and are not
+     *            kept in this record
+     * @throws PipelineSourceException
+     */
+    public WiFiRecord(LineNumberReader src, CaptureScanHandler handler)
+            throws PipelineSourceException {
+        super(handler);
 
         // Read WiFi info from raw data file
 
@@ -43,8 +45,8 @@ public class WiFiRecord extends AbstractRecord {
         // First line is (probably) the column labels.
         // but it might be data if they left the label line out for some reason!
 
-        Matcher m = firstLinePattern.matcher(line);
-        if (!m.matches()) {
+        String[] row = CaptureLineScanner.splitLabels(line);
+        if (row == null) {
             if (line.startsWith("No networks found")) {
                 skipRemainderOfCurrentRecord(src);
                 return;
@@ -56,42 +58,34 @@ public class WiFiRecord extends AbstractRecord {
             }
         }
 
-        String[] row = new String[6];
-        for (int idx = 0; idx < row.length; idx++) {
-            row[idx] = m.group(idx + 1).trim();
-        }
-        recordValues.add(row);
+        addRow(row);
 
         // the following lines are (mostly) actual data values
 
         do {
             line = getNextLineOfCurrentRecord(src);
             logger.trace(line);
-            if (blankLinePattern.matcher(line).matches()) {
+            if (CaptureLineScanner.isBlank(line)) {
                 continue;
             }
             if (isEndOfRecordIndicator(line)) {
                 break;
             }
-            if (ibssLinePattern.matcher(line).matches()) {
+            if (CaptureLineScanner.isIbssLine(line)) {
                 skipRemainderOfCurrentRecord(src);
                 break;
             }
-            m = valueLinePattern.matcher(line);
-            if (!m.matches()) {
+            row = CaptureLineScanner.splitValues(line);
+            if (row == null) {
                 logger.warn("("+Integer.toString(src.getLineNumber()) +") Unexpected WiFi value line format: " + line);
                 logger.warn("The rest of this record will be skipped.");
                 skipRemainderOfCurrentRecord(src);
                 return;
             }
-            row = new String[6];
-            for (int idx = 0; idx < row.length; idx++) {
-                row[idx] = m.group(idx + 1).trim();
-            }
-            recordValues.add(row);
+            addRow(row);
         } while (true);
         
-        logger.trace("{} values for each field in this record.", recordValues.size() - 1);
+        logger.trace("{} values for each field in this record.", getRowCount() - 1);
         
         return;
     }